@@ -3,9 +3,11 @@ package com.klef.fsd;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableMongoRepositories(basePackages = "com.klef.fsd.repository")
+@EnableScheduling
 public class SdpProjectApplication {
 
 	public static void main(String[] args) {
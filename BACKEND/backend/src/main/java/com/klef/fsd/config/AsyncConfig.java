@@ -0,0 +1,19 @@
+package com.klef.fsd.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Streaming exports run as async requests; the container's 30s default would cut off large dumps
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    @Value("${export.request-timeout-ms:600000}")
+    private long requestTimeoutMs;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(requestTimeoutMs);
+    }
+}
@@ -1,22 +1,32 @@
 // Create a new file: CorsConfig.java
 package com.klef.fsd.config;
 
+import java.util.List;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.CorsRegistry;
-import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.core.Ordered;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import org.springframework.web.filter.CorsFilter;
 
 @Configuration
 public class CorsConfig {
+   // A servlet filter rather than MVC CORS mappings, so responses written by other filters
+   // (idempotent replays, 409 and 422) carry the CORS headers too
    @Bean
-   public WebMvcConfigurer corsConfigurer() {
-      return new WebMvcConfigurer() {
-         @Override
-         public void addCorsMappings(CorsRegistry registry) {
-            registry.addMapping("/**")
-                .allowedOrigins("*")
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS");
-         }
-      };
+   public FilterRegistrationBean<CorsFilter> corsFilter() {
+      CorsConfiguration cors = new CorsConfiguration();
+      cors.addAllowedOrigin("*");
+      cors.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
+      cors.addAllowedHeader("*");
+      cors.addExposedHeader(IdempotencyFilter.REPLAYED_HEADER);
+      UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+      source.registerCorsConfiguration("/**", cors);
+
+      FilterRegistrationBean<CorsFilter> registration = new FilterRegistrationBean<>(new CorsFilter(source));
+      registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+      return registration;
    }
 }
@@ -0,0 +1,260 @@
+package com.klef.fsd.config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.model.Address;
+import com.klef.fsd.model.Admin;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.BuyerCart;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.model.IdempotencyRecord;
+import com.klef.fsd.model.Image;
+import com.klef.fsd.model.Order;
+import com.klef.fsd.model.PaymentEvent;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.service.CartSlotBackfill;
+import com.mongodb.MongoException;
+
+/**
+ * Creates the indexes declared on the models (auto-index-creation is off) and then
+ * explains the canonical shape of every hot repository query. A winning plan that
+ * contains a COLLSCAN is logged, or fails startup when mongo.index-advisor.mode=fail.
+ * With cart.model=lines the cart lines are backfilled first, and startup fails whatever
+ * the mode if the unique cart indexes are still missing: they alone enforce the cart
+ * limit and one line per product. An unreachable Mongo is only logged: that is not a
+ * missing index.
+ */
+@Component
+public class IndexAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+
+    private static final List<Class<?>> ENTITIES = List.of(Product.class, Order.class, Cart.class,
+            Address.class, Buyer.class, Seller.class, Admin.class, Image.class, BuyerCart.class,
+            PaymentEvent.class, IdempotencyRecord.class);
+
+    record Shape(String name, Class<?> entity, Document filter, Document sort) {
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Only present with cart.model=lines
+    @Autowired
+    private ObjectProvider<CartSlotBackfill> cartSlotBackfill;
+
+    @Value("${mongo.indexes.ensure:true}")
+    private boolean ensureIndexes;
+
+    // warn, fail or off
+    @Value("${mongo.index-advisor.mode:warn}")
+    private String mode;
+
+    // Before the catalog rebuild and other startup readers, so they already get the indexes
+    @EventListener(ApplicationReadyEvent.class)
+    @org.springframework.core.annotation.Order(Ordered.HIGHEST_PRECEDENCE)
+    public void advise() {
+        String adviceMode = mode.trim().toLowerCase(Locale.ROOT);
+        CartSlotBackfill backfill = cartSlotBackfill.getIfAvailable();
+        if (backfill == null && !ensureIndexes && adviceMode.equals("off")) {
+            return;
+        }
+        try {
+            mongoTemplate.executeCommand(new Document("ping", 1));
+        } catch (RuntimeException e) {
+            logger.warn("Index advisor skipped, Mongo unavailable: {}", e.getMessage());
+            return;
+        }
+        if (backfill != null) {
+            try {
+                backfill.run();
+            } catch (RuntimeException e) {
+                // The index check below decides whether that matters
+                logger.warn("Cart slot backfill failed: {}", e.getMessage());
+            }
+        }
+        if (ensureIndexes) {
+            ensureIndexes();
+        }
+        if (backfill != null) {
+            List<String> missing = backfill.missingUniqueIndexes();
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("Unique cart indexes missing on "
+                        + mongoTemplate.getCollectionName(Cart.class) + ": " + String.join(", ", missing));
+            }
+        }
+        if (adviceMode.equals("off")) {
+            return;
+        }
+
+        List<Shape> shapes = shapes();
+        List<String> scans = new ArrayList<>();
+        for (Shape shape : shapes) {
+            try {
+                if (usesCollectionScan(explain(shape))) {
+                    scans.add(shape.name());
+                    logger.warn("COLLSCAN for {} on {}: filter {} sort {}", shape.name(),
+                            mongoTemplate.getCollectionName(shape.entity()), shape.filter().toJson(),
+                            shape.sort().toJson());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not explain {}: {}", shape.name(), e.getMessage());
+            }
+        }
+        if (!scans.isEmpty() && adviceMode.equals("fail")) {
+            throw new IllegalStateException("Queries without a usable index: " + String.join(", ", scans));
+        }
+        logger.info("Index advisor checked {} query shapes, {} collection scans", shapes.size(), scans.size());
+    }
+
+    private void ensureIndexes() {
+        IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+        for (Class<?> entity : ENTITIES) {
+            IndexOperations indexOps = mongoTemplate.indexOps(entity);
+            for (IndexDefinition index : resolver.resolveIndexFor(entity)) {
+                try {
+                    indexOps.ensureIndex(index);
+                } catch (RuntimeException e) {
+                    if (optionsChanged(e) && replace(indexOps, index)) {
+                        continue;
+                    }
+                    // e.g. the same keys already indexed under another name, or duplicates blocking a unique index
+                    logger.warn("Could not create index {} on {}: {}", index.getIndexKeys().toJson(),
+                            mongoTemplate.getCollectionName(entity), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // IndexOptionsConflict / IndexKeySpecsConflict: an index of that name exists with other options
+    private static boolean optionsChanged(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException mongo && (mongo.getCode() == 85 || mongo.getCode() == 86)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Rebuilds a non-unique index whose definition changed (e.g. seller_sku from sparse to partial);
+    // a unique index is left for an operator, since dropping it lifts the constraint meanwhile
+    private boolean replace(IndexOperations indexOps, IndexDefinition index) {
+        Document options = index.getIndexOptions();
+        String name = options.getString("name");
+        if (name == null || options.getBoolean("unique", false)) {
+            return false;
+        }
+        try {
+            indexOps.dropIndex(name);
+            indexOps.ensureIndex(index);
+            logger.info("Rebuilt index {} with its new definition", name);
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("Could not rebuild index {}: {}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    private Document explain(Shape shape) {
+        Document result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(shape.entity()))
+                .find(shape.filter()).sort(shape.sort()).explain();
+        Document queryPlanner = result.get("queryPlanner", Document.class);
+        return queryPlanner != null ? queryPlanner.get("winningPlan", Document.class) : result;
+    }
+
+    // Walks inputStage, inputStages and the newer queryPlan wrapper alike
+    static boolean usesCollectionScan(Object plan) {
+        if (plan instanceof Document document) {
+            if ("COLLSCAN".equals(document.get("stage"))) {
+                return true;
+            }
+            for (Object value : document.values()) {
+                if (usesCollectionScan(value)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof List<?> list) {
+            for (Object value : list) {
+                if (usesCollectionScan(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // One entry per repository method (or hand-built query) on a hot path; values are placeholders
+    static List<Shape> shapes() {
+        ObjectId id = new ObjectId();
+        Date since = new Date();
+        Document none = new Document();
+        Document newestFirst = new Document("orderDate", -1).append("_id", -1);
+        return List.of(
+                new Shape("CartRepository.findByBuyer", Cart.class, new Document("buyer.$id", id), none),
+                new Shape("CartRepository.findByBuyerIdAndProductId", Cart.class,
+                        new Document("buyer.$id", id).append("product.$id", id), none),
+                new Shape("CartRepository.findTakenSlots", Cart.class,
+                        new Document("buyer.$id", id).append("slot", new Document("$exists", true)), none),
+                new Shape("CartService.removeProductsFromAllCarts", Cart.class,
+                        new Document("product.$id", new Document("$in", List.of(id))), none),
+                new Shape("EmbeddedCartServiceImpl.removeCartItem", BuyerCart.class,
+                        new Document("items.id", id.toHexString()), none),
+                new Shape("EmbeddedCartServiceImpl.removeProductsFromAllCarts", BuyerCart.class,
+                        new Document("items.productId", new Document("$in", List.of(id.toHexString()))), none),
+                new Shape("OrderRepository.findByBuyerId", Order.class,
+                        new Document("buyer.$id", id), newestFirst),
+                new Shape("OrderRepository.findBySellerId", Order.class,
+                        new Document("seller.$id", id), newestFirst),
+                new Shape("OrderRepository.findBySellerIdAndOrderDateAfter", Order.class,
+                        new Document("seller.$id", id).append("orderDate", new Document("$gte", since)), none),
+                new Shape("OrderRepository.findByOrderDateAfter", Order.class,
+                        new Document("orderDate", new Document("$gte", since)), none),
+                new Shape("OrderRepository.productsByPayment", Order.class,
+                        new Document("razorpayPaymentId", "pay_advisor"), none),
+                new Shape("orders by product", Order.class, new Document("product.$id", id), none),
+                new Shape("PaymentCaptureService.claim", PaymentEvent.class,
+                        new Document("status", new Document("$in", List.of("PENDING", "PROCESSING")))
+                                .append("notBefore", new Document("$lte", since)),
+                        new Document("notBefore", 1)),
+                new Shape("AddressRepository.findByBuyerId", Address.class, new Document("buyer.$id", id), none),
+                new Shape("BuyerRepository.findByEmail", Buyer.class, new Document("email", "advisor@example.com"), none),
+                new Shape("BuyerRepository.findByResetToken", Buyer.class, new Document("resetToken", "advisor"), none),
+                new Shape("SellerRepository.findByEmail", Seller.class, new Document("email", "advisor@example.com"), none),
+                new Shape("SellerRepository.findByUsernameAndPassword", Seller.class,
+                        new Document("username", "advisor").append("password", "advisor"), none),
+                new Shape("SellerRepository.findByResetToken", Seller.class, new Document("resetToken", "advisor"), none),
+                new Shape("SellerRepository.findByStatus", Seller.class, new Document("status", "Pending"), none),
+                new Shape("AdminRepository.findByUsername", Admin.class, new Document("username", "advisor"), none),
+                new Shape("products by category", Product.class, new Document("category", "advisor"), none),
+                new Shape("products by seller", Product.class, new Document("seller.$id", id),
+                        new Document("_id", 1)),
+                new Shape("imported products by seller", Product.class,
+                        new Document("seller.$id", id).append("sku", new Document("$exists", true)), none),
+                new Shape("ImageIngestionService.sweepStale", Product.class,
+                        new Document("imageUploadToken", new Document("$exists", true)).append("imageStatus", "PENDING"),
+                        none),
+                new Shape("products by price", Product.class, none, new Document("cost", 1).append("_id", 1)),
+                new Shape("image cleanup", Image.class, new Document("refCount", new Document("$lte", 0))
+                        .append("releasedAt", new Document("$lt", since)), none));
+    }
+}
@@ -1,23 +1,37 @@
 package com.klef.fsd.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.model.Admin;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Seller;
 import com.klef.fsd.service.AdminService;
+import com.klef.fsd.service.CartService;
+import com.klef.fsd.service.ExportService;
+import com.klef.fsd.service.ProductService;
 
 @RestController
 @RequestMapping("/admin")
@@ -26,6 +40,16 @@ public class AdminController {
 
 	@Autowired
 	private AdminService service;
+	@Autowired
+	private ExportService exportService;
+	@Autowired
+	private CartService cartService;
+	@Autowired
+	private ProductService productService;
+
+	// Cache stats are off unless this is set, and then need it in the X-Admin-Token header
+	@Value("${admin.stats-token:}")
+	private String statsToken;
 //	@Autowired
 //	private SellerService sellerservice;
 
@@ -44,6 +68,21 @@ public class AdminController {
 		}
 	}
 
+	@GetMapping("/cache/stats")
+	public ResponseEntity<?> cacheStats(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+		if (statsToken.isEmpty()) {
+			return ResponseEntity.notFound().build();
+		}
+		if (token == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+				statsToken.getBytes(StandardCharsets.UTF_8))) {
+			return ResponseEntity.status(401).body("Invalid admin token");
+		}
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("cart", cartService.getCartCacheStats());
+		stats.put("product", productService.getProductCacheStats());
+		return ResponseEntity.ok(stats);
+	}
+
 	@PostMapping("/addseller")
 	public ResponseEntity<String> addseller(@RequestBody Seller seller) {
 		try {
@@ -66,6 +105,29 @@ public class AdminController {
 		return ResponseEntity.ok(buyers);
 	}
 
+	// Keyset-paginated variants, selected when the client sends ?limit=
+	@GetMapping(value = "/viewallsellers", params = "limit")
+	public ResponseEntity<?> viewallsellersPage(@RequestParam Integer limit,
+			@RequestParam(required = false) String after) {
+		try {
+			CursorPage<Seller> page = service.viewSellersPage(after, limit);
+			return ResponseEntity.ok(page);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
+	@GetMapping(value = "/viewallbuyers", params = "limit")
+	public ResponseEntity<?> viewallbuyersPage(@RequestParam Integer limit,
+			@RequestParam(required = false) String after) {
+		try {
+			CursorPage<Buyer> page = service.viewBuyersPage(after, limit);
+			return ResponseEntity.ok(page);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
 //	@PostMapping("/approveseller")
 //	public ResponseEntity<String> approveSeller(@RequestBody int sellerId) {
 //		try {
@@ -138,6 +200,25 @@ public class AdminController {
 		}
 	}
 
+	// All orders streamed from a Mongo cursor, optionally filtered by date and status
+	@GetMapping("/orders/export")
+	public ResponseEntity<?> exportOrders(
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+			@RequestParam(required = false) String status, @RequestParam(required = false) String format) {
+		try {
+			ExportService.Format exportFormat = ExportService.Format.of(format);
+			StreamingResponseBody body = exportService.exportOrders(null, from, to, status, exportFormat);
+			return ResponseEntity.ok()
+					.header(HttpHeaders.CONTENT_DISPOSITION,
+							"attachment; filename=\"orders." + exportFormat.getExtension() + "\"")
+					.contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+					.body(body);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
 	@GetMapping("/revenue")
 	public ResponseEntity<Map<?, ?>> getTotalRevenue() {
 		try {
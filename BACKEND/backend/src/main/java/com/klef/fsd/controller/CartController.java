@@ -1,8 +1,11 @@
 package com.klef.fsd.controller;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -10,14 +13,17 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CartOperationDTO;
 import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Cart;
 import com.klef.fsd.model.Product;
+import com.klef.fsd.service.CartConflictException;
 import com.klef.fsd.service.CartService;
 
 @CrossOrigin(origins = "*")
@@ -72,11 +78,36 @@ public class CartController {
             return ResponseEntity.ok(cartDTO);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body("{\"error\": \"" + e.getMessage() + "\"}");
+        } catch (CartConflictException e) {
+            // Lost a race with other adds to the same cart; the client may retry
+            return conflict(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("{\"error\": \"Internal server error: " + e.getMessage() + "\"}");
         }
     }
 
+    // Several add/update/remove steps in one call; the whole batch is rejected if any step is invalid.
+    // A concurrent change to the cart gives 409 with the cart as it now is, which may hold some of the steps.
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(@RequestParam String buyerId, @RequestBody List<CartOperationDTO> operations) {
+        try {
+            return ResponseEntity.ok(cartService.applyCartBatch(buyerId, operations));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"error\": \"" + e.getMessage() + "\"}");
+        } catch (CartConflictException e) {
+            return conflict(e);
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("{\"error\": \"Internal server error: " + e.getMessage() + "\"}");
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> conflict(CartConflictException e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", e.getMessage());
+        body.put("cart", e.getCart());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(body);
+    }
+
     @GetMapping("/buyer/{buyerId}")
     public ResponseEntity<List<CartDTO>> getCartItems(@PathVariable String buyerId) {
         List<CartDTO> cartItems = cartService.getCartItemsByBuyerId(buyerId);
@@ -1,11 +1,18 @@
 package com.klef.fsd.controller;
 
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.dto.OrderDTO;
+import com.klef.fsd.service.ExportService;
 import com.klef.fsd.service.OrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -16,6 +23,9 @@ public class OrderController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private ExportService exportService;
+
     @GetMapping("/buyer/{buyerId}")
     public ResponseEntity<List<OrderDTO>> getBuyerOrders(@PathVariable String buyerId) {
         try {
@@ -35,4 +45,46 @@ public class OrderController {
             return ResponseEntity.badRequest().body(null);
         }
     }
-}
\ No newline at end of file
+
+    // Keyset-paginated variants (newest first), selected when the client sends ?limit=
+    @GetMapping(value = "/buyer/{buyerId}", params = "limit")
+    public ResponseEntity<?> getBuyerOrdersPage(@PathVariable String buyerId, @RequestParam Integer limit,
+            @RequestParam(required = false) String after) {
+        try {
+            CursorPage<OrderDTO> page = orderService.getOrdersByBuyerIdPage(buyerId, after, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping(value = "/seller/{sellerId}", params = "limit")
+    public ResponseEntity<?> getSellerOrdersPage(@PathVariable String sellerId, @RequestParam Integer limit,
+            @RequestParam(required = false) String after) {
+        try {
+            CursorPage<OrderDTO> page = orderService.getOrdersBySellerIdPage(sellerId, after, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Streams the seller's orders from a Mongo cursor instead of building the list in memory
+    @GetMapping("/seller/{sellerId}/export")
+    public ResponseEntity<?> exportSellerOrders(@PathVariable String sellerId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String status, @RequestParam(required = false) String format) {
+        try {
+            ExportService.Format exportFormat = ExportService.Format.of(format);
+            StreamingResponseBody body = exportService.exportOrders(sellerId, from, to, status, exportFormat);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"orders." + exportFormat.getExtension() + "\"")
+                    .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                    .body(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
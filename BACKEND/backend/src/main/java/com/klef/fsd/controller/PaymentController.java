@@ -1,38 +1,37 @@
 package com.klef.fsd.controller;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.klef.fsd.model.Address;
-import com.klef.fsd.model.Buyer;
-import com.klef.fsd.model.Order;
-import com.klef.fsd.model.Product;
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.model.Checkout;
+import com.klef.fsd.model.PaymentEvent;
 import com.klef.fsd.repository.AddressRepository;
 import com.klef.fsd.repository.BuyerRepository;
-import com.klef.fsd.repository.OrderRepository;
-import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.repository.CheckoutRepository;
 import com.klef.fsd.service.CartService;
-import com.klef.fsd.service.OrderService;
-import com.razorpay.RazorpayClient;
-import com.razorpay.RazorpayException;
-import com.razorpay.Utils;
+import com.klef.fsd.service.PaymentCaptureService;
+import com.klef.fsd.service.PaymentGateway;
+import com.klef.fsd.service.PaymentGatewayException;
 
 @RestController
 @RequestMapping("/payment")
@@ -45,25 +44,19 @@ public class PaymentController {
     private CartService cartService;
 
     @Autowired
-    private OrderService orderService;
+    private PaymentCaptureService paymentCaptureService;
 
     @Autowired
     private BuyerRepository buyerRepository;
 
-    @Autowired
-    private ProductRepository productRepository;
-
     @Autowired
     private AddressRepository addressRepository;
 
     @Autowired
-    private OrderRepository orderRepository;
-
-    @Value("${razorpay.key.id:}")
-    private String razorpayKeyId;
+    private PaymentGateway paymentGateway;
 
-    @Value("${razorpay.secret.key:}")
-    private String razorpaySecretKey;
+    @Autowired
+    private CheckoutRepository checkoutRepository;
 
     @PostMapping("/create-order")
     public ResponseEntity<Map<String, Object>> createOrder(@RequestBody Map<String, Object> request) {
@@ -91,8 +84,9 @@ public class PaymentController {
                     .orElseThrow(() -> new IllegalArgumentException("Address not found with ID: " + addressId));
             logger.info("Address validated: ID={}", addressId);
 
-            // Fetch cart items
-            List<com.klef.fsd.dto.CartDTO> cartItems = cartService.getCartItemsByBuyerId(buyerId);
+            // Fetch cart items, writing any buffered quantity changes first
+            cartService.flushCart(buyerId);
+            List<CartDTO> cartItems = cartService.getCartItemsByBuyerId(buyerId);
             if (cartItems == null || cartItems.isEmpty()) {
                 response.put("success", false);
                 response.put("message", "Cart is empty");
@@ -101,7 +95,7 @@ public class PaymentController {
             logger.info("Cart items fetched: Count={}", cartItems.size());
 
             // Validate cart items
-            for (com.klef.fsd.dto.CartDTO cartItem : cartItems) {
+            for (CartDTO cartItem : cartItems) {
                 if (cartItem == null || cartItem.getProduct() == null || cartItem.getProduct().getId() == null || cartItem.getProduct().getId().isEmpty()) {
                     throw new IllegalStateException("Invalid cart item: Product is missing or invalid");
                 }
@@ -124,29 +118,22 @@ public class PaymentController {
             }
             logger.info("Total amount calculated: {}", totalAmount);
 
-            // Initialize Razorpay client
-            if (razorpayKeyId.isEmpty() || razorpaySecretKey.isEmpty()) {
-                throw new IllegalStateException("Razorpay API keys are not configured properly. Check application.properties.");
-            }
-
-            RazorpayClient razorpayClient = new RazorpayClient(razorpayKeyId, razorpaySecretKey);
-            logger.info("Razorpay client initialized successfully");
+            // Create the payment order with the provider
+            // buyerId and addressId ride along as notes so the webhook can place the orders on its own
+            long amountInPaise = Math.round(totalAmount * 100);
+            PaymentGateway.GatewayOrder gatewayOrder = paymentGateway.createOrder(amountInPaise, "INR",
+                    "order_rcptid_" + buyerId, Map.of("buyerId", buyerId, "addressId", addressId));
+            logger.info("Payment order created: OrderId={}", gatewayOrder.id());
 
-            // Create Razorpay order
-            JSONObject orderRequest = new JSONObject();
-            orderRequest.put("amount", (int) (totalAmount * 100)); // Amount in paise
-            orderRequest.put("currency", "INR");
-            orderRequest.put("receipt", "order_rcptid_" + buyerId);
-
-            com.razorpay.Order razorpayOrder = razorpayClient.orders.create(orderRequest);
-            logger.info("Razorpay order created: OrderId={}", razorpayOrder.get("id").toString());
+            // Orders are built from this snapshot once the payment is captured, not from the cart at that time
+            checkoutRepository.save(checkout(gatewayOrder.id(), buyerId, addressId, amountInPaise, cartItems));
 
             // Prepare response
             response.put("success", true);
-            response.put("orderId", razorpayOrder.get("id").toString());
+            response.put("orderId", gatewayOrder.id());
             response.put("amount", totalAmount);
             response.put("currency", "INR");
-            response.put("key", razorpayKeyId);
+            response.put("key", paymentGateway.keyId());
 
             return ResponseEntity.ok(response);
 
@@ -155,10 +142,10 @@ public class PaymentController {
             response.put("success", false);
             response.put("message", e.getMessage());
             return ResponseEntity.badRequest().body(response);
-        } catch (RazorpayException e) {
-            logger.error("Razorpay error in createOrder: {}", e.getMessage(), e);
+        } catch (PaymentGatewayException e) {
+            logger.error("Payment gateway error in createOrder: {}", e.getMessage(), e);
             response.put("success", false);
-            response.put("message", "Error creating Razorpay order: " + e.getMessage());
+            response.put("message", "Error creating payment order: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         } catch (Exception e) {
             logger.error("Unexpected error in createOrder: {}", e.getMessage(), e);
@@ -169,7 +156,6 @@ public class PaymentController {
     }
 
     @PostMapping("/verify-payment")
-    @Transactional
     public ResponseEntity<Map<String, Object>> verifyPayment(@RequestBody Map<String, Object> paymentData) {
         Map<String, Object> response = new HashMap<>();
         try {
@@ -194,18 +180,8 @@ public class PaymentController {
 
             logger.info("Verifying payment: orderId={}, paymentId={}, buyerId={}, addressId={}", razorpayOrderId, paymentId, buyerId, addressId);
 
-            // Check for duplicate payment (idempotency)
-            Optional<Order> existingOrder = orderRepository.findByRazorpayPaymentId(paymentId);
-            if (existingOrder.isPresent()) {
-                logger.info("Duplicate payment detected: paymentId={}", paymentId);
-                response.put("success", true);
-                response.put("message", "Payment already processed for this payment ID");
-                return ResponseEntity.ok(response);
-            }
-
             // Verify the payment signature
-            String payload = razorpayOrderId + "|" + paymentId;
-            boolean isValidSignature = Utils.verifySignature(payload, signature, razorpaySecretKey);
+            boolean isValidSignature = paymentGateway.verifyPaymentSignature(razorpayOrderId, paymentId, signature);
             if (!isValidSignature) {
                 logger.error("Payment signature verification failed: orderId={}, paymentId={}", razorpayOrderId, paymentId);
                 response.put("success", false);
@@ -214,57 +190,9 @@ public class PaymentController {
             }
             logger.info("Payment signature verified successfully");
 
-            // Fetch buyer and address
-            Buyer buyer = buyerRepository.findById(buyerId)
-                    .orElseThrow(() -> new IllegalArgumentException("Buyer not found with ID: " + buyerId));
-            Address address = addressRepository.findById(addressId)
-                    .orElseThrow(() -> new IllegalArgumentException("Address not found with ID: " + addressId));
-            logger.info("Buyer and Address validated: BuyerId={}, AddressId={}", buyerId, addressId);
-
-            // Fetch cart items
-            List<com.klef.fsd.dto.CartDTO> cartItems = cartService.getCartItemsByBuyerId(buyerId);
-            if (cartItems == null || cartItems.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Cart is empty");
-                return ResponseEntity.badRequest().body(response);
-            }
-            logger.info("Cart items fetched for verification: Count={}", cartItems.size());
-
-            // Validate cart items
-            for (com.klef.fsd.dto.CartDTO cartItem : cartItems) {
-                if (cartItem == null || cartItem.getProduct() == null || cartItem.getProduct().getId() == null || cartItem.getProduct().getId().isEmpty()) {
-                    throw new IllegalStateException("Invalid cart item: Product is missing or invalid");
-                }
-            }
-
-            // Create orders for each cart item
-            for (com.klef.fsd.dto.CartDTO cartItem : cartItems) {
-                Product product = productRepository.findById(cartItem.getProduct().getId())
-                        .orElseThrow(() -> new IllegalArgumentException("Product not found with ID: " + cartItem.getProduct().getId()));
-
-                Order order = new Order();
-                order.setBuyer(buyer);
-                order.setSeller(product.getSeller());
-                order.setProduct(product);
-                order.setQuantity(cartItem.getQuantity());
-                order.setAmount(product.getCost() * cartItem.getQuantity());
-                order.setStatus("PAID");
-                order.setOrderDate(LocalDateTime.now());
-                order.setAddress(address);
-                order.setRazorpayOrderId(razorpayOrderId);
-                order.setRazorpayPaymentId(paymentId);
-
-                orderService.createOrder(order);
-                logger.info("Order created: ProductId={}, Quantity={}", product.getId(), cartItem.getQuantity());
-            }
-
-            // Clear the cart
-            cartService.clearCartByBuyerId(buyerId);
-            logger.info("Cart cleared for BuyerId={}", buyerId);
-
-            response.put("success", true);
-            response.put("message", "Payment verified and order created successfully");
-            return ResponseEntity.ok(response);
+            // Orders are placed by the capture workers; the webhook may have queued this payment already
+            PaymentEvent event = paymentCaptureService.enqueue(paymentId, razorpayOrderId, buyerId, addressId, "client");
+            return ResponseEntity.ok(statusResponse(event));
 
         } catch (IllegalArgumentException | IllegalStateException e) {
             logger.error("Validation error in verifyPayment: {}", e.getMessage());
@@ -278,4 +206,84 @@ public class PaymentController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
-}
\ No newline at end of file
+
+    // Razorpay calls this for order.paid and payment.captured; anything else is acknowledged and ignored
+    @PostMapping("/webhook")
+    public ResponseEntity<String> webhook(@RequestBody String body,
+            @RequestHeader(value = "X-Razorpay-Signature", required = false) String signature) {
+        if (!paymentGateway.verifyWebhookSignature(body, signature)) {
+            logger.error("Webhook signature verification failed");
+            return ResponseEntity.badRequest().body("Invalid signature");
+        }
+        try {
+            JSONObject event = new JSONObject(body);
+            String type = event.optString("event");
+            if (!type.equals("order.paid") && !type.equals("payment.captured")) {
+                return ResponseEntity.ok("Ignored");
+            }
+            JSONObject payload = event.getJSONObject("payload");
+            JSONObject payment = payload.getJSONObject("payment").getJSONObject("entity");
+            // Razorpay sends empty notes as [], so read them leniently; order notes win over payment notes
+            JSONObject notes = payment.optJSONObject("notes");
+            JSONObject order = payload.optJSONObject("order");
+            if (order != null && order.optJSONObject("entity") != null
+                    && order.getJSONObject("entity").optJSONObject("notes") != null) {
+                notes = order.getJSONObject("entity").getJSONObject("notes");
+            }
+            String buyerId = notes != null ? notes.optString("buyerId", null) : null;
+            String addressId = notes != null ? notes.optString("addressId", null) : null;
+
+            paymentCaptureService.enqueue(payment.getString("id"), payment.getString("order_id"), buyerId, addressId,
+                    "webhook");
+            logger.info("Webhook {} queued: paymentId={}", type, payment.getString("id"));
+            return ResponseEntity.ok("Queued");
+        } catch (JSONException e) {
+            logger.error("Malformed webhook payload: {}", e.getMessage());
+            return ResponseEntity.badRequest().body("Malformed payload");
+        }
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> paymentStatus(@RequestParam String paymentId) {
+        return paymentCaptureService.status(paymentId)
+                .map(event -> ResponseEntity.ok(statusResponse(event)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private static Checkout checkout(String razorpayOrderId, String buyerId, String addressId, long amount,
+            List<CartDTO> cartItems) {
+        List<Checkout.Line> lines = new ArrayList<>(cartItems.size());
+        for (CartDTO cartItem : cartItems) {
+            lines.add(new Checkout.Line(cartItem.getProduct().getId(), cartItem.getQuantity(),
+                    cartItem.getProduct().getCost()));
+        }
+        Checkout checkout = new Checkout();
+        checkout.setRazorpayOrderId(razorpayOrderId);
+        checkout.setBuyerId(buyerId);
+        checkout.setAddressId(addressId);
+        checkout.setAmount(amount);
+        checkout.setCurrency("INR");
+        checkout.setLines(lines);
+        checkout.setCreatedAt(LocalDateTime.now());
+        return checkout;
+    }
+
+    private static Map<String, Object> statusResponse(PaymentEvent event) {
+        Map<String, Object> response = new HashMap<>();
+        String status = event.getStatus();
+        response.put("success", !PaymentCaptureService.FAILED.equals(status)
+                && !PaymentCaptureService.REVIEW.equals(status));
+        response.put("status", status);
+        response.put("paymentId", event.getRazorpayPaymentId());
+        if (PaymentCaptureService.DONE.equals(status)) {
+            response.put("message", "Payment verified and order created successfully");
+        } else if (PaymentCaptureService.REVIEW.equals(status)) {
+            response.put("message", "Payment received, but some items are no longer available and will be refunded");
+        } else if (PaymentCaptureService.FAILED.equals(status)) {
+            response.put("message", "Order could not be created: " + event.getError());
+        } else {
+            response.put("message", "Payment verified, your order is being placed");
+        }
+        return response;
+    }
+}
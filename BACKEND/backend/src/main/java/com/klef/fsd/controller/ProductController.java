@@ -1,9 +1,21 @@
 package com.klef.fsd.controller;
 
-import java.util.ArrayList;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -14,22 +26,46 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.klef.fsd.dto.BrowseResultDTO;
+import com.klef.fsd.dto.CursorPage;
+import com.klef.fsd.dto.ImportJobDTO;
 import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Product;
 import com.klef.fsd.model.Seller;
+import com.klef.fsd.service.CatalogSnapshot;
+import com.klef.fsd.service.CatalogVersion;
+import com.klef.fsd.service.ExportService;
+import com.klef.fsd.service.ImageStore;
+import com.klef.fsd.service.ProductImportService;
 import com.klef.fsd.service.ProductService;
 import com.klef.fsd.service.SellerService;
+import com.klef.fsd.util.ProductImages;
 
 @RestController
 @CrossOrigin("*")
 @RequestMapping("/product")
 public class ProductController {
+	private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic()
+			.immutable();
+
 	@Autowired
 	private ProductService productService;
 	@Autowired
 	private SellerService sellerservice;
+	@Autowired
+	private ExportService exportService;
+	@Autowired
+	private CatalogVersion catalogVersion;
+	@Autowired
+	private CatalogSnapshot catalogSnapshot;
+	@Autowired
+	private ProductImportService productImportService;
+	@Autowired
+	private ImageStore imageStore;
 
 	@PostMapping("/addproduct")
 	public ResponseEntity<String> addProduct(@RequestParam String category, @RequestParam String name,
@@ -77,33 +113,84 @@ public class ProductController {
 	    }
 	}
 	
+	// Bulk import of a CSV, NDJSON or ZIP (manifest + images); mode=sync mirrors the file onto the seller's imported products
+	@PostMapping("/import")
+	public ResponseEntity<?> importProducts(@RequestParam("file") MultipartFile file, @RequestParam String sid,
+			@RequestParam(defaultValue = "insert") String mode) {
+		try {
+			if (!mode.equalsIgnoreCase("insert") && !mode.equalsIgnoreCase("sync")) {
+				throw new IllegalArgumentException("mode must be insert or sync");
+			}
+			ImportJobDTO job = productImportService.startImport(sid, file, mode.equalsIgnoreCase("sync"));
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		} catch (IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+		} catch (Exception e) {
+			return ResponseEntity.status(500).body("Error: " + e.getMessage());
+		}
+	}
+
+	@GetMapping("/import/{jobId}")
+	public ResponseEntity<?> getImportJob(@PathVariable String jobId) {
+		ImportJobDTO job = productImportService.getImportJob(jobId);
+		if (job == null) {
+			return ResponseEntity.status(404).body("Import job not found");
+		}
+		return ResponseEntity.ok(job);
+	}
+
 	@GetMapping("viewallproducts")
-	public ResponseEntity<List<ProductDTO>> viewallproducts() {
-		List<Product> productList = productService.viewallProducts();
-		List<ProductDTO> productDTOList = new ArrayList<>();
-
-		for (Product p : productList) {
-			ProductDTO dto = new ProductDTO();
-			dto.setId(p.getId());
-			dto.setCategory(p.getCategory());
-			dto.setName(p.getName());
-			dto.setDescription(p.getDescription());
-			dto.setCost(p.getCost());
-			// Provide fallback for imageUrl if null or empty
-			String imageUrl = p.getImageUrl();
-			if (imageUrl == null || imageUrl.trim().isEmpty()) {
-				imageUrl = "https://placehold.co/300x200?text=No+Image";
+	public ResponseEntity<?> viewallproducts(WebRequest request) {
+		CatalogSnapshot.Snapshot snapshot = catalogSnapshot.current();
+		if (snapshot != null && snapshot.version() == catalogVersion.current()) {
+			// Serve the pre-serialised bytes; the gzip variant needs its own strong ETag
+			String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+			boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+			String etag = "\"catalog-" + snapshot.version() + (gzip ? "-gzip\"" : "\"");
+			if (request.checkNotModified(etag, catalogVersion.lastModified())) {
+				return null;
 			}
-			dto.setImageUrl(imageUrl);
-			dto.setSeller_id(p.getSeller() != null ? p.getSeller().getId() : null);
-			productDTOList.add(dto);
+			ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache())
+					.varyBy(HttpHeaders.ACCEPT_ENCODING).contentType(MediaType.APPLICATION_JSON);
+			if (gzip) {
+				return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.gzip());
+			}
+			return response.body(snapshot.identity());
 		}
 
-		return ResponseEntity.ok(productDTOList);
+		if (notModified(request)) {
+			return null;
+		}
+		List<ProductDTO> productDTOList = productService.viewallProducts();
+		applyImageFallback(productDTOList);
+		return ResponseEntity.ok().cacheControl(CacheControl.noCache()).varyBy(HttpHeaders.ACCEPT_ENCODING)
+				.body(productDTOList);
+	}
+
+	// Keyset-paginated variant, selected when the client sends ?limit=
+	@GetMapping(value = "viewallproducts", params = "limit")
+	public ResponseEntity<?> viewallproductsPage(@RequestParam Integer limit,
+			@RequestParam(required = false) String after, @RequestParam(required = false) String sort,
+			WebRequest request) {
+		if (notModified(request)) {
+			return null;
+		}
+		try {
+			CursorPage<ProductDTO> page = productService.viewProductsPage(after, limit, sort);
+			applyImageFallback(page.getItems());
+			return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(page);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
 	}
 
 	@GetMapping({"/{id}", "/getproduct/{id}"})
-	public ResponseEntity<ProductDTO> getProduct(@PathVariable String id) {
+	public ResponseEntity<ProductDTO> getProduct(@PathVariable String id, WebRequest request) {
+	    if (notModified(request)) {
+	        return null;
+	    }
 	    Product product = productService.getProductById(id);
 	    if (product == null) {
 	        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found with ID " + id);
@@ -124,34 +211,28 @@ public class ProductController {
 	    dto.setImageUrl(imageUrl);
 	    dto.setSeller_id(product.getSeller() != null ? product.getSeller().getId() : null);
 
-	    return ResponseEntity.ok(dto);
+	    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(dto);
 	}
 
 	@GetMapping("viewproductsbyseller/{sid}")
 	public ResponseEntity<List<ProductDTO>> viewProductBySeller(@PathVariable String sid) {
-		List<Product> products = productService.viewProductsBySeller(sid);
-		List<ProductDTO> productDTOs = new ArrayList<>();
-
-		for (Product p : products) {
-			ProductDTO dto = new ProductDTO();
-			dto.setId(p.getId());
-			dto.setCategory(p.getCategory());
-			dto.setName(p.getName());
-			dto.setDescription(p.getDescription());
-			dto.setCost(p.getCost());
-			// Provide fallback for imageUrl if null or empty
-			String imageUrl = p.getImageUrl();
-			if (imageUrl == null || imageUrl.trim().isEmpty()) {
-				imageUrl = "https://placehold.co/300x200?text=No+Image";
-			}
-			dto.setImageUrl(imageUrl);
-			dto.setSeller_id(p.getSeller() != null ? p.getSeller().getId() : null);
-			productDTOs.add(dto);
-		}
-
+		List<ProductDTO> productDTOs = productService.viewProductsBySeller(sid);
+		applyImageFallback(productDTOs);
 		return ResponseEntity.ok(productDTOs);
 	}
 
+	@GetMapping(value = "viewproductsbyseller/{sid}", params = "limit")
+	public ResponseEntity<?> viewProductBySellerPage(@PathVariable String sid, @RequestParam Integer limit,
+			@RequestParam(required = false) String after) {
+		try {
+			CursorPage<ProductDTO> page = productService.viewProductsBySellerPage(sid, after, limit);
+			applyImageFallback(page.getItems());
+			return ResponseEntity.ok(page);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
 	@DeleteMapping("/deleteproduct/{id}")
 	public ResponseEntity<String> deleteProduct(@PathVariable String id) {
 	    try {
@@ -162,25 +243,143 @@ public class ProductController {
 	    }
 	}
 
+	@GetMapping("/search")
+	public ResponseEntity<List<ProductDTO>> searchProducts(@RequestParam String q,
+			@RequestParam(required = false) Integer limit) {
+		List<ProductDTO> results = productService.searchProducts(q, limit);
+		applyImageFallback(results);
+		return ResponseEntity.ok(results);
+	}
+
+	// Typeahead: answered from memory, never from Mongo
+	@GetMapping("/suggest")
+	public ResponseEntity<List<String>> suggestProducts(@RequestParam String prefix,
+			@RequestParam(required = false) Integer limit) {
+		return ResponseEntity.ok(productService.suggestProductNames(prefix, limit));
+	}
+
+	// "Bought together" from the in-memory co-purchase model, topped up with the same category
+	@GetMapping("/{id}/recommendations")
+	public ResponseEntity<List<ProductDTO>> recommendProducts(@PathVariable String id,
+			@RequestParam(required = false) Integer limit) {
+		List<ProductDTO> results = productService.recommendProducts(id, limit);
+		if (results == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found with ID " + id);
+		}
+		applyImageFallback(results);
+		return ResponseEntity.ok(results);
+	}
+
+	// Best sellers per window (hour, day or week), answered from streaming counters
+	@GetMapping("/trending")
+	public ResponseEntity<?> trendingProducts(@RequestParam(required = false) String category,
+			@RequestParam(required = false) String window, @RequestParam(required = false) Integer limit) {
+		try {
+			List<ProductDTO> results = productService.trendingProducts(category, window, limit);
+			applyImageFallback(results);
+			return ResponseEntity.ok(results);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
+	// Server-side filtering with facet counts for the catalog sidebar
+	@GetMapping("/browse")
+	public ResponseEntity<?> browseProducts(@RequestParam(required = false) String category,
+			@RequestParam(required = false) Double minPrice, @RequestParam(required = false) Double maxPrice,
+			@RequestParam(required = false) String sellerId, @RequestParam(required = false) String sort,
+			@RequestParam(required = false) Integer offset, @RequestParam(required = false) Integer limit) {
+		try {
+			BrowseResultDTO result = productService.browseProducts(category, minPrice, maxPrice, sellerId, sort,
+					offset, limit);
+			applyImageFallback(result.getProducts());
+			return ResponseEntity.ok(result);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
+	// Catalog dump streamed from a Mongo cursor; sellerId narrows it to one seller
+	@GetMapping("/export")
+	public ResponseEntity<?> exportProducts(@RequestParam(required = false) String sellerId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+			@RequestParam(required = false) String format) {
+		try {
+			ExportService.Format exportFormat = ExportService.Format.of(format);
+			StreamingResponseBody body = exportService.exportProducts(sellerId, from, to, exportFormat);
+			return ResponseEntity.ok()
+					.header(HttpHeaders.CONTENT_DISPOSITION,
+							"attachment; filename=\"products." + exportFormat.getExtension() + "\"")
+					.contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+					.body(body);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+
+	// Product tile image: streamed from local storage, otherwise a redirect to the CDN (or the placeholder)
+	@GetMapping("/displayproductimage")
+	public ResponseEntity<Resource> displayProductImage(@RequestParam String id, WebRequest request) {
+		Product product = productService.getProductById(id);
+		if (product == null) {
+			return ResponseEntity.notFound().build();
+		}
+		Optional<Path> file = imageStore.resolve(product.getImageUrl());
+		if (file.isPresent()) {
+			// Revalidated on every use (the ETag is the content hash), since the id-based URL can change content
+			return serveImage(file.get(), CacheControl.noCache(), request);
+		}
+		String imageUrl = product.getImageUrl();
+		if (imageUrl == null || imageUrl.trim().isEmpty()) {
+			imageUrl = ProductImages.PLACEHOLDER_URL;
+		}
+		// Not cached: the product's image can change while the id stays the same
+		return ResponseEntity.status(HttpStatus.FOUND).location(URI.create(imageUrl))
+				.cacheControl(CacheControl.noCache()).build();
+	}
+
+	// Files written by the local image store; names are content hashes, so they never change
+	@GetMapping("/images/{key}")
+	public ResponseEntity<Resource> getImage(@PathVariable String key, WebRequest request) {
+		Optional<Path> file = imageStore.file(key);
+		if (file.isEmpty()) {
+			return ResponseEntity.notFound().build();
+		}
+		return serveImage(file.get(), IMMUTABLE, request);
+	}
+
 	@GetMapping("categories")
-		 public ResponseEntity<List<ProductDTO>> viewproductsByCategory(@RequestParam String category)
-		 {
-		     List<Product> productList = productService.viewProductsByCategory(category);
-		     List<ProductDTO> productDTOList = new ArrayList<>();
-
-		     for (Product p : productList) {
-		         ProductDTO dto = new ProductDTO();
-		         dto.setId(p.getId());
-		         dto.setCategory(p.getCategory());
-		         dto.setName(p.getName());
-		         dto.setDescription(p.getDescription());
-		         dto.setCost(p.getCost());
-		         dto.setSeller_id(p.getSeller().getId()); 
-		         productDTOList.add(dto);
-		     }
-
-		     return ResponseEntity.ok(productDTOList);
-		 }
-	
-	
+	public ResponseEntity<List<ProductDTO>> viewproductsByCategory(@RequestParam String category,
+			WebRequest request) {
+		if (notModified(request)) {
+			return null;
+		}
+		List<ProductDTO> productDTOList = productService.viewProductsByCategory(category);
+		applyImageFallback(productDTOList);
+		return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(productDTOList);
+	}
+
+	// Answers 304 from the catalog version alone, before Mongo is queried; otherwise sets ETag and Last-Modified
+	private boolean notModified(WebRequest request) {
+		return request.checkNotModified(catalogVersion.etag(), catalogVersion.lastModified());
+	}
+
+	// The file is streamed by the Resource converter (Range requests become regions), never read into the heap
+	private ResponseEntity<Resource> serveImage(Path file, CacheControl cacheControl, WebRequest request) {
+		String etag = "\"" + file.getFileName() + "\"";
+		if (request.checkNotModified(etag)) {
+			return null;
+		}
+		Resource resource = new FileSystemResource(file);
+		return ResponseEntity.ok().cacheControl(cacheControl)
+				.contentType(MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM))
+				.body(resource);
+	}
+
+	// Provide fallback for imageUrl if null or empty
+	private void applyImageFallback(List<ProductDTO> products) {
+		ProductImages.applyFallback(products);
+	}
+
 }
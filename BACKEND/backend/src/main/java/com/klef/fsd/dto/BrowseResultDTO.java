@@ -0,0 +1,44 @@
+package com.klef.fsd.dto;
+
+import java.util.List;
+import java.util.Map;
+
+public class BrowseResultDTO {
+    private List<ProductDTO> products;
+    private int total;
+    private Map<String, Integer> categories;   // category -> count, ignoring the category filter
+    private Map<String, Integer> priceBuckets; // e.g. "500-1000" -> count, ignoring the price filter
+
+    // Getters and Setters
+    public List<ProductDTO> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<ProductDTO> products) {
+        this.products = products;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public Map<String, Integer> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(Map<String, Integer> categories) {
+        this.categories = categories;
+    }
+
+    public Map<String, Integer> getPriceBuckets() {
+        return priceBuckets;
+    }
+
+    public void setPriceBuckets(Map<String, Integer> priceBuckets) {
+        this.priceBuckets = priceBuckets;
+    }
+}
@@ -1,9 +1,13 @@
 package com.klef.fsd.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class CartDTO {
     private String id;
     private ProductDTO product;
     private int quantity;
+    @JsonIgnore
+    private Integer slot; // Cart.slot; internal, used to pick a free slot on add
 
     // Getters and Setters
     public String getId() {
@@ -29,4 +33,12 @@ public class CartDTO {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
-}
\ No newline at end of file
+
+    public Integer getSlot() {
+        return slot;
+    }
+
+    public void setSlot(Integer slot) {
+        this.slot = slot;
+    }
+}
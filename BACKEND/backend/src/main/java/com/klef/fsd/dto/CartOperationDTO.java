@@ -0,0 +1,33 @@
+package com.klef.fsd.dto;
+
+// One step of a /cart/batch request: op is "add", "update" or "remove"
+public class CartOperationDTO {
+    private String op;
+    private String productId;
+    private int quantity = 1;
+
+    // Getters and Setters
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+}
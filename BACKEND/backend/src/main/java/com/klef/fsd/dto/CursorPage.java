@@ -0,0 +1,44 @@
+package com.klef.fsd.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class CursorPage<T> {
+    private List<T> items;
+    private String nextCursor; // null when there are no more rows
+
+    public CursorPage() {
+        this.items = new ArrayList<>();
+    }
+
+    public CursorPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        List<R> mapped = new ArrayList<>(items.size());
+        for (T item : items) {
+            mapped.add(mapper.apply(item));
+        }
+        return new CursorPage<>(mapped, nextCursor);
+    }
+
+    // Getters and Setters
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
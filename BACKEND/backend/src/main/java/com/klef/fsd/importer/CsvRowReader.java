@@ -0,0 +1,112 @@
+package com.klef.fsd.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * RFC 4180 CSV with a header row: quoted fields may contain commas, doubled quotes
+ * and line breaks. Header names are matched case-insensitively.
+ */
+public class CsvRowReader implements ImportRowReader {
+
+    private final BufferedReader reader;
+    private final List<String> header;
+    private int rowNumber;
+
+    public CsvRowReader(Reader reader) throws IOException {
+        this.reader = new BufferedReader(reader);
+        List<String> names = readRecord();
+        if (names == null) {
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        header = new ArrayList<>();
+        for (String name : names) {
+            header.add(name.trim().toLowerCase(Locale.ROOT));
+        }
+        // Strip a UTF-8 byte order mark left by spreadsheet exports
+        if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) {
+            header.set(0, header.get(0).substring(1));
+        }
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+        List<String> values;
+        do {
+            values = readRecord();
+            if (values == null) {
+                return null;
+            }
+            rowNumber++;
+        } while (values.size() == 1 && values.get(0).isBlank());
+
+        Map<String, String> row = new HashMap<>();
+        for (int i = 0; i < header.size() && i < values.size(); i++) {
+            row.put(header.get(i), values.get(i));
+        }
+        return row;
+    }
+
+    @Override
+    public int rowNumber() {
+        return rowNumber;
+    }
+
+    private List<String> readRecord() throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field near row " + (rowNumber + 1));
+                }
+                if (c == '"') {
+                    reader.mark(1);
+                    int nextChar = reader.read();
+                    if (nextChar == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                values.add(field.toString());
+                return values;
+            } else if (c == '\r') {
+                reader.mark(1);
+                if (reader.read() != '\n') {
+                    reader.reset();
+                }
+                values.add(field.toString());
+                return values;
+            } else {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
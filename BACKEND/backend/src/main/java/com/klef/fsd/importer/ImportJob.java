@@ -0,0 +1,111 @@
+package com.klef.fsd.importer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.klef.fsd.dto.ImportJobDTO;
+
+/**
+ * Live progress of one import, updated by the worker and read by pollers.
+ */
+public class ImportJob {
+
+    public static final int MAX_ERRORS = 100;
+
+    private final String id;
+    private final String sellerId;
+    private final boolean sync;
+    private volatile String status = "QUEUED";
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private final AtomicInteger rowsRead = new AtomicInteger();
+    private final AtomicInteger inserted = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final List<String> errors = new ArrayList<>();
+
+    public ImportJob(String id, String sellerId, boolean sync) {
+        this.id = id;
+        this.sellerId = sellerId;
+        this.sync = sync;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSellerId() {
+        return sellerId;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    public void start() {
+        startedAt = LocalDateTime.now();
+        status = "RUNNING";
+    }
+
+    public void finish(boolean success) {
+        finishedAt = LocalDateTime.now();
+        status = success ? "COMPLETED" : "FAILED";
+    }
+
+    public void rowRead() {
+        rowsRead.incrementAndGet();
+    }
+
+    public void inserted(int count) {
+        inserted.addAndGet(count);
+    }
+
+    public void updated(int count) {
+        updated.addAndGet(count);
+    }
+
+    public void unchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    public void deleted(int count) {
+        deleted.addAndGet(count);
+    }
+
+    public void fail(int rowNumber, String message) {
+        failed.incrementAndGet();
+        error(rowNumber > 0 ? "row " + rowNumber + ": " + message : message);
+    }
+
+    public void error(String message) {
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(message);
+            }
+        }
+    }
+
+    public ImportJobDTO toDTO() {
+        ImportJobDTO dto = new ImportJobDTO();
+        dto.setId(id);
+        dto.setSellerId(sellerId);
+        dto.setMode(sync ? "SYNC" : "INSERT");
+        dto.setStatus(status);
+        dto.setRowsRead(rowsRead.get());
+        dto.setInserted(inserted.get());
+        dto.setUpdated(updated.get());
+        dto.setUnchanged(unchanged.get());
+        dto.setDeleted(deleted.get());
+        dto.setFailed(failed.get());
+        synchronized (errors) {
+            dto.setErrors(new ArrayList<>(errors));
+        }
+        dto.setStartedAt(startedAt);
+        dto.setFinishedAt(finishedAt);
+        return dto;
+    }
+}
@@ -0,0 +1,123 @@
+package com.klef.fsd.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * A validated import row. Columns: sku, name, category, description, cost and
+ * image (a file name inside the ZIP, or an http(s) URL).
+ */
+public class ImportRow {
+
+    private final int rowNumber;
+    private final String sku;
+    private final String name;
+    private final String category;
+    private final String description;
+    private final double cost;
+    private final String image;
+    private final String hash;
+
+    private ImportRow(int rowNumber, String sku, String name, String category, String description, double cost,
+            String image) {
+        this.rowNumber = rowNumber;
+        this.sku = sku;
+        this.name = name;
+        this.category = category;
+        this.description = description;
+        this.cost = cost;
+        this.image = image;
+        this.hash = hash(sku, name, category, description, Double.toString(cost), image);
+    }
+
+    /**
+     * Validates a raw row; throws IllegalArgumentException describing the first problem.
+     */
+    public static ImportRow parse(int rowNumber, Map<String, String> values, boolean skuRequired) {
+        String sku = trimToNull(values.get("sku"));
+        String name = trimToNull(values.get("name"));
+        String category = trimToNull(values.get("category"));
+        String description = trimToNull(values.get("description"));
+        String costText = trimToNull(values.get("cost"));
+        String image = trimToNull(values.get("image"));
+
+        if (skuRequired && sku == null) {
+            throw new IllegalArgumentException("sku is required in sync mode");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (category == null) {
+            throw new IllegalArgumentException("category is required");
+        }
+        if (costText == null) {
+            throw new IllegalArgumentException("cost is required");
+        }
+        double cost;
+        try {
+            cost = Double.parseDouble(costText);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("cost is not a number: " + costText);
+        }
+        if (cost < 0 || Double.isNaN(cost) || Double.isInfinite(cost)) {
+            throw new IllegalArgumentException("cost must be a non-negative number");
+        }
+        return new ImportRow(rowNumber, sku, name, category, description, cost, image);
+    }
+
+    private static String trimToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static String hash(String... fields) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String field : fields) {
+                digest.update((field != null ? field : "").getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0x1f);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public String getImage() {
+        return image;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+}
@@ -0,0 +1,21 @@
+package com.klef.fsd.importer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads an import file one row at a time, as column name to raw value.
+ */
+public interface ImportRowReader extends Closeable {
+
+    /**
+     * Returns the next row, or null at the end of the input.
+     */
+    Map<String, String> next() throws IOException;
+
+    /**
+     * 1-based number of the row last returned, for error messages.
+     */
+    int rowNumber();
+}
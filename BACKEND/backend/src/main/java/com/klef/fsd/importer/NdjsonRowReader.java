@@ -0,0 +1,67 @@
+package com.klef.fsd.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * One JSON object per line; scalar values are read as text so both readers feed
+ * the same validation.
+ */
+public class NdjsonRowReader implements ImportRowReader {
+
+    private final BufferedReader reader;
+    private final ObjectMapper objectMapper;
+    private int rowNumber;
+
+    public NdjsonRowReader(Reader reader, ObjectMapper objectMapper) {
+        this.reader = new BufferedReader(reader);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            rowNumber++;
+        } while (line.isBlank());
+
+        Map<String, String> row = new HashMap<>();
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            // Returned empty so the row fails validation instead of aborting the import
+            return row;
+        }
+        if (node != null && node.isObject()) {
+            node.fields().forEachRemaining(field -> {
+                if (field.getValue().isValueNode() && !field.getValue().isNull()) {
+                    row.put(field.getKey().toLowerCase(Locale.ROOT), field.getValue().asText());
+                }
+            });
+        }
+        return row;
+    }
+
+    @Override
+    public int rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,10 +1,12 @@
 package com.klef.fsd.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 
 @Document(collection = "addresses")
+@CompoundIndex(name = "buyer", def = "{'buyer.$id': 1}")
 public class Address {
 
 	@Id
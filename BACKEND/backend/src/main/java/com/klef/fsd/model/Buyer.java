@@ -14,6 +14,7 @@ public class Buyer {
 	private String password;
 	@Indexed(unique = true)
 	private String mobileno;
+	@Indexed(sparse = true)
 	private String resetToken = null;
 
 	public String getId() {
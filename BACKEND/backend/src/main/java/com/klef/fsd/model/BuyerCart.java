@@ -0,0 +1,38 @@
+package com.klef.fsd.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Whole cart of one buyer in one document (cart.model=embedded); _id is the buyer id
+@Document(collection = "buyer_carts")
+// removeCartItem only knows the line id; a deleted product is pulled from every cart holding it
+@CompoundIndexes({
+	@CompoundIndex(name = "items_id", def = "{'items.id': 1}"),
+	@CompoundIndex(name = "items_product", def = "{'items.productId': 1}")
+})
+public class BuyerCart {
+	@Id
+	private String buyerId;
+	private List<CartItem> items = new ArrayList<>();
+
+	public String getBuyerId() {
+		return buyerId;
+	}
+
+	public void setBuyerId(String buyerId) {
+		this.buyerId = buyerId;
+	}
+
+	public List<CartItem> getItems() {
+		return items;
+	}
+
+	public void setItems(List<CartItem> items) {
+		this.items = items;
+	}
+}
@@ -1,10 +1,21 @@
 package com.klef.fsd.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 
 @Document(collection = "carts")
+// buyer_product rejects a second line for the same product, and its buyer.$id prefix also
+// serves findByBuyer, countByBuyerId and deleteByBuyerId. Each line holds one of the buyer's
+// MAX_ITEMS slots, so buyer_slot rejects lines beyond the cart limit even under concurrent adds.
+// product finds the lines of a deleted product.
+@CompoundIndexes({
+	@CompoundIndex(name = "buyer_product", def = "{'buyer.$id': 1, 'product.$id': 1}", unique = true),
+	@CompoundIndex(name = "buyer_slot", def = "{'buyer.$id': 1, 'slot': 1}", unique = true,
+			partialFilter = "{ 'slot': { '$exists': true } }")
+})
 public class Cart {
 
 	@Id
@@ -14,6 +25,9 @@ public class Cart {
 	private Product product;
 	
 	private int quantity;
+
+	// 0 .. MAX_ITEMS - 1; CartSlotBackfill fills it in on lines created before slots existed
+	private Integer slot;
 	
 	@DBRef
 	private Buyer buyer;
@@ -35,6 +49,12 @@ public class Cart {
 	}
 	public void setQuantity(int quantity) {
 		this.quantity = quantity;
+	}
+	public Integer getSlot() {
+		return slot;
+	}
+	public void setSlot(Integer slot) {
+		this.slot = slot;
 	}
 	 public Buyer getBuyer() {
         return buyer;
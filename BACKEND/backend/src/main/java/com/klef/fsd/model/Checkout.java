@@ -0,0 +1,117 @@
+package com.klef.fsd.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// What a Razorpay order was created for: the cart lines and prices at create-order time.
+// Payment capture builds the orders from this, so they match the charged amount even if
+// the cart or the prices change before the payment is processed
+@Document(collection = "checkouts")
+public class Checkout {
+	@Id
+	private String razorpayOrderId;
+	private String buyerId;
+	private String addressId;
+	private long amount; // in paise, as charged
+	private String currency;
+	private List<Line> lines;
+	private LocalDateTime createdAt;
+
+	public static class Line {
+		private String productId;
+		private int quantity;
+		private double cost; // unit price at checkout
+
+		public Line() {
+		}
+
+		public Line(String productId, int quantity, double cost) {
+			this.productId = productId;
+			this.quantity = quantity;
+			this.cost = cost;
+		}
+
+		public String getProductId() {
+			return productId;
+		}
+
+		public void setProductId(String productId) {
+			this.productId = productId;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public void setQuantity(int quantity) {
+			this.quantity = quantity;
+		}
+
+		public double getCost() {
+			return cost;
+		}
+
+		public void setCost(double cost) {
+			this.cost = cost;
+		}
+	}
+
+	public String getRazorpayOrderId() {
+		return razorpayOrderId;
+	}
+
+	public void setRazorpayOrderId(String razorpayOrderId) {
+		this.razorpayOrderId = razorpayOrderId;
+	}
+
+	public String getBuyerId() {
+		return buyerId;
+	}
+
+	public void setBuyerId(String buyerId) {
+		this.buyerId = buyerId;
+	}
+
+	public String getAddressId() {
+		return addressId;
+	}
+
+	public void setAddressId(String addressId) {
+		this.addressId = addressId;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	public void setAmount(long amount) {
+		this.amount = amount;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public List<Line> getLines() {
+		return lines;
+	}
+
+	public void setLines(List<Line> lines) {
+		this.lines = lines;
+	}
+
+	public LocalDateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(LocalDateTime createdAt) {
+		this.createdAt = createdAt;
+	}
+}
@@ -0,0 +1,88 @@
+package com.klef.fsd.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// The response stored for one Idempotency-Key; the key is the _id, so the unique
+// index on _id lets only one request claim it
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+	@Id
+	private String key; // request path + ":" + the client's Idempotency-Key
+	private String fingerprint; // hash of method, path and body
+	private String status; // IN_FLIGHT or DONE
+	private int httpStatus;
+	private String contentType;
+	private byte[] body;
+	// Mongo drops keys a day after they were first claimed
+	@Indexed(name = "createdAt_ttl", expireAfter = "24h")
+	private LocalDateTime createdAt;
+	private LocalDateTime updatedAt; // for IN_FLIGHT, when the claiming request started
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public int getHttpStatus() {
+		return httpStatus;
+	}
+
+	public void setHttpStatus(int httpStatus) {
+		this.httpStatus = httpStatus;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	public LocalDateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(LocalDateTime createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public LocalDateTime getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(LocalDateTime updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+}
@@ -0,0 +1,69 @@
+package com.klef.fsd.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// One uploaded image, keyed by the SHA-256 of its bytes so identical uploads share a URL
+@Document(collection = "images")
+// Scheduled cleanup looks for unreferenced entries past the grace period
+@CompoundIndex(name = "refCount_releasedAt", def = "{'refCount': 1, 'releasedAt': 1}")
+public class Image {
+	@Id
+	private String hash;
+	private String url;
+	private String publicId; // ImageStore key (Cloudinary public id or local file name), needed to delete the asset
+	private long refCount; // products whose imageHash points here
+	private LocalDateTime releasedAt; // when refCount last dropped to zero
+	private boolean deleting; // claimed by cleanup; no longer handed out
+
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public String getPublicId() {
+		return publicId;
+	}
+
+	public void setPublicId(String publicId) {
+		this.publicId = publicId;
+	}
+
+	public long getRefCount() {
+		return refCount;
+	}
+
+	public void setRefCount(long refCount) {
+		this.refCount = refCount;
+	}
+
+	public LocalDateTime getReleasedAt() {
+		return releasedAt;
+	}
+
+	public void setReleasedAt(LocalDateTime releasedAt) {
+		this.releasedAt = releasedAt;
+	}
+
+	public boolean isDeleting() {
+		return deleting;
+	}
+
+	public void setDeleting(boolean deleting) {
+		this.deleting = deleting;
+	}
+}
@@ -1,11 +1,24 @@
 package com.klef.fsd.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import java.time.LocalDateTime;
 
 @Document(collection = "orders")
+// Buyer and seller indexes match the keyset pagination order (orderDate desc, _id desc)
+@CompoundIndexes({
+    @CompoundIndex(name = "buyer_orderDate", def = "{'buyer.$id': 1, 'orderDate': -1, '_id': -1}"),
+    @CompoundIndex(name = "seller_orderDate", def = "{'seller.$id': 1, 'orderDate': -1, '_id': -1}"),
+    @CompoundIndex(name = "product", def = "{'product.$id': 1}"),
+    @CompoundIndex(name = "orderDate", def = "{'orderDate': 1}"),
+    // One order per product per payment, however many capture workers race on it
+    @CompoundIndex(name = "payment_product", def = "{'razorpayPaymentId': 1, 'product.$id': 1}", unique = true,
+            partialFilter = "{ 'razorpayPaymentId': { '$exists': true } }")
+})
 public class Order {
 
     @Id
@@ -29,6 +42,7 @@ public class Order {
     private Address address;
 
     private String razorpayOrderId;
+    @Indexed(sparse = true)
     private String razorpayPaymentId;
 
     // Getters and Setters
@@ -0,0 +1,133 @@
+package com.klef.fsd.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// A captured payment waiting to become orders; keyed by the payment id, so the webhook and the
+// browser's verify-payment call for the same payment share one entry
+@Document(collection = "payment_events")
+// Workers claim the oldest due PENDING or expired PROCESSING entry
+@CompoundIndex(name = "status_notBefore", def = "{'status': 1, 'notBefore': 1}")
+public class PaymentEvent {
+	@Id
+	private String razorpayPaymentId;
+	private String razorpayOrderId;
+	private String buyerId;
+	private String addressId;
+	private String source; // webhook or client: whoever reported the payment first
+	private String status; // PENDING, PROCESSING, DONE, REVIEW or FAILED
+	private int attempts;
+	private LocalDateTime notBefore; // next claim time; for PROCESSING, when the worker's lease runs out
+	private String claimToken; // set by each claim; only the current holder may record the outcome
+	private String error;
+	private int ordersCreated;
+	private LocalDateTime createdAt;
+	private LocalDateTime updatedAt;
+
+	public String getRazorpayPaymentId() {
+		return razorpayPaymentId;
+	}
+
+	public void setRazorpayPaymentId(String razorpayPaymentId) {
+		this.razorpayPaymentId = razorpayPaymentId;
+	}
+
+	public String getRazorpayOrderId() {
+		return razorpayOrderId;
+	}
+
+	public void setRazorpayOrderId(String razorpayOrderId) {
+		this.razorpayOrderId = razorpayOrderId;
+	}
+
+	public String getBuyerId() {
+		return buyerId;
+	}
+
+	public void setBuyerId(String buyerId) {
+		this.buyerId = buyerId;
+	}
+
+	public String getAddressId() {
+		return addressId;
+	}
+
+	public void setAddressId(String addressId) {
+		this.addressId = addressId;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public LocalDateTime getNotBefore() {
+		return notBefore;
+	}
+
+	public void setNotBefore(LocalDateTime notBefore) {
+		this.notBefore = notBefore;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public int getOrdersCreated() {
+		return ordersCreated;
+	}
+
+	public void setOrdersCreated(int ordersCreated) {
+		this.ordersCreated = ordersCreated;
+	}
+
+	public LocalDateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(LocalDateTime createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public LocalDateTime getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(LocalDateTime updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	public String getClaimToken() {
+		return claimToken;
+	}
+
+	public void setClaimToken(String claimToken) {
+		this.claimToken = claimToken;
+	}
+}
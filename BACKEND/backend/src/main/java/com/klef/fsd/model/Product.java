@@ -1,10 +1,23 @@
 package com.klef.fsd.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 
 @Document(collection = "products")
+@CompoundIndexes({
+	@CompoundIndex(name = "category", def = "{'category': 1}"),
+	// Also serves the seller's keyset page (_id asc)
+	@CompoundIndex(name = "seller_id", def = "{'seller.$id': 1, '_id': 1}"),
+	@CompoundIndex(name = "seller_sku", def = "{'seller.$id': 1, 'sku': 1}",
+			partialFilter = "{ 'sku': { '$exists': true } }"),
+	@CompoundIndex(name = "cost_id", def = "{'cost': 1, '_id': 1}"),
+	// Only products with an upload in progress, for the stale-upload sweep
+	@CompoundIndex(name = "image_upload", def = "{'imageUploadToken': 1}",
+			partialFilter = "{ 'imageUploadToken': { '$exists': true } }")
+})
 public class Product {
 	@Id
 	private String id;
@@ -13,6 +26,11 @@ public class Product {
 	private String description;
 	private double cost;
 	private String imageUrl; // Cloudinary URL instead of Blob
+	private String sku; // seller's own identifier, set by bulk import
+	private String importHash; // hash of the last imported row, lets sync skip unchanged rows
+	private String imageStatus; // PENDING while the upload runs, then READY or FAILED; null on older products
+	private String imageUploadToken; // identifies the pending upload allowed to set imageUrl
+	private String imageHash; // counted reference into the images collection
 	  
 	@DBRef
 	private Seller seller;
@@ -65,6 +83,46 @@ public class Product {
 		this.imageUrl = imageUrl;
 	}
 
+	public String getSku() {
+		return sku;
+	}
+
+	public void setSku(String sku) {
+		this.sku = sku;
+	}
+
+	public String getImportHash() {
+		return importHash;
+	}
+
+	public void setImportHash(String importHash) {
+		this.importHash = importHash;
+	}
+
+	public String getImageStatus() {
+		return imageStatus;
+	}
+
+	public void setImageStatus(String imageStatus) {
+		this.imageStatus = imageStatus;
+	}
+
+	public String getImageUploadToken() {
+		return imageUploadToken;
+	}
+
+	public void setImageUploadToken(String imageUploadToken) {
+		this.imageUploadToken = imageUploadToken;
+	}
+
+	public String getImageHash() {
+		return imageHash;
+	}
+
+	public void setImageHash(String imageHash) {
+		this.imageHash = imageHash;
+	}
+
 	public Seller getSeller() {
 		return seller;
 	}
@@ -21,7 +21,9 @@ public class Seller {
 	@Indexed(unique = true)
 	private String nationalidno;
 	private String location;
+	@Indexed
 	private String status = "Pending";
+	@Indexed(sparse = true)
 	private String resetToken = null;
 
 	public String getId() {
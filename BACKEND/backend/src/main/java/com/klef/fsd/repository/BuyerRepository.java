@@ -2,6 +2,8 @@ package com.klef.fsd.repository;
 
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -17,4 +19,9 @@ public interface BuyerRepository extends MongoRepository<Buyer, String> {
 
 	public Optional<Buyer> findById(String buyerId);
 
+	// Keyset pagination on _id for the admin listing
+	public Slice<Buyer> findAllBy(Pageable pageable);
+
+	public Slice<Buyer> findByIdGreaterThan(String id, Pageable pageable);
+
 }
@@ -10,7 +10,7 @@ import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Cart;
 
 @Repository
-public interface CartRepository extends MongoRepository<Cart, String> {
+public interface CartRepository extends MongoRepository<Cart, String>, CartRepositoryCustom {
 
     List<Cart> findByBuyer(Buyer buyer);
 
@@ -0,0 +1,21 @@
+package com.klef.fsd.repository;
+
+import java.util.List;
+
+import com.klef.fsd.dto.CartDTO;
+
+public interface CartRepositoryCustom {
+
+    /**
+     * A buyer's cart lines joined with their products in one aggregation ($match,
+     * $lookup, $project), mapped straight to CartDTO; no Product or Seller DBRef is
+     * resolved. Lines whose product no longer exists are left out.
+     */
+    List<CartDTO> findCartItems(String buyerId);
+
+    /**
+     * Slots held by the buyer's lines, read from "carts" alone so a line whose product
+     * was deleted still counts.
+     */
+    List<Integer> findTakenSlots(String buyerId);
+}
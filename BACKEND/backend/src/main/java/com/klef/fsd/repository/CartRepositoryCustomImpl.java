@@ -0,0 +1,89 @@
+package com.klef.fsd.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.util.MongoIds;
+
+public class CartRepositoryCustomImpl implements CartRepositoryCustom {
+
+    private static final String COLLECTION = "carts";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public List<CartDTO> findCartItems(String buyerId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                stage(new Document("$match", new Document("buyer.$id", MongoIds.of(buyerId)))),
+                // $lookup cannot name product.$id directly: field paths may not start with '$'
+                stage(new Document("$addFields", new Document("productId", new Document("$arrayElemAt",
+                        List.of(new Document("$objectToArray", "$product"), 1))))),
+                stage(new Document("$lookup", new Document("from", "products").append("localField", "productId.v")
+                        .append("foreignField", "_id").append("as", "product"))),
+                stage(new Document("$unwind", "$product")),
+                stage(new Document("$project", new Document("quantity", 1).append("slot", 1).append("product._id", 1)
+                        .append("product.name", 1).append("product.category", 1).append("product.description", 1)
+                        .append("product.cost", 1).append("product.imageUrl", 1).append("product.seller", 1))));
+
+        List<CartDTO> items = new ArrayList<>();
+        for (Document document : mongoTemplate.aggregate(aggregation, COLLECTION, Document.class)) {
+            items.add(toCartDTO(document));
+        }
+        return items;
+    }
+
+    @Override
+    public List<Integer> findTakenSlots(String buyerId) {
+        Query query = new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)).and("slot").exists(true));
+        query.fields().include("slot").exclude("_id");
+        List<Integer> slots = new ArrayList<>();
+        mongoTemplate.executeQuery(query, COLLECTION, document -> {
+            Object slot = document.get("slot");
+            if (slot instanceof Number) {
+                slots.add(((Number) slot).intValue());
+            }
+        });
+        return slots;
+    }
+
+    private static AggregationOperation stage(Document stage) {
+        return context -> stage;
+    }
+
+    private CartDTO toCartDTO(Document document) {
+        CartDTO cart = new CartDTO();
+        cart.setId(idToString(document.get("_id")));
+        Object quantity = document.get("quantity");
+        cart.setQuantity(quantity instanceof Number ? ((Number) quantity).intValue() : 0);
+        Object slot = document.get("slot");
+        cart.setSlot(slot instanceof Number ? ((Number) slot).intValue() : null);
+
+        Document product = document.get("product", Document.class);
+        ProductDTO dto = new ProductDTO();
+        dto.setId(idToString(product.get("_id")));
+        dto.setName(product.getString("name"));
+        dto.setCategory(product.getString("category"));
+        dto.setDescription(product.getString("description"));
+        Object cost = product.get("cost");
+        dto.setCost(cost instanceof Number ? ((Number) cost).doubleValue() : 0);
+        dto.setImageUrl(product.getString("imageUrl"));
+        dto.setSeller_id(MongoIds.refId(product.get("seller")));
+        cart.setProduct(dto);
+        return cart;
+    }
+
+    private String idToString(Object id) {
+        return id != null ? id.toString() : null;
+    }
+}
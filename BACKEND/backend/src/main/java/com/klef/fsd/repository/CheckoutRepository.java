@@ -0,0 +1,10 @@
+package com.klef.fsd.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.klef.fsd.model.Checkout;
+
+@Repository
+public interface CheckoutRepository extends MongoRepository<Checkout, String> {
+}
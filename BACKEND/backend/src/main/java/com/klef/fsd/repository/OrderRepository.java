@@ -1,19 +1,37 @@
 package com.klef.fsd.repository;
 
 import com.klef.fsd.model.Order;
+import org.bson.Document;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface OrderRepository extends MongoRepository<Order, String> {
     List<Order> findByBuyerId(String buyerId);
     List<Order> findBySellerId(String sellerId);
-    Optional<Order> findByRazorpayPaymentId(String razorpayPaymentId);
+    // A checkout stores one order per cart line, all with the same payment ID; one row per order, with its product DBRef
+    @Aggregation(pipeline = {
+        "{ $match: { razorpayPaymentId: ?0 } }",
+        "{ $project: { _id: 0, product: 1 } }"
+    })
+    List<Document> productsByPayment(String razorpayPaymentId);
+
+    // Keyset pagination, newest first: pass a Pageable sorted by orderDate desc, _id desc
+    Slice<Order> findByBuyerId(String buyerId, Pageable pageable);
+
+    @Query("{ 'buyer.$id': ?0, $or: [ { 'orderDate': { $lt: ?1 } }, { 'orderDate': ?1, '_id': { $lt: ?2 } } ] }")
+    Slice<Order> findByBuyerIdBefore(String buyerId, LocalDateTime orderDate, String id, Pageable pageable);
+
+    Slice<Order> findBySellerId(String sellerId, Pageable pageable);
+
+    @Query("{ 'seller.$id': ?0, $or: [ { 'orderDate': { $lt: ?1 } }, { 'orderDate': ?1, '_id': { $lt: ?2 } } ] }")
+    Slice<Order> findBySellerIdBefore(String sellerId, LocalDateTime orderDate, String id, Pageable pageable);
     
     // MongoDB queries for sales data
     @Query("{ 'seller.$id': ?0, 'orderDate': { $gte: ?1 } }")
@@ -22,6 +40,20 @@ public interface OrderRepository extends MongoRepository<Order, String> {
     @Query("{ 'orderDate': { $gte: ?0 } }")
     List<Order> findByOrderDateAfter(LocalDateTime startDate);
     
+    // Units sold per product; _id is the product DBRef
+    @Aggregation(pipeline = {
+        "{ $group: { _id: '$product', units: { $sum: '$quantity' } } }"
+    })
+    List<Document> sumQuantityByProduct();
+
+    // One row per checkout basket: the distinct product DBRefs ordered under one razorpayOrderId
+    @Aggregation(pipeline = {
+        "{ $match: { razorpayOrderId: { $ne: null } } }",
+        "{ $group: { _id: '$razorpayOrderId', products: { $addToSet: '$product' } } }",
+        "{ $match: { 'products.1': { $exists: true } } }"
+    })
+    List<Document> productsByBasket();
+
     // Aggregation for admin daily sales data
     @Aggregation(pipeline = {
         "{ $match: { orderDate: { $gte: ?0 } } }",
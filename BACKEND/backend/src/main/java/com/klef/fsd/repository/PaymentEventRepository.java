@@ -0,0 +1,10 @@
+package com.klef.fsd.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.klef.fsd.model.PaymentEvent;
+
+@Repository
+public interface PaymentEventRepository extends MongoRepository<PaymentEvent, String> {
+}
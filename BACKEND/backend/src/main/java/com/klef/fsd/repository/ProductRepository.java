@@ -9,7 +9,7 @@ import com.klef.fsd.model.Product;
 import com.klef.fsd.model.Seller;
 
 @Repository
-public interface ProductRepository extends MongoRepository<Product, String>{
+public interface ProductRepository extends MongoRepository<Product, String>, ProductRepositoryCustom {
 
 	 public List<Product> findByCategory(String category);
 	 
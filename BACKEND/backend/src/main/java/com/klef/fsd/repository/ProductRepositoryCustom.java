@@ -0,0 +1,26 @@
+package com.klef.fsd.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import com.klef.fsd.dto.ProductDTO;
+
+public interface ProductRepositoryCustom {
+
+	/**
+	 * Read-only catalog projection: maps product documents straight to ProductDTO
+	 * taking seller_id from the stored seller.$id, so no Seller DBRef is resolved.
+	 * Criteria and sort use stored field names (_id, seller.$id); limit 0 means no limit.
+	 */
+	public List<ProductDTO> findSummaries(Criteria criteria, Sort sort, int limit);
+
+	/**
+	 * One page of findSummaries, skipping the first offset matches.
+	 */
+	public List<ProductDTO> findSummaries(Criteria criteria, Sort sort, int offset, int limit);
+
+	public long countSummaries(Criteria criteria);
+
+}
@@ -0,0 +1,68 @@
+package com.klef.fsd.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.util.MongoIds;
+
+public class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+
+	private static final String COLLECTION = "products";
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Override
+	public List<ProductDTO> findSummaries(Criteria criteria, Sort sort, int limit) {
+		return findSummaries(criteria, sort, 0, limit);
+	}
+
+	@Override
+	public List<ProductDTO> findSummaries(Criteria criteria, Sort sort, int offset, int limit) {
+		Query query = criteria != null ? new Query(criteria) : new Query();
+		query.fields().include("category", "name", "description", "cost", "imageUrl", "seller");
+		if (sort != null) {
+			query.with(sort);
+		}
+		if (offset > 0) {
+			query.skip(offset);
+		}
+		if (limit > 0) {
+			query.limit(limit);
+		}
+
+		List<ProductDTO> products = new ArrayList<>();
+		mongoTemplate.executeQuery(query, COLLECTION, document -> products.add(toProductDTO(document)));
+		return products;
+	}
+
+	@Override
+	public long countSummaries(Criteria criteria) {
+		return mongoTemplate.count(criteria != null ? new Query(criteria) : new Query(), COLLECTION);
+	}
+
+	private ProductDTO toProductDTO(Document document) {
+		ProductDTO dto = new ProductDTO();
+		dto.setId(idToString(document.get("_id")));
+		dto.setCategory(document.getString("category"));
+		dto.setName(document.getString("name"));
+		dto.setDescription(document.getString("description"));
+		Object cost = document.get("cost");
+		dto.setCost(cost instanceof Number ? ((Number) cost).doubleValue() : 0);
+		dto.setImageUrl(document.getString("imageUrl"));
+		dto.setSeller_id(MongoIds.refId(document.get("seller")));
+		return dto;
+	}
+
+	private String idToString(Object id) {
+		return id != null ? id.toString() : null;
+	}
+}
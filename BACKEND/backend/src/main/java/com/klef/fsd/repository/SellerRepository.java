@@ -3,6 +3,8 @@ package com.klef.fsd.repository;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -16,5 +18,9 @@ public interface SellerRepository extends MongoRepository<Seller, String> {
     Optional<Seller> findByEmail(String email);
     Seller findByResetToken(String resetToken);
 
+    // Keyset pagination on _id for the admin listing
+    Slice<Seller> findAllBy(Pageable pageable);
+    Slice<Seller> findByIdGreaterThan(String id, Pageable pageable);
+
 }
 
@@ -0,0 +1,224 @@
+package com.klef.fsd.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Order;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.repository.OrderRepository;
+import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.util.MongoIds;
+
+/**
+ * Keeps the in-memory catalog indexes in step with the products collection:
+ * rebuilt from Mongo once the application is ready (and retried with backoff
+ * if that fails), then updated by ProductServiceImpl on every product write.
+ * Updates that arrive while a rebuild reads Mongo and swaps the indexes are
+ * held back and applied after the swap, so the new indexes never miss them.
+ */
+@Component
+public class CatalogIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogIndexer.class);
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private ProductFacetIndex facetIndex;
+
+    @Autowired
+    private SuggestIndex suggestIndex;
+
+    @Autowired
+    private RecommendationIndex recommendationIndex;
+
+    @Autowired
+    private TrendingIndex trendingIndex;
+
+    @Value("${catalog.rebuild.retry-initial-ms:5000}")
+    private long retryInitialMillis;
+
+    @Value("${catalog.rebuild.retry-max-ms:300000}")
+    private long retryMaxMillis;
+
+    private volatile boolean started;
+    private volatile boolean built;
+    private int failures;
+    private long nextAttemptAt;
+
+    private final Object deferLock = new Object();
+    private List<Runnable> deferred; // non-null while a rebuild runs
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        try {
+            trendingIndex.restore();
+        } catch (Exception e) {
+            logger.warn("Trending snapshot restore failed: {}", e.getMessage());
+        }
+        rebuildIndexes();
+        started = true;
+    }
+
+    // A failed startup rebuild is retried with exponential backoff; a no-op once the indexes are built
+    @Scheduled(fixedDelayString = "${catalog.rebuild.retry-check-ms:5000}")
+    public void retryRebuild() {
+        if (started && !built && System.currentTimeMillis() >= nextAttemptAt) {
+            rebuildIndexes();
+        }
+    }
+
+    private synchronized void rebuildIndexes() {
+        if (built) {
+            return;
+        }
+        synchronized (deferLock) {
+            deferred = new ArrayList<>();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            List<ProductDTO> products = productRepository.findSummaries(null, null, 0);
+            searchIndex.rebuild(products);
+            facetIndex.rebuild(products);
+            suggestIndex.rebuild(products, unitsSoldByProduct());
+            recommendationIndex.rebuild(baskets());
+            built = true;
+            failures = 0;
+            logger.info("Catalog indexes rebuilt: {} products in {} ms", products.size(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // Startup must not fail because Mongo is briefly unavailable; browse falls back to Mongo meanwhile
+            failures++;
+            long backoff = Math.min(retryMaxMillis, retryInitialMillis << Math.min(failures - 1, 20));
+            nextAttemptAt = System.currentTimeMillis() + backoff;
+            logger.warn("Catalog index rebuild failed (attempt {}), retrying in {} ms: {}", failures, backoff,
+                    e.getMessage());
+        } finally {
+            replayDeferred();
+        }
+    }
+
+    // Runs the update now, or after the swap if a rebuild is running
+    private void apply(Runnable update) {
+        synchronized (deferLock) {
+            if (deferred != null) {
+                deferred.add(update);
+                return;
+            }
+        }
+        // A rebuild starting now reads Mongo after this write, so the old indexes may safely take it
+        update.run();
+    }
+
+    // Updates held back during the rebuild, in arrival order; those arriving meanwhile join the queue.
+    // A purchase the rebuild also read is counted twice, which only nudges the purchase-based rankings.
+    private void replayDeferred() {
+        while (true) {
+            List<Runnable> updates;
+            synchronized (deferLock) {
+                if (deferred.isEmpty()) {
+                    deferred = null;
+                    return;
+                }
+                updates = deferred;
+                deferred = new ArrayList<>();
+            }
+            for (Runnable update : updates) {
+                try {
+                    update.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Deferred catalog index update failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void productSaved(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        ProductDTO dto = toProductDTO(product);
+        apply(() -> {
+            searchIndex.index(dto);
+            facetIndex.index(dto);
+            suggestIndex.index(dto);
+        });
+    }
+
+    public void productDeleted(String productId) {
+        apply(() -> {
+            searchIndex.remove(productId);
+            facetIndex.remove(productId);
+            suggestIndex.remove(productId);
+        });
+    }
+
+    public void orderPlaced(Order order) {
+        String productId = order.getProduct().getId();
+        apply(() -> {
+            suggestIndex.recordPurchase(productId, order.getQuantity());
+            recommendationIndex.recordPurchase(order.getRazorpayOrderId(), productId);
+        });
+        // Never rebuilt, so never held back
+        trendingIndex.recordSale(productId, order.getProduct().getCategory(), order.getQuantity());
+    }
+
+    private Map<String, Long> unitsSoldByProduct() {
+        Map<String, Long> units = new HashMap<>();
+        for (Document row : orderRepository.sumQuantityByProduct()) {
+            String id = MongoIds.refId(row.get("_id"));
+            Object sold = row.get("units");
+            if (id != null && sold instanceof Number) {
+                units.put(id, ((Number) sold).longValue());
+            }
+        }
+        return units;
+    }
+
+    private List<List<String>> baskets() {
+        List<List<String>> baskets = new ArrayList<>();
+        for (Document row : orderRepository.productsByBasket()) {
+            List<String> ids = new ArrayList<>();
+            for (Object ref : row.getList("products", Object.class)) {
+                String id = MongoIds.refId(ref);
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+            baskets.add(ids);
+        }
+        return baskets;
+    }
+
+    private ProductDTO toProductDTO(Product product) {
+        ProductDTO dto = new ProductDTO();
+        dto.setId(product.getId());
+        dto.setName(product.getName());
+        dto.setCategory(product.getCategory());
+        dto.setDescription(product.getDescription());
+        dto.setCost(product.getCost());
+        dto.setImageUrl(product.getImageUrl());
+        dto.setSeller_id(product.getSeller() != null ? product.getSeller().getId() : null);
+        return dto;
+    }
+}
@@ -0,0 +1,287 @@
+package com.klef.fsd.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.dto.BrowseResultDTO;
+import com.klef.fsd.dto.ProductDTO;
+
+/**
+ * Bitmap index for faceted browse: one BitSet per category, per seller and per
+ * price bucket, indexed by product ordinal. A query intersects the bitsets of its
+ * filters; facet counts are cardinalities of those intersections, computed with
+ * every filter except the facet's own so the UI can still offer alternatives.
+ */
+@Component
+public class ProductFacetIndex {
+
+    // Lower bounds of the price buckets; the last bucket is open-ended
+    private static final double[] PRICE_BOUNDS = { 0, 500, 1000, 5000, 10000, 50000 };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<String, Integer> ordinalById = new HashMap<>();
+    private Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private ProductDTO[] documents = new ProductDTO[1024];
+    private int nextOrdinal;
+    private BitSet live = new BitSet();
+    private Map<String, BitSet> byCategory = new HashMap<>();
+    private Map<String, BitSet> bySeller = new HashMap<>();
+    private BitSet[] byPrice = newPriceBitsets();
+    private volatile boolean ready;
+
+    public void index(ProductDTO product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        ProductDTO copy = ProductSearchIndex.copy(product);
+        lock.writeLock().lock();
+        try {
+            addLocked(copy);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinalById.remove(productId);
+            if (ordinal != null) {
+                clearLocked(ordinal);
+                freeOrdinals.push(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void rebuild(Collection<ProductDTO> products) {
+        ProductFacetIndex fresh = new ProductFacetIndex();
+        for (ProductDTO product : products) {
+            if (product != null && product.getId() != null) {
+                fresh.addLocked(ProductSearchIndex.copy(product));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            ordinalById = fresh.ordinalById;
+            freeOrdinals = fresh.freeOrdinals;
+            documents = fresh.documents;
+            nextOrdinal = fresh.nextOrdinal;
+            live = fresh.live;
+            byCategory = fresh.byCategory;
+            bySeller = fresh.bySeller;
+            byPrice = fresh.byPrice;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+    }
+
+    /**
+     * True once the index has been loaded from Mongo; until then callers should query Mongo.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * A copy of the indexed summary, or null when the product is not indexed.
+     */
+    public ProductDTO get(String productId) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinalById.get(productId);
+            return ordinal != null ? ProductSearchIndex.copy(documents[ordinal]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Filters are optional (null = any). Sort is "priceLow", "priceHigh" or anything else for index order.
+     */
+    public BrowseResultDTO browse(String category, Double minPrice, Double maxPrice, String sellerId, String sort,
+            int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            BitSet categoryBits = category != null ? byCategory.getOrDefault(category, new BitSet()) : null;
+            BitSet sellerBits = sellerId != null ? bySeller.getOrDefault(sellerId, new BitSet()) : null;
+            BitSet priceBits = (minPrice != null || maxPrice != null) ? priceRange(minPrice, maxPrice) : null;
+
+            BitSet match = intersect(live, categoryBits, sellerBits, priceBits);
+
+            Map<String, Integer> categoryCounts = new TreeMap<>();
+            BitSet withoutCategory = intersect(live, null, sellerBits, priceBits);
+            for (Map.Entry<String, BitSet> entry : byCategory.entrySet()) {
+                int count = cardinalityAnd(withoutCategory, entry.getValue());
+                if (count > 0) {
+                    categoryCounts.put(entry.getKey(), count);
+                }
+            }
+
+            Map<String, Integer> priceCounts = new LinkedHashMap<>();
+            BitSet withoutPrice = intersect(live, categoryBits, sellerBits, null);
+            for (int bucket = 0; bucket < byPrice.length; bucket++) {
+                priceCounts.put(bucketLabel(bucket), cardinalityAnd(withoutPrice, byPrice[bucket]));
+            }
+
+            List<ProductDTO> products = new ArrayList<>();
+            int total = match.cardinality();
+            if ("priceLow".equals(sort) || "priceHigh".equals(sort)) {
+                List<ProductDTO> sorted = new ArrayList<>(total);
+                for (int ordinal = match.nextSetBit(0); ordinal >= 0; ordinal = match.nextSetBit(ordinal + 1)) {
+                    sorted.add(documents[ordinal]);
+                }
+                Comparator<ProductDTO> byCost = Comparator.comparingDouble(ProductDTO::getCost);
+                sorted.sort("priceLow".equals(sort) ? byCost : byCost.reversed());
+                for (int i = Math.max(offset, 0); i < sorted.size() && products.size() < limit; i++) {
+                    products.add(ProductSearchIndex.copy(sorted.get(i)));
+                }
+            } else {
+                int skipped = 0;
+                for (int ordinal = match.nextSetBit(0); ordinal >= 0 && products.size() < limit;
+                        ordinal = match.nextSetBit(ordinal + 1)) {
+                    if (skipped++ >= offset) {
+                        products.add(ProductSearchIndex.copy(documents[ordinal]));
+                    }
+                }
+            }
+
+            BrowseResultDTO result = new BrowseResultDTO();
+            result.setProducts(products);
+            result.setTotal(total);
+            result.setCategories(categoryCounts);
+            result.setPriceBuckets(priceCounts);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addLocked(ProductDTO product) {
+        Integer ordinal = ordinalById.get(product.getId());
+        if (ordinal != null) {
+            clearLocked(ordinal);
+        } else {
+            ordinal = freeOrdinals.isEmpty() ? nextOrdinal++ : freeOrdinals.pop();
+            if (ordinal >= documents.length) {
+                documents = Arrays.copyOf(documents, documents.length * 2);
+            }
+            ordinalById.put(product.getId(), ordinal);
+        }
+        documents[ordinal] = product;
+        live.set(ordinal);
+        if (product.getCategory() != null) {
+            byCategory.computeIfAbsent(product.getCategory(), key -> new BitSet()).set(ordinal);
+        }
+        if (product.getSeller_id() != null) {
+            bySeller.computeIfAbsent(product.getSeller_id(), key -> new BitSet()).set(ordinal);
+        }
+        byPrice[bucketOf(product.getCost())].set(ordinal);
+    }
+
+    private void clearLocked(int ordinal) {
+        ProductDTO previous = documents[ordinal];
+        live.clear(ordinal);
+        documents[ordinal] = null;
+        if (previous == null) {
+            return;
+        }
+        clearValue(byCategory, previous.getCategory(), ordinal);
+        clearValue(bySeller, previous.getSeller_id(), ordinal);
+        byPrice[bucketOf(previous.getCost())].clear(ordinal);
+    }
+
+    private static void clearValue(Map<String, BitSet> facet, String value, int ordinal) {
+        if (value == null) {
+            return;
+        }
+        BitSet bits = facet.get(value);
+        if (bits != null) {
+            bits.clear(ordinal);
+            if (bits.isEmpty()) {
+                facet.remove(value);
+            }
+        }
+    }
+
+    // Whole buckets inside the range are OR-ed; the edge buckets are refined per product
+    private BitSet priceRange(Double minPrice, Double maxPrice) {
+        double min = minPrice != null ? minPrice : Double.NEGATIVE_INFINITY;
+        double max = maxPrice != null ? maxPrice : Double.POSITIVE_INFINITY;
+        BitSet result = new BitSet();
+        for (int bucket = 0; bucket < byPrice.length; bucket++) {
+            double low = PRICE_BOUNDS[bucket];
+            double high = bucket + 1 < PRICE_BOUNDS.length ? PRICE_BOUNDS[bucket + 1] : Double.POSITIVE_INFINITY;
+            if (high <= min || low > max) {
+                continue;
+            }
+            if (low >= min && high <= max && bucket > 0) {
+                result.or(byPrice[bucket]);
+            } else {
+                BitSet bits = byPrice[bucket];
+                for (int ordinal = bits.nextSetBit(0); ordinal >= 0; ordinal = bits.nextSetBit(ordinal + 1)) {
+                    double cost = documents[ordinal].getCost();
+                    if (cost >= min && cost <= max) {
+                        result.set(ordinal);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static BitSet intersect(BitSet base, BitSet... filters) {
+        BitSet result = (BitSet) base.clone();
+        for (BitSet filter : filters) {
+            if (filter != null) {
+                result.and(filter);
+            }
+        }
+        return result;
+    }
+
+    private static int cardinalityAnd(BitSet a, BitSet b) {
+        BitSet copy = (BitSet) a.clone();
+        copy.and(b);
+        return copy.cardinality();
+    }
+
+    private static int bucketOf(double cost) {
+        for (int bucket = PRICE_BOUNDS.length - 1; bucket > 0; bucket--) {
+            if (cost >= PRICE_BOUNDS[bucket]) {
+                return bucket;
+            }
+        }
+        return 0;
+    }
+
+    private static String bucketLabel(int bucket) {
+        long low = (long) PRICE_BOUNDS[bucket];
+        return bucket + 1 < PRICE_BOUNDS.length ? low + "-" + (long) PRICE_BOUNDS[bucket + 1] : low + "+";
+    }
+
+    private static BitSet[] newPriceBitsets() {
+        BitSet[] bitsets = new BitSet[PRICE_BOUNDS.length];
+        for (int i = 0; i < bitsets.length; i++) {
+            bitsets[i] = new BitSet();
+        }
+        return bitsets;
+    }
+}
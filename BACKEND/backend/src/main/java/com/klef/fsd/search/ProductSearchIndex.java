@@ -0,0 +1,304 @@
+package com.klef.fsd.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.dto.ProductDTO;
+
+/**
+ * In-memory inverted index over product name, category and description, ranked with BM25.
+ *
+ * Documents get increasing int ordinals, so each posting list is a pair of primitive
+ * arrays (ordinals, term frequencies) kept sorted by simply appending. An update
+ * tombstones the old ordinal and appends a new one; the index compacts itself once
+ * tombstones make up a quarter of it.
+ */
+@Component
+public class ProductSearchIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Field boosts applied as repeated term frequency
+    private static final int NAME_WEIGHT = 3;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    private static final int COMPACT_MIN_DELETED = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<String, Postings> postings = new HashMap<>();
+    private Map<String, Integer> ordinalById = new HashMap<>();
+    private ProductDTO[] documents = new ProductDTO[1024];
+    private int[] lengths = new int[1024];
+    private BitSet deleted = new BitSet();
+    private int nextOrdinal;
+    private int deletedCount;
+    private long totalLength;
+
+    /**
+     * Adds or replaces a product in the index.
+     */
+    public void index(ProductDTO product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        ProductDTO copy = copy(product);
+        Map<String, Integer> frequencies = termFrequencies(copy);
+        lock.writeLock().lock();
+        try {
+            removeLocked(copy.getId());
+            addLocked(copy, frequencies);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(productId);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole index; the new one is built before the lock is taken.
+     */
+    public void rebuild(Collection<ProductDTO> products) {
+        ProductSearchIndex fresh = new ProductSearchIndex();
+        for (ProductDTO product : products) {
+            if (product != null && product.getId() != null) {
+                ProductDTO copy = copy(product);
+                fresh.removeLocked(copy.getId());
+                fresh.addLocked(copy, termFrequencies(copy));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            swapIn(fresh);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} products ranked by BM25 score (copies, safe to modify).
+     */
+    public List<ProductDTO> search(String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+        List<ProductDTO> results = new ArrayList<>();
+        if (terms.isEmpty() || limit < 1) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            int liveDocs = nextOrdinal - deletedCount;
+            if (liveDocs == 0) {
+                return results;
+            }
+            float avgLength = (float) totalLength / liveDocs;
+            Postings[] lists = new Postings[terms.size()];
+            float[] idfs = new float[terms.size()];
+            int matched = 0;
+            for (int t = 0; t < terms.size(); t++) {
+                Postings list = postings.get(terms.get(t));
+                if (list == null) {
+                    continue;
+                }
+                // df counts tombstoned postings too; compaction keeps the error small
+                int df = Math.min(list.size, liveDocs);
+                lists[t] = list;
+                idfs[t] = (float) Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+                matched += list.size;
+            }
+            if (matched == 0) {
+                return results;
+            }
+
+            // Sized by the postings this query reads, not by the whole index
+            ScoreTable scores = new ScoreTable(matched);
+            for (int t = 0; t < lists.length; t++) {
+                Postings list = lists[t];
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    if (deleted.get(doc)) {
+                        continue;
+                    }
+                    float tf = list.freqs[i];
+                    float norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+                    scores.add(doc, idfs[t] * (tf * (K1 + 1)) / (tf + norm));
+                }
+            }
+
+            // Min-heap of the best `limit` slots; on equal scores the older document ranks first
+            PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1, (a, b) -> {
+                int byScore = Float.compare(scores.scores[a], scores.scores[b]);
+                return byScore != 0 ? byScore : Integer.compare(scores.docs[b], scores.docs[a]);
+            });
+            for (int slot = 0; slot < scores.docs.length; slot++) {
+                if (scores.docs[slot] < 0) {
+                    continue;
+                }
+                top.offer(slot);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            while (!top.isEmpty()) {
+                results.add(copy(documents[scores.docs[top.poll()]]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nextOrdinal - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addLocked(ProductDTO product, Map<String, Integer> frequencies) {
+        int ordinal = nextOrdinal++;
+        if (ordinal == documents.length) {
+            documents = Arrays.copyOf(documents, ordinal * 2);
+            lengths = Arrays.copyOf(lengths, ordinal * 2);
+        }
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new Postings()).add(ordinal, entry.getValue());
+            length += entry.getValue();
+        }
+        documents[ordinal] = product;
+        lengths[ordinal] = length;
+        totalLength += length;
+        ordinalById.put(product.getId(), ordinal);
+    }
+
+    private void removeLocked(String productId) {
+        Integer ordinal = ordinalById.remove(productId);
+        if (ordinal == null) {
+            return;
+        }
+        deleted.set(ordinal);
+        deletedCount++;
+        totalLength -= lengths[ordinal];
+        documents[ordinal] = null;
+    }
+
+    private void compactIfNeeded() {
+        if (deletedCount < COMPACT_MIN_DELETED || deletedCount * 4 < nextOrdinal) {
+            return;
+        }
+        ProductSearchIndex fresh = new ProductSearchIndex();
+        for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+            if (!deleted.get(ordinal)) {
+                fresh.addLocked(documents[ordinal], termFrequencies(documents[ordinal]));
+            }
+        }
+        swapIn(fresh);
+    }
+
+    private void swapIn(ProductSearchIndex fresh) {
+        postings = fresh.postings;
+        ordinalById = fresh.ordinalById;
+        documents = fresh.documents;
+        lengths = fresh.lengths;
+        deleted = fresh.deleted;
+        nextOrdinal = fresh.nextOrdinal;
+        deletedCount = fresh.deletedCount;
+        totalLength = fresh.totalLength;
+    }
+
+    private static Map<String, Integer> termFrequencies(ProductDTO product) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        addField(frequencies, product.getName(), NAME_WEIGHT);
+        addField(frequencies, product.getCategory(), CATEGORY_WEIGHT);
+        addField(frequencies, product.getDescription(), DESCRIPTION_WEIGHT);
+        return frequencies;
+    }
+
+    private static void addField(Map<String, Integer> frequencies, String text, int weight) {
+        for (String token : Tokenizer.tokenize(text)) {
+            frequencies.merge(token, weight, Integer::sum);
+        }
+    }
+
+    static ProductDTO copy(ProductDTO source) {
+        ProductDTO dto = new ProductDTO();
+        dto.setId(source.getId());
+        dto.setName(source.getName());
+        dto.setCategory(source.getCategory());
+        dto.setDescription(source.getDescription());
+        dto.setCost(source.getCost());
+        dto.setSeller_id(source.getSeller_id());
+        dto.setImageUrl(source.getImageUrl());
+        return dto;
+    }
+
+    // Open-addressing map from ordinal to score, at most half full; free slots hold -1
+    private static final class ScoreTable {
+        final int[] docs;
+        final float[] scores;
+        final int mask;
+
+        ScoreTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected * 2 - 1, 1)) << 1;
+            docs = new int[capacity];
+            scores = new float[capacity];
+            mask = capacity - 1;
+            Arrays.fill(docs, -1);
+        }
+
+        void add(int doc, float score) {
+            int slot = doc * 0x9E3779B9 & mask;
+            while (docs[slot] >= 0 && docs[slot] != doc) {
+                slot = (slot + 1) & mask;
+            }
+            docs[slot] = doc;
+            scores[slot] += score;
+        }
+    }
+
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+}
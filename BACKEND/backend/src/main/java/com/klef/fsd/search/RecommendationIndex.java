@@ -0,0 +1,210 @@
+package com.klef.fsd.search;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Item-to-item "bought together" model. Products bought in the same basket (orders
+ * sharing a razorpayOrderId) co-occur; each product keeps a sparse row of
+ * co-occurrence counts in primitive arrays plus a precomputed top-K, so a lookup
+ * is an array copy under a read lock.
+ *
+ * Orders are fed one at a time as checkout creates them: recent baskets are kept
+ * for a while so a new line can be paired with the lines already in its basket.
+ * They hold product ids rather than ordinals, so they stay valid across a rebuild,
+ * which numbers the products afresh.
+ */
+@Component
+public class RecommendationIndex {
+
+    public static final int TOP_K = 20;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Cache<String, String[]> openBaskets = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(30)).maximumSize(10_000).build();
+
+    private Map<String, Integer> ordinalById = new HashMap<>();
+    private String[] idByOrdinal = new String[1024];
+    private Row[] rows = new Row[1024];
+
+    /**
+     * Ids of the products most often bought with this one, strongest first.
+     */
+    public List<String> recommend(String productId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinalById.get(productId);
+            if (ordinal == null || rows[ordinal] == null || limit < 1) {
+                return Collections.emptyList();
+            }
+            int[] top = rows[ordinal].top;
+            List<String> ids = new ArrayList<>(Math.min(limit, top.length));
+            for (int i = 0; i < top.length && ids.size() < limit; i++) {
+                ids.add(idByOrdinal[top[i]]);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records one order line; lines of the same basket are paired with each other.
+     */
+    public void recordPurchase(String basketId, String productId) {
+        if (basketId == null || productId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            String[] basket = openBaskets.getIfPresent(basketId);
+            if (basket == null) {
+                openBaskets.put(basketId, new String[] { productId });
+                return;
+            }
+            for (String other : basket) {
+                if (other.equals(productId)) {
+                    return;
+                }
+            }
+            int ordinal = ordinalOf(productId);
+            for (String other : basket) {
+                int otherOrdinal = ordinalOf(other);
+                increment(ordinal, otherOrdinal);
+                increment(otherOrdinal, ordinal);
+            }
+            String[] grown = Arrays.copyOf(basket, basket.length + 1);
+            grown[basket.length] = productId;
+            openBaskets.put(basketId, grown);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the model with one built from whole baskets, each a list of distinct product ids.
+     */
+    public void rebuild(Collection<List<String>> baskets) {
+        RecommendationIndex fresh = new RecommendationIndex();
+        for (List<String> basket : baskets) {
+            int[] ordinals = new int[basket.size()];
+            int size = 0;
+            for (String productId : basket) {
+                if (productId != null) {
+                    ordinals[size++] = fresh.ordinalOf(productId);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    fresh.add(ordinals[i], ordinals[j]);
+                    fresh.add(ordinals[j], ordinals[i]);
+                }
+            }
+        }
+        for (Row row : fresh.rows) {
+            if (row != null) {
+                row.top = row.topK();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            ordinalById = fresh.ordinalById;
+            idByOrdinal = fresh.idByOrdinal;
+            rows = fresh.rows;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int ordinalOf(String productId) {
+        Integer ordinal = ordinalById.get(productId);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int next = ordinalById.size();
+        if (next >= idByOrdinal.length) {
+            idByOrdinal = Arrays.copyOf(idByOrdinal, idByOrdinal.length * 2);
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        ordinalById.put(productId, next);
+        idByOrdinal[next] = productId;
+        return next;
+    }
+
+    private void increment(int from, int to) {
+        add(from, to).top = rows[from].topK();
+    }
+
+    private Row add(int from, int to) {
+        Row row = rows[from];
+        if (row == null) {
+            row = rows[from] = new Row();
+        }
+        row.add(to);
+        return row;
+    }
+
+    /**
+     * One sparse row: co-occurring ordinals sorted ascending, with parallel counts.
+     */
+    private static final class Row {
+        int[] columns = new int[4];
+        float[] counts = new float[4];
+        int size;
+        int[] top = new int[0];
+
+        void add(int column) {
+            int at = Arrays.binarySearch(columns, 0, size, column);
+            if (at >= 0) {
+                counts[at]++;
+                return;
+            }
+            at = -at - 1;
+            if (size == columns.length) {
+                columns = Arrays.copyOf(columns, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(columns, at, columns, at + 1, size - at);
+            System.arraycopy(counts, at, counts, at + 1, size - at);
+            columns[at] = column;
+            counts[at] = 1;
+            size++;
+        }
+
+        // Highest counts first, lower ordinal (older product) on ties; insertion into a K-slot array
+        int[] topK() {
+            int k = Math.min(TOP_K, size);
+            int[] best = new int[k];
+            int filled = 0;
+            for (int i = 0; i < size; i++) {
+                if (filled == k && counts[i] <= counts[best[k - 1]]) {
+                    continue;
+                }
+                int at = filled < k ? filled++ : k - 1;
+                while (at > 0 && counts[best[at - 1]] < counts[i]) {
+                    best[at] = best[at - 1];
+                    at--;
+                }
+                best[at] = i;
+            }
+            int[] ordinals = new int[k];
+            for (int i = 0; i < k; i++) {
+                ordinals[i] = columns[best[i]];
+            }
+            return ordinals;
+        }
+    }
+}
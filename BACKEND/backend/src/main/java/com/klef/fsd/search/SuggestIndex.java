@@ -0,0 +1,306 @@
+package com.klef.fsd.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.dto.ProductDTO;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Typeahead over product names. Lookups read an immutable, array-packed trie in
+ * which every node already holds its top-K names by popularity, so a keystroke is
+ * a walk of at most {@link #MAX_KEY_CHARS} nodes and never touches Mongo.
+ *
+ * Name changes only update the entry map and schedule a debounced rebuild on a
+ * background thread; the new trie is published with a single volatile write.
+ * Purchases only bump a counter: their effect on the ranking is picked up by the
+ * next name-driven rebuild, or by a periodic refresh on a much longer cadence.
+ * Memory per product is bounded: at most {@link #MAX_WORDS} word starts of at
+ * most {@link #MAX_KEY_CHARS} characters are indexed.
+ */
+@Component
+public class SuggestIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SuggestIndex.class);
+
+    public static final int TOP_K = 10;
+    private static final int MAX_KEY_CHARS = 32;
+    private static final int MAX_WORDS = 4;
+
+    private final Map<String, String> nameById = new ConcurrentHashMap<>();
+    private final Map<String, Long> popularityById = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final AtomicBoolean popularityChanged = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "suggest-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long debounceMillis;
+
+    private volatile Trie trie = Trie.EMPTY;
+
+    public SuggestIndex(@Value("${product.suggest.debounce-ms:500}") long debounceMillis,
+            @Value("${product.suggest.popularity-refresh-ms:300000}") long popularityRefreshMillis) {
+        this.debounceMillis = debounceMillis;
+        executor.scheduleWithFixedDelay(this::refreshPopularity, popularityRefreshMillis, popularityRefreshMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns up to {@code limit} product names starting with the prefix (or with one of
+     * their words starting with it), most popular first.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+        return trie.lookup(key, Math.min(limit, TOP_K));
+    }
+
+    public void index(ProductDTO product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        if (product.getName() == null || product.getName().isBlank()) {
+            nameById.remove(product.getId());
+        } else {
+            nameById.put(product.getId(), product.getName().trim());
+        }
+        scheduleRebuild();
+    }
+
+    public void remove(String productId) {
+        if (productId != null && nameById.remove(productId) != null) {
+            scheduleRebuild();
+        }
+    }
+
+    public void recordPurchase(String productId, long units) {
+        if (productId == null || units <= 0) {
+            return;
+        }
+        popularityById.merge(productId, units, Long::sum);
+        popularityChanged.set(true);
+    }
+
+    /**
+     * Replaces names and popularity wholesale and builds synchronously (startup path).
+     */
+    public void rebuild(Collection<ProductDTO> products, Map<String, Long> popularity) {
+        nameById.clear();
+        for (ProductDTO product : products) {
+            if (product != null && product.getId() != null && product.getName() != null
+                    && !product.getName().isBlank()) {
+                nameById.put(product.getId(), product.getName().trim());
+            }
+        }
+        popularityById.clear();
+        popularityById.putAll(popularity);
+        popularityChanged.set(false);
+        trie = build();
+    }
+
+    private void scheduleRebuild() {
+        // Writes that arrive while a rebuild is pending are folded into it
+        if (rebuildPending.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                rebuildPending.set(false);
+                rebuildNow();
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Skipped when nothing was bought since the last build, or a name-driven rebuild is about to run anyway
+    private void refreshPopularity() {
+        if (popularityChanged.get() && !rebuildPending.get()) {
+            rebuildNow();
+        }
+    }
+
+    // Runs on the index thread only, so builds never overlap
+    private void rebuildNow() {
+        popularityChanged.set(false);
+        try {
+            trie = build();
+        } catch (RuntimeException e) {
+            logger.warn("Suggest index rebuild failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Trie build() {
+        // Products sharing a display name are one suggestion with their popularity summed
+        Map<String, String> displayByKey = new HashMap<>();
+        Map<String, Long> scoreByKey = new HashMap<>();
+        for (Map.Entry<String, String> entry : nameById.entrySet()) {
+            String key = normalize(entry.getValue());
+            if (key.isEmpty()) {
+                continue;
+            }
+            displayByKey.putIfAbsent(key, entry.getValue());
+            scoreByKey.merge(key, popularityById.getOrDefault(entry.getKey(), 0L), Long::sum);
+        }
+
+        List<String> keys = new ArrayList<>(displayByKey.keySet());
+        keys.sort(Comparator.comparing((String key) -> scoreByKey.get(key)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        // Inserting in popularity order means the first K names to reach a node are its top K
+        Node root = new Node();
+        String[] names = new String[keys.size()];
+        for (int ordinal = 0; ordinal < keys.size(); ordinal++) {
+            String key = keys.get(ordinal);
+            names[ordinal] = displayByKey.get(key);
+            int words = 0;
+            for (int start = 0; start < key.length() && words < MAX_WORDS; start++) {
+                if (start == 0 || key.charAt(start - 1) == ' ') {
+                    insert(root, key, start, ordinal);
+                    words++;
+                }
+            }
+        }
+        return Trie.pack(root, names);
+    }
+
+    private static void insert(Node root, String key, int start, int ordinal) {
+        Node node = root;
+        int end = Math.min(key.length(), start + MAX_KEY_CHARS);
+        for (int i = start; i < end; i++) {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            node.offer(ordinal);
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    // Mutable build-time node; discarded once packed
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int[] top = new int[0];
+
+        void offer(int ordinal) {
+            // The same name reaches a node twice when two of its words share a prefix
+            if (top.length < TOP_K && (top.length == 0 || top[top.length - 1] != ordinal)) {
+                top = Arrays.copyOf(top, top.length + 1);
+                top[top.length - 1] = ordinal;
+            }
+        }
+    }
+
+    /**
+     * Immutable trie packed into parallel arrays. Node n's children are the edges
+     * [firstEdge[n], firstEdge[n + 1]), sorted by label; its suggestions are
+     * topNames[firstTop[n] .. firstTop[n + 1]).
+     */
+    private static final class Trie {
+
+        static final Trie EMPTY = pack(new Node(), new String[0]);
+
+        final int[] firstEdge;
+        final char[] edgeLabel;
+        final int[] edgeTarget;
+        final int[] firstTop;
+        final int[] topNames;
+        final String[] names;
+
+        private Trie(int[] firstEdge, char[] edgeLabel, int[] edgeTarget, int[] firstTop, int[] topNames,
+                String[] names) {
+            this.firstEdge = firstEdge;
+            this.edgeLabel = edgeLabel;
+            this.edgeTarget = edgeTarget;
+            this.firstTop = firstTop;
+            this.topNames = topNames;
+            this.names = names;
+        }
+
+        static Trie pack(Node root, String[] names) {
+            // Breadth-first numbering so each node's children are contiguous
+            List<Node> order = new ArrayList<>();
+            order.add(root);
+            int edges = 0;
+            int tops = 0;
+            for (int i = 0; i < order.size(); i++) {
+                Node node = order.get(i);
+                order.addAll(node.children.values());
+                edges += node.children.size();
+                tops += node.top.length;
+            }
+
+            int[] firstEdge = new int[order.size() + 1];
+            char[] edgeLabel = new char[edges];
+            int[] edgeTarget = new int[edges];
+            int[] firstTop = new int[order.size() + 1];
+            int[] topNames = new int[tops];
+            int edge = 0;
+            int top = 0;
+            int nextChild = 1;
+            for (int n = 0; n < order.size(); n++) {
+                Node node = order.get(n);
+                firstEdge[n] = edge;
+                for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                    edgeLabel[edge] = child.getKey();
+                    edgeTarget[edge] = nextChild++;
+                    edge++;
+                }
+                firstTop[n] = top;
+                System.arraycopy(node.top, 0, topNames, top, node.top.length);
+                top += node.top.length;
+            }
+            firstEdge[order.size()] = edge;
+            firstTop[order.size()] = top;
+            return new Trie(firstEdge, edgeLabel, edgeTarget, firstTop, topNames, names);
+        }
+
+        List<String> lookup(String key, int limit) {
+            int node = 0;
+            int depth = Math.min(key.length(), MAX_KEY_CHARS);
+            for (int i = 0; i < depth; i++) {
+                int edge = Arrays.binarySearch(edgeLabel, firstEdge[node], firstEdge[node + 1], key.charAt(i));
+                if (edge < 0) {
+                    return Collections.emptyList();
+                }
+                node = edgeTarget[edge];
+            }
+
+            List<String> results = new ArrayList<>(limit);
+            for (int i = firstTop[node]; i < firstTop[node + 1] && results.size() < limit; i++) {
+                String name = names[topNames[i]];
+                // Past the indexed depth the trie can only narrow the candidates
+                if (key.length() <= MAX_KEY_CHARS || normalize(name).contains(key)) {
+                    results.add(name);
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.klef.fsd.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Best sellers per category and time window, fed by order creation. Each window is
+ * tumbling (hour, day, week); a query blends the current window with the part of
+ * the previous one that still overlaps the last full window, like a sliding
+ * window. Every (window, category) pair is a Space-Saving summary of fixed
+ * capacity, so memory and query cost do not grow with the catalog or order volume.
+ *
+ * Summaries are snapshotted to Mongo periodically and on shutdown, and restored by
+ * CatalogIndexer at startup.
+ */
+@Component
+public class TrendingIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrendingIndex.class);
+
+    private static final String COLLECTION = "trending";
+    // Summary key for all categories together
+    private static final String ALL = "";
+
+    public enum Window {
+        HOUR(3_600_000L), DAY(86_400_000L), WEEK(604_800_000L);
+
+        private final long millis;
+
+        Window(long millis) {
+            this.millis = millis;
+        }
+
+        public static Window of(String name) {
+            if (name == null || name.isBlank()) {
+                return DAY;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("window must be hour, day or week");
+            }
+        }
+    }
+
+    public record Entry(String productId, double units) {
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final int capacity;
+    private final Map<Window, WindowState> windows = new HashMap<>();
+    private boolean dirty; // sales recorded since the last snapshot
+
+    public TrendingIndex(@Value("${trending.capacity:200}") int capacity) {
+        this.capacity = capacity;
+        for (Window window : Window.values()) {
+            windows.put(window, new WindowState(window));
+        }
+    }
+
+    public synchronized void recordSale(String productId, String category, int units) {
+        if (productId == null || units <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        dirty = true;
+        for (WindowState state : windows.values()) {
+            state.roll(now);
+            state.current.computeIfAbsent(ALL, key -> new SpaceSaving(capacity)).offer(productId, units);
+            if (category != null) {
+                state.current.computeIfAbsent(category, key -> new SpaceSaving(capacity)).offer(productId, units);
+            }
+        }
+    }
+
+    /**
+     * Top sellers in the window, optionally for one category; units are estimates.
+     */
+    public synchronized List<Entry> top(String category, Window window, int limit) {
+        long now = System.currentTimeMillis();
+        WindowState state = windows.get(window);
+        state.roll(now);
+        String key = (category == null || category.isBlank()) ? ALL : category;
+        // Share of the previous window still inside the last window length
+        double overlap = 1.0 - (double) (now - state.epoch * window.millis) / window.millis;
+
+        Map<String, Double> units = new HashMap<>();
+        SpaceSaving current = state.current.get(key);
+        if (current != null) {
+            current.counters.forEach((id, counter) -> units.merge(id, counter.count, Double::sum));
+        }
+        SpaceSaving previous = state.previous.get(key);
+        if (previous != null && overlap > 0) {
+            previous.counters.forEach((id, counter) -> units.merge(id, counter.count * overlap, Double::sum));
+        }
+        if (units.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>(units.size());
+        units.forEach((id, sold) -> entries.add(new Entry(id, sold)));
+        entries.sort(Comparator.comparingDouble(Entry::units).reversed().thenComparing(Entry::productId));
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    @Scheduled(fixedDelayString = "${trending.snapshot-interval-ms:60000}",
+            initialDelayString = "${trending.snapshot-interval-ms:60000}")
+    public void snapshot() {
+        List<Document> documents = new ArrayList<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            long now = System.currentTimeMillis();
+            for (WindowState state : windows.values()) {
+                state.roll(now);
+                documents.add(new Document("_id", state.window.name()).append("epoch", state.epoch)
+                        .append("current", toDocuments(state.current))
+                        .append("previous", toDocuments(state.previous)));
+            }
+        }
+        try {
+            for (Document document : documents) {
+                mongoTemplate.save(document, COLLECTION);
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            logger.warn("Trending snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the last snapshot; windows that have since rolled over are aged accordingly.
+     */
+    public void restore() {
+        List<Document> documents = mongoTemplate.findAll(Document.class, COLLECTION);
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Document document : documents) {
+                Window window;
+                try {
+                    window = Window.valueOf(document.getString("_id"));
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    continue;
+                }
+                WindowState state = new WindowState(window);
+                state.epoch = document.get("epoch", Number.class).longValue();
+                state.current = fromDocuments(document.getList("current", Document.class));
+                state.previous = fromDocuments(document.getList("previous", Document.class));
+                state.roll(now);
+                windows.put(window, state);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshot();
+    }
+
+    private static List<Document> toDocuments(Map<String, SpaceSaving> summaries) {
+        List<Document> documents = new ArrayList<>();
+        summaries.forEach((category, summary) -> {
+            List<Document> counters = new ArrayList<>();
+            for (Counter counter : summary.counters.values()) {
+                counters.add(new Document("id", counter.id).append("count", counter.count).append("error",
+                        counter.error));
+            }
+            documents.add(new Document("category", category).append("counters", counters));
+        });
+        return documents;
+    }
+
+    private Map<String, SpaceSaving> fromDocuments(List<Document> documents) {
+        Map<String, SpaceSaving> summaries = new HashMap<>();
+        if (documents == null) {
+            return summaries;
+        }
+        for (Document document : documents) {
+            SpaceSaving summary = new SpaceSaving(capacity);
+            for (Document counter : document.getList("counters", Document.class)) {
+                summary.restore(counter.getString("id"), counter.get("count", Number.class).doubleValue(),
+                        counter.get("error", Number.class).doubleValue());
+            }
+            summaries.put(document.getString("category"), summary);
+        }
+        return summaries;
+    }
+
+    private static final class WindowState {
+        final Window window;
+        long epoch;
+        Map<String, SpaceSaving> current = new HashMap<>();
+        Map<String, SpaceSaving> previous = new HashMap<>();
+
+        WindowState(Window window) {
+            this.window = window;
+            this.epoch = System.currentTimeMillis() / window.millis;
+        }
+
+        void roll(long now) {
+            long next = now / window.millis;
+            if (next == epoch) {
+                return;
+            }
+            previous = next == epoch + 1 ? current : new HashMap<>();
+            current = new HashMap<>();
+            epoch = next;
+        }
+    }
+
+    private static final class Counter {
+        final String id;
+        double count;
+        double error; // overestimation inherited from the counter this one replaced
+
+        Counter(String id, double count, double error) {
+            this.id = id;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Space-Saving heavy hitters: at most {@code capacity} counters; an unseen item
+     * takes over the smallest counter and inherits its count as error, so every item
+     * whose true count exceeds total / capacity is guaranteed to be tracked.
+     */
+    static final class SpaceSaving {
+        private static final Comparator<Counter> BY_COUNT = Comparator.comparingDouble((Counter c) -> c.count)
+                .thenComparing(c -> c.id);
+
+        final Map<String, Counter> counters = new HashMap<>();
+        private final TreeSet<Counter> byCount = new TreeSet<>(BY_COUNT);
+        private final int capacity;
+
+        SpaceSaving(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        void offer(String id, double weight) {
+            Counter counter = counters.get(id);
+            if (counter == null && counters.size() >= capacity) {
+                Counter smallest = byCount.pollFirst();
+                counters.remove(smallest.id);
+                counter = new Counter(id, smallest.count, smallest.count);
+                counters.put(id, counter);
+            } else if (counter == null) {
+                counter = new Counter(id, 0, 0);
+                counters.put(id, counter);
+            } else {
+                byCount.remove(counter);
+            }
+            counter.count += weight;
+            byCount.add(counter);
+        }
+
+        void restore(String id, double count, double error) {
+            if (id == null || counters.containsKey(id) || counters.size() >= capacity) {
+                return;
+            }
+            Counter counter = new Counter(id, count, error);
+            counters.put(id, counter);
+            byCount.add(counter);
+        }
+    }
+}
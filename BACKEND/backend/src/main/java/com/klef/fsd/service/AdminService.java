@@ -4,6 +4,7 @@ package com.klef.fsd.service;
 import java.util.List;
 import java.util.Map;
 
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.model.Admin;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Seller;
@@ -21,6 +22,10 @@ public interface AdminService
   
   public List<Buyer> viewBuyers();
   
+  public CursorPage<Seller> viewSellersPage(String after, Integer limit);
+  
+  public CursorPage<Buyer> viewBuyersPage(String after, Integer limit);
+  
   public String deleteSeller(String id);
   
   public String deleteBuyer(String id);
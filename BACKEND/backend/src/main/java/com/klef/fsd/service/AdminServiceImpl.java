@@ -10,8 +10,13 @@ import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.model.Admin;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Order;
@@ -21,6 +26,7 @@ import com.klef.fsd.repository.BuyerRepository;
 import com.klef.fsd.repository.OrderRepository;
 import com.klef.fsd.repository.ProductRepository;
 import com.klef.fsd.repository.SellerRepository;
+import com.klef.fsd.util.CursorCodec;
 
 @Service
 public class AdminServiceImpl implements AdminService {
@@ -61,6 +67,30 @@ public class AdminServiceImpl implements AdminService {
         return buyerRepository.findAll();
     }
 
+    @Override
+    public CursorPage<Seller> viewSellersPage(String after, Integer limit) {
+        String[] cursor = CursorCodec.decode(after, 1);
+        Pageable page = PageRequest.of(0, CursorCodec.clampLimit(limit), Sort.by(Sort.Direction.ASC, "id"));
+        Slice<Seller> slice = cursor == null ? sellerRepository.findAllBy(page)
+                : sellerRepository.findByIdGreaterThan(cursor[0], page);
+        String next = slice.hasNext() && slice.hasContent()
+                ? CursorCodec.encode(slice.getContent().get(slice.getNumberOfElements() - 1).getId())
+                : null;
+        return new CursorPage<>(slice.getContent(), next);
+    }
+
+    @Override
+    public CursorPage<Buyer> viewBuyersPage(String after, Integer limit) {
+        String[] cursor = CursorCodec.decode(after, 1);
+        Pageable page = PageRequest.of(0, CursorCodec.clampLimit(limit), Sort.by(Sort.Direction.ASC, "id"));
+        Slice<Buyer> slice = cursor == null ? buyerRepository.findAllBy(page)
+                : buyerRepository.findByIdGreaterThan(cursor[0], page);
+        String next = slice.hasNext() && slice.hasContent()
+                ? CursorCodec.encode(slice.getContent().get(slice.getNumberOfElements() - 1).getId())
+                : null;
+        return new CursorPage<>(slice.getContent(), next);
+    }
+
     @Override
     public String deleteSeller(String id) {
         Optional<Seller> seller = sellerRepository.findById(id);
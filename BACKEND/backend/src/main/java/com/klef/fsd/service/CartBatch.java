@@ -0,0 +1,109 @@
+package com.klef.fsd.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.klef.fsd.dto.CartOperationDTO;
+
+/**
+ * Validation shared by both cart models for /cart/batch. The whole batch is
+ * checked against the current cart before anything is written, so a bad step
+ * rejects the batch without writing. A concurrent write to the same cart can
+ * still fail the batch afterwards: the embedded model then writes nothing, while
+ * the lines model, which has no transaction, keeps the steps before the failing
+ * one. Either way a {@link CartConflictException} carries the cart as it now is.
+ */
+final class CartBatch {
+
+    static final int MAX_OPERATIONS = 50;
+
+    enum Op {
+        ADD, UPDATE, REMOVE
+    }
+
+    record Step(Op op, String productId, int quantity) {
+    }
+
+    private CartBatch() {
+    }
+
+    static List<Step> parse(List<CartOperationDTO> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("At least one operation is required");
+        }
+        if (operations.size() > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("At most " + MAX_OPERATIONS + " operations per batch");
+        }
+        List<Step> steps = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            CartOperationDTO operation = operations.get(i);
+            if (operation == null || operation.getOp() == null || operation.getProductId() == null
+                    || operation.getProductId().isBlank()) {
+                throw new IllegalArgumentException("Operation " + i + ": op and productId are required");
+            }
+            Op op;
+            try {
+                op = Op.valueOf(operation.getOp().trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Operation " + i + ": op must be add, update or remove");
+            }
+            if (op != Op.REMOVE
+                    && (operation.getQuantity() < 1 || operation.getQuantity() > CartService.MAX_QUANTITY)) {
+                throw new IllegalArgumentException("Operation " + i + ": quantity must be between 1 and 10");
+            }
+            steps.add(new Step(op, operation.getProductId(), operation.getQuantity()));
+        }
+        return steps;
+    }
+
+    // Products that must exist: those being added
+    static Set<String> addedProductIds(List<Step> steps) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (Step step : steps) {
+            if (step.op() == Op.ADD) {
+                ids.add(step.productId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Runs the steps over the cart (product id -> quantity, in cart order) and
+     * returns the resulting cart; existingProducts holds the ids of addable products.
+     */
+    static LinkedHashMap<String, Integer> apply(LinkedHashMap<String, Integer> cart, List<Step> steps,
+            Set<String> existingProducts) {
+        LinkedHashMap<String, Integer> result = new LinkedHashMap<>(cart);
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            switch (step.op()) {
+                case ADD -> {
+                    if (!existingProducts.contains(step.productId())) {
+                        throw new IllegalArgumentException("Operation " + i + ": product does not exist");
+                    }
+                    if (result.putIfAbsent(step.productId(), step.quantity()) != null) {
+                        throw new IllegalArgumentException("Operation " + i + ": product already in cart");
+                    }
+                }
+                case UPDATE -> {
+                    if (result.replace(step.productId(), step.quantity()) == null) {
+                        throw new IllegalArgumentException("Operation " + i + ": cart item does not exist");
+                    }
+                }
+                case REMOVE -> {
+                    if (result.remove(step.productId()) == null) {
+                        throw new IllegalArgumentException("Operation " + i + ": cart item does not exist");
+                    }
+                }
+            }
+        }
+        if (result.size() > CartService.MAX_ITEMS) {
+            throw new IllegalArgumentException("Cart limit exceeded");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,22 @@
+package com.klef.fsd.service;
+
+import java.util.List;
+
+import com.klef.fsd.dto.CartDTO;
+
+// A cart write lost a race with other writes to the same cart; carries the cart as it now is
+public class CartConflictException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<CartDTO> cart;
+
+    public CartConflictException(String message, List<CartDTO> cart) {
+        super(message);
+        this.cart = cart != null ? List.copyOf(cart) : List.of();
+    }
+
+    public List<CartDTO> getCart() {
+        return cart;
+    }
+}
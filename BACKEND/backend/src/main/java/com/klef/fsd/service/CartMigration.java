@@ -0,0 +1,189 @@
+package com.klef.fsd.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.model.BuyerCart;
+import com.klef.fsd.model.CartItem;
+import com.klef.fsd.util.MongoIds;
+import com.mongodb.bulk.BulkWriteError;
+
+/**
+ * Moves rows of the old "carts" collection into BuyerCart documents while the
+ * application keeps serving (cart.model=embedded). A background thread drains the
+ * collection in batches; until it is done, EmbeddedCartServiceImpl migrates a
+ * buyer's remaining rows before touching that buyer's cart. A row is deleted only
+ * after its line is in the buyer's document, so a crash just repeats the batch,
+ * and a migration stopped by an error is restarted on the next retry.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.model", havingValue = "embedded")
+public class CartMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CartMigration.class);
+
+    private static final String LEGACY_COLLECTION = "carts";
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${cart.migration.batch-size:500}")
+    private int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean started;
+    private volatile boolean complete;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        started = true;
+        launch();
+    }
+
+    // Restarts a background migration that stopped on an error; a no-op once it is complete
+    @Scheduled(fixedDelayString = "${cart.migration.retry-ms:60000}")
+    public void retry() {
+        if (started && !complete) {
+            launch();
+        }
+    }
+
+    /**
+     * Migrates one buyer's remaining rows; a no-op once the background migration has finished.
+     */
+    public void migrateBuyer(String buyerId) {
+        if (complete) {
+            return;
+        }
+        migrate(new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId))));
+        // Buyers migrated on access may have drained what the background run left behind
+        if (mongoTemplate.estimatedCount(LEGACY_COLLECTION) == 0) {
+            complete = true;
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private void launch() {
+        if (running.compareAndSet(false, true)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    migrateAll();
+                } finally {
+                    running.set(false);
+                }
+            }, "cart-migration");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void migrateAll() {
+        try {
+            long start = System.currentTimeMillis();
+            long moved = 0;
+            int batch;
+            // Migrated rows are deleted, so the first batch is always the next one
+            while ((batch = migrate(new Query().with(Sort.by("_id")).limit(batchSize))) > 0) {
+                moved += batch;
+            }
+            complete = true;
+            logger.info("Cart migration finished: {} rows in {} ms", moved, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // Retried by retry(); until then buyers are migrated on access
+            logger.warn("Cart migration stopped: {}", e.getMessage());
+        }
+    }
+
+    // Returns the number of rows read
+    private int migrate(Query query) {
+        List<Document> rows = mongoTemplate.find(query, Document.class, LEGACY_COLLECTION);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        List<Object> productIds = new ArrayList<>();
+        for (Document row : rows) {
+            productIds.add(MongoIds.of(MongoIds.refId(row.get("product"))));
+        }
+        Query productQuery = new Query(Criteria.where("_id").in(productIds));
+        productQuery.fields().include("name", "category", "description", "cost", "imageUrl", "seller");
+        Map<String, Document> products = new HashMap<>();
+        for (Document product : mongoTemplate.find(productQuery, Document.class, "products")) {
+            products.put(product.get("_id").toString(), product);
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BuyerCart.class);
+        List<Object> migrated = new ArrayList<>();
+        int pushes = 0;
+        for (Document row : rows) {
+            String buyerId = MongoIds.refId(row.get("buyer"));
+            Document product = products.get(MongoIds.refId(row.get("product")));
+            migrated.add(row.get("_id"));
+            if (buyerId == null || product == null) {
+                continue; // dangling row: nothing to move
+            }
+            // The upsert hits the duplicate key if the buyer's cart already has this product
+            Query target = new Query(Criteria.where("_id").is(MongoIds.of(buyerId))
+                    .and("items.productId").ne(product.get("_id").toString()));
+            operations.upsert(target, new Update().push("items", toItem(row, product)));
+            pushes++;
+        }
+        if (pushes > 0) {
+            try {
+                operations.execute();
+            } catch (BulkOperationException e) {
+                for (BulkWriteError error : e.getErrors()) {
+                    if (error.getCode() != DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        mongoTemplate.remove(new Query(Criteria.where("_id").in(migrated)), LEGACY_COLLECTION);
+        return rows.size();
+    }
+
+    private static CartItem toItem(Document row, Document product) {
+        CartItem item = new CartItem();
+        // Keep the row id so cart ids the frontend already holds stay valid
+        item.setId(row.get("_id").toString());
+        item.setProductId(product.get("_id").toString());
+        item.setSellerId(MongoIds.refId(product.get("seller")));
+        item.setName(product.getString("name"));
+        item.setCategory(product.getString("category"));
+        item.setDescription(product.getString("description"));
+        Object cost = product.get("cost");
+        item.setCost(cost instanceof Number ? ((Number) cost).doubleValue() : 0);
+        item.setImageUrl(product.getString("imageUrl"));
+        Object quantity = row.get("quantity");
+        item.setQuantity(quantity instanceof Number ? ((Number) quantity).intValue() : 1);
+        item.setAddedAt(LocalDateTime.now());
+        return item;
+    }
+}
@@ -1,12 +1,18 @@
 package com.klef.fsd.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CartOperationDTO;
 import com.klef.fsd.model.Cart;
 
 public interface CartService {
 
+    int MAX_ITEMS = 10;
+    int MAX_QUANTITY = 10;
+
     Cart addToCart(Cart cart);
 
     List<CartDTO> getCartItemsByBuyerId(String buyerId);
@@ -15,8 +21,25 @@ public interface CartService {
 
     void clearCartByBuyerId(String buyerId);
 
+    // Removes the buyer's lines for these products, leaving any others; payment capture uses it
+    // so lines added after checkout survive
+    void removeProductsFromCart(String buyerId, Collection<String> productIds);
+
+    // Removes every buyer's lines for these products; called once the products are deleted
+    void removeProductsFromAllCarts(Collection<String> productIds);
+
     Cart updateCartQuantity(String buyerId, String productId, int quantity);
 
     long getCartCountByBuyerId(String buyerId);
-    
+
+    // Applies add/update/remove steps as one write and returns the resulting cart; throws
+    // CartConflictException, with the current cart, when a concurrent write got in the way
+    // (as addToCart does once its retries are used up)
+    List<CartDTO> applyCartBatch(String buyerId, List<CartOperationDTO> operations);
+
+    // Makes pending cart writes for the buyer durable; checkout calls this before reading the cart
+    void flushCart(String buyerId);
+
+    Map<String, Object> getCartCacheStats();
+
 }
@@ -1,23 +1,46 @@
 package com.klef.fsd.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CartOperationDTO;
 import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Cart;
 import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
 import com.klef.fsd.repository.BuyerRepository;
 import com.klef.fsd.repository.CartRepository;
 import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.util.MongoIds;
+import com.klef.fsd.util.ProductImages;
 
+// One document per cart line in "carts"; see EmbeddedCartServiceImpl for cart.model=embedded.
+// Reads, counts and quantity changes go through CartStateCache; other writes invalidate it.
 @Service
 @Transactional
+@ConditionalOnProperty(name = "cart.model", havingValue = "lines", matchIfMissing = true)
 public class CartServiceImpl implements CartService {
 
     @Autowired
@@ -26,76 +49,74 @@ public class CartServiceImpl implements CartService {
     @Autowired
     private BuyerRepository buyerRepository;
 
+    @Autowired
+    private ProductService productService;
+
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CartStateCache cartStateCache;
+
     @Override
     public Cart addToCart(Cart cart) {
         if (cart == null || cart.getProduct() == null || cart.getBuyer() == null) {
             throw new IllegalArgumentException("Cart, product, or buyer cannot be null");
         }
 
-        Optional<Product> productOpt = productRepository.findById(cart.getProduct().getId());
-        if (!productOpt.isPresent()) {
+        Product product = productService.getProductById(cart.getProduct().getId());
+        if (product == null) {
             throw new IllegalArgumentException("Product does not exist");
         }
 
-        Optional<Buyer> buyerOpt = buyerRepository.findById(cart.getBuyer().getId());
-        if (!buyerOpt.isPresent()) {
-            throw new IllegalArgumentException("Buyer does not exist");
-        }
+        String buyerId = cart.getBuyer().getId();
+        Buyer buyer = new Buyer();
+        buyer.setId(buyerId);
+        // Two reads (one when the cart is cached) and one insert. The checks below only pick a slot
+        // and fail fast; the unique indexes on Cart are what reject duplicates and a full cart.
+        for (int attempt = 0; attempt < 3; attempt++) {
+            List<CartDTO> lines = cartStateCache.items(buyerId);
+            if (lines == null) {
+                throw new IllegalArgumentException("Buyer does not exist");
+            }
+            for (CartDTO line : lines) {
+                if (product.getId().equals(line.getProduct().getId())) {
+                    throw new IllegalArgumentException("Product already in cart");
+                }
+            }
+            // Not from the cached lines: a line whose product is gone is left out of those but keeps its slot
+            Set<Integer> taken = new HashSet<>(cartRepository.findTakenSlots(buyerId));
+            int slot = freeSlot(taken);
+            if (lines.size() >= MAX_ITEMS || slot < 0) {
+                throw new IllegalArgumentException("Cart limit exceeded");
+            }
 
-        // Check if the product is already in the cart for this buyer
-        Cart existingCart = cartRepository.findByBuyerIdAndProductId(cart.getBuyer().getId(), cart.getProduct().getId());
-        if (existingCart != null) {
-            throw new IllegalArgumentException("Product already in cart");
+            Cart line = new Cart();
+            line.setBuyer(buyer);
+            line.setProduct(product);
+            line.setQuantity(cart.getQuantity());
+            line.setSlot(slot);
+            try {
+                return mongoTemplate.insert(line);
+            } catch (DuplicateKeyException e) {
+                // A concurrent add took the slot or the product; the re-read on the next pass tells which
+            } finally {
+                cartStateCache.invalidate(buyerId);
+            }
         }
-
-        // Check cart limit (e.g., max 10 products)
-        List<Cart> buyerCartItems = cartRepository.findByBuyer(buyerOpt.get());
-        if (buyerCartItems.size() >= 10) {
-            throw new IllegalArgumentException("Cart limit exceeded");
+        List<CartDTO> lines = cartStateCache.items(buyerId);
+        if (lines != null && lines.stream().anyMatch(line -> product.getId().equals(line.getProduct().getId()))) {
+            throw new IllegalArgumentException("Product already in cart");
         }
-
-        cart.setBuyer(buyerOpt.get());
-        cart.setProduct(productOpt.get());
-        return cartRepository.save(cart);
+        throw new CartConflictException("Cart changed concurrently, please retry", lines);
     }
 
     @Override
     public List<CartDTO> getCartItemsByBuyerId(String buyerId) {
-        Optional<Buyer> buyerOpt = buyerRepository.findById(buyerId);
-        if (!buyerOpt.isPresent()) {
-            return null;
-        }
-
-        List<Cart> cartItems = cartRepository.findByBuyer(buyerOpt.get());
-        List<CartDTO> cartDTOs = new ArrayList<>();
-
-        for (Cart cart : cartItems) {
-            CartDTO cartDTO = new CartDTO();
-            cartDTO.setId(cart.getCid());
-            cartDTO.setQuantity(cart.getQuantity());
-
-            ProductDTO pdto = new ProductDTO();
-            pdto.setId(cart.getProduct().getId());
-            pdto.setName(cart.getProduct().getName());
-            pdto.setCategory(cart.getProduct().getCategory());
-            pdto.setDescription(cart.getProduct().getDescription());
-            pdto.setCost(cart.getProduct().getCost());
-            // Add imageUrl with fallback
-            String imageUrl = cart.getProduct().getImageUrl();
-            if (imageUrl == null || imageUrl.trim().isEmpty()) {
-                imageUrl = "https://placehold.co/300x200?text=No+Image";
-            }
-            pdto.setImageUrl(imageUrl);
-            pdto.setSeller_id(cart.getProduct().getSeller() != null ? cart.getProduct().getSeller().getId() : null);
-
-            cartDTO.setProduct(pdto);
-            cartDTOs.add(cartDTO);
-        }
-
-        return cartDTOs;
+        return cartStateCache.items(buyerId);
     }
 
     @Override
@@ -105,6 +126,9 @@ public class CartServiceImpl implements CartService {
             throw new IllegalArgumentException("Cart item does not exist");
         }
         cartRepository.deleteById(cartId);
+        if (cartOpt.get().getBuyer() != null) {
+            cartStateCache.invalidate(cartOpt.get().getBuyer().getId());
+        }
     }
 
     @Override
@@ -114,39 +138,216 @@ public class CartServiceImpl implements CartService {
             throw new IllegalArgumentException("Buyer does not exist");
         }
         cartRepository.deleteByBuyerId(buyerId);
+        cartStateCache.invalidate(buyerId);
+    }
+
+    @Override
+    public void removeProductsFromCart(String buyerId, Collection<String> productIds) {
+        List<Object> ids = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            ids.add(MongoIds.of(productId));
+        }
+        try {
+            mongoTemplate.remove(new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)).and("product.$id")
+                    .in(ids)), Cart.class);
+        } finally {
+            cartStateCache.invalidate(buyerId);
+        }
+    }
+
+    @Override
+    public void removeProductsFromAllCarts(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<Object> ids = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            ids.add(MongoIds.of(productId));
+        }
+        Query byProduct = new Query(Criteria.where("product.$id").in(ids));
+        byProduct.fields().include("buyer");
+        Set<String> buyerIds = new HashSet<>();
+        mongoTemplate.executeQuery(byProduct, "carts", document -> buyerIds.add(MongoIds.refId(document.get("buyer"))));
+        mongoTemplate.remove(new Query(Criteria.where("product.$id").in(ids)), Cart.class);
+        for (String buyerId : buyerIds) {
+            if (buyerId != null) {
+                cartStateCache.invalidate(buyerId);
+            }
+        }
     }
 
     @Override
     public Cart updateCartQuantity(String buyerId, String productId, int quantity) {
-        if (quantity < 1 || quantity > 10) {
+        if (quantity < 1 || quantity > MAX_QUANTITY) {
             throw new IllegalArgumentException("Quantity must be between 1 and 10");
         }
 
-        Optional<Buyer> buyerOpt = buyerRepository.findById(buyerId);
-        if (!buyerOpt.isPresent()) {
+        // The cached cart only holds lines whose product still exists
+        CartDTO line = cartStateCache.updateQuantity(buyerId, productId, quantity);
+        return toCart(buyerId, line);
+    }
+
+    @Override
+    public long getCartCountByBuyerId(String buyerId) {
+        long count = cartStateCache.count(buyerId);
+        if (count < 0) {
             throw new IllegalArgumentException("Buyer does not exist");
         }
+        return count;
+    }
 
-        Optional<Product> productOpt = productRepository.findById(productId);
-        if (!productOpt.isPresent()) {
-            throw new IllegalArgumentException("Product does not exist");
+    @Override
+    public List<CartDTO> applyCartBatch(String buyerId, List<CartOperationDTO> operations) {
+        List<CartBatch.Step> steps = CartBatch.parse(operations);
+        // Buffered quantities go out first so they cannot overwrite the batch
+        cartStateCache.flush(buyerId);
+        List<CartDTO> lines = cartStateCache.items(buyerId);
+        if (lines == null) {
+            throw new IllegalArgumentException("Buyer does not exist");
+        }
+        Map<String, CartDTO> lineByProduct = new HashMap<>();
+        LinkedHashMap<String, Integer> current = new LinkedHashMap<>();
+        for (CartDTO line : lines) {
+            lineByProduct.put(line.getProduct().getId(), line);
+            current.put(line.getProduct().getId(), line.getQuantity());
         }
+        Map<String, Product> products = new HashMap<>();
+        List<String> addedIds = new ArrayList<>(CartBatch.addedProductIds(steps));
+        if (!addedIds.isEmpty()) {
+            for (Product product : productRepository.findAllById(addedIds)) {
+                products.put(product.getId(), product);
+            }
+        }
+        LinkedHashMap<String, Integer> result = CartBatch.apply(current, steps, products.keySet());
 
-        Cart cart = cartRepository.findByBuyerIdAndProductId(buyerId, productId);
-        if (cart == null) {
-            throw new IllegalArgumentException("Cart item does not exist for this buyer and product");
+        // Ordered, so a remove followed by an add of the same product runs in that order
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Cart.class);
+        Buyer buyer = new Buyer();
+        buyer.setId(buyerId);
+        Map<String, String> newLineIds = new HashMap<>();
+        // Read from "carts" for the same reason as in addToCart
+        Set<Integer> taken = new HashSet<>(cartRepository.findTakenSlots(buyerId));
+        Map<String, Integer> slots = new HashMap<>();
+        for (CartDTO line : lines) {
+            if (line.getSlot() != null) {
+                slots.put(line.getProduct().getId(), line.getSlot());
+            }
+        }
+        for (CartBatch.Step step : steps) {
+            Query line = new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)).and("product.$id")
+                    .is(MongoIds.of(step.productId())));
+            switch (step.op()) {
+                case ADD -> {
+                    int slot = freeSlot(taken);
+                    if (slot < 0) {
+                        throw new IllegalArgumentException("Cart limit exceeded");
+                    }
+                    taken.add(slot);
+                    slots.put(step.productId(), slot);
+                    Cart cart = new Cart();
+                    cart.setCid(new ObjectId().toHexString());
+                    cart.setSlot(slot);
+                    cart.setBuyer(buyer);
+                    cart.setProduct(products.get(step.productId()));
+                    cart.setQuantity(step.quantity());
+                    bulk.insert(cart);
+                    newLineIds.put(step.productId(), cart.getCid());
+                }
+                case UPDATE -> bulk.updateOne(line, new Update().set("quantity", step.quantity()));
+                case REMOVE -> {
+                    Integer freed = slots.remove(step.productId());
+                    if (freed != null) {
+                        taken.remove(freed);
+                    }
+                    bulk.remove(line);
+                }
+            }
+        }
+        boolean conflict = false;
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            // A concurrent add took a slot or the product. No transaction: the steps before the
+            // failing one stay applied, so the client gets the cart as it now is.
+            conflict = true;
+        } finally {
+            cartStateCache.invalidate(buyerId);
+        }
+        if (conflict) {
+            throw new CartConflictException("Cart changed concurrently, batch partly applied",
+                    cartStateCache.items(buyerId));
         }
 
-        cart.setQuantity(quantity);
-        return cartRepository.save(cart);
+        List<CartDTO> cartDTOs = new ArrayList<>(result.size());
+        result.forEach((productId, quantity) -> {
+            CartDTO cartDTO = newLineIds.containsKey(productId)
+                    ? toCartDTO(newLineIds.get(productId), products.get(productId))
+                    : lineByProduct.get(productId);
+            cartDTO.setQuantity(quantity);
+            cartDTOs.add(cartDTO);
+        });
+        return cartDTOs;
     }
 
     @Override
-    public long getCartCountByBuyerId(String buyerId) {
-        Optional<Buyer> buyerOpt = buyerRepository.findById(buyerId);
-        if (!buyerOpt.isPresent()) {
-            throw new IllegalArgumentException("Buyer does not exist");
+    public void flushCart(String buyerId) {
+        // Also drops the cached lines so checkout prices the cart from current products
+        cartStateCache.invalidate(buyerId);
+    }
+
+    @Override
+    public Map<String, Object> getCartCacheStats() {
+        return cartStateCache.stats();
+    }
+
+    // Lowest of the MAX_ITEMS slots not in use, or -1 when the cart is full
+    private static int freeSlot(Collection<Integer> taken) {
+        for (int slot = 0; slot < MAX_ITEMS; slot++) {
+            if (!taken.contains(slot)) {
+                return slot;
+            }
         }
-        return cartRepository.countByBuyerId(buyerId);
+        return -1;
+    }
+
+    private static CartDTO toCartDTO(String cartId, Product product) {
+        ProductDTO pdto = new ProductDTO();
+        pdto.setId(product.getId());
+        pdto.setName(product.getName());
+        pdto.setCategory(product.getCategory());
+        pdto.setDescription(product.getDescription());
+        pdto.setCost(product.getCost());
+        String imageUrl = product.getImageUrl();
+        pdto.setImageUrl(imageUrl == null || imageUrl.trim().isEmpty() ? ProductImages.PLACEHOLDER_URL : imageUrl);
+        pdto.setSeller_id(product.getSeller() != null ? product.getSeller().getId() : null);
+        CartDTO cartDTO = new CartDTO();
+        cartDTO.setId(cartId);
+        cartDTO.setProduct(pdto);
+        return cartDTO;
+    }
+
+    // CartController maps the Cart entity; rebuild one from the cached line
+    private static Cart toCart(String buyerId, CartDTO line) {
+        Product product = new Product();
+        product.setId(line.getProduct().getId());
+        product.setName(line.getProduct().getName());
+        product.setCategory(line.getProduct().getCategory());
+        product.setDescription(line.getProduct().getDescription());
+        product.setCost(line.getProduct().getCost());
+        product.setImageUrl(line.getProduct().getImageUrl());
+        if (line.getProduct().getSeller_id() != null) {
+            Seller seller = new Seller();
+            seller.setId(line.getProduct().getSeller_id());
+            product.setSeller(seller);
+        }
+        Buyer buyer = new Buyer();
+        buyer.setId(buyerId);
+
+        Cart cart = new Cart();
+        cart.setCid(line.getId());
+        cart.setQuantity(line.getQuantity());
+        cart.setProduct(product);
+        cart.setBuyer(buyer);
+        return cart;
     }
 }
\ No newline at end of file
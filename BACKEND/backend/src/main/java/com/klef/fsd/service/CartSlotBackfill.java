@@ -0,0 +1,216 @@
+package com.klef.fsd.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.util.MongoIds;
+
+/**
+ * Gets "carts" ready for its unique indexes (cart.model=lines); IndexAdvisor runs it
+ * before building them. Per buyer it drops lines whose product is gone and second
+ * lines for the same product, and gives lines created before slots existed a free
+ * slot. Only buyers that need it are read: those with a line without a slot or with
+ * a dangling product, and every buyer while buyer_product or buyer_slot is missing,
+ * since duplicates can only exist then. Lines beyond MAX_ITEMS are kept without a
+ * slot; they still count against the limit, so the buyer can only remove lines.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.model", havingValue = "lines", matchIfMissing = true)
+public class CartSlotBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(CartSlotBackfill.class);
+
+    private static final String COLLECTION = "carts";
+
+    // Name and keys of the unique indexes that enforce one line per product and the cart limit
+    private static final Map<String, List<String>> UNIQUE_INDEXES = Map.of(
+            "buyer_product", List.of("buyer.$id", "product.$id"),
+            "buyer_slot", List.of("buyer.$id", "slot"));
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    record Plan(List<Object> remove, Map<Object, Integer> slots, List<Object> unslot) {
+
+        boolean isEmpty() {
+            return remove.isEmpty() && slots.isEmpty() && unslot.isEmpty();
+        }
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        Set<String> buyerIds = new LinkedHashSet<>();
+        Query needing = missingUniqueIndexes().isEmpty() ? new Query(Criteria.where("slot").exists(false)) : new Query();
+        needing.fields().include("buyer");
+        mongoTemplate.executeQuery(needing, COLLECTION, document -> buyerIds.add(MongoIds.refId(document.get("buyer"))));
+        buyerIds.addAll(buyersWithDanglingLines());
+        buyerIds.remove(null);
+
+        int removed = 0;
+        int slotted = 0;
+        int surplus = 0;
+        for (String buyerId : buyerIds) {
+            for (int attempt = 1; ; attempt++) {
+                Plan plan = plan(lines(buyerId), liveProducts(buyerId));
+                try {
+                    apply(plan);
+                } catch (BulkOperationException e) {
+                    // A concurrent add took one of the slots picked; read the buyer again
+                    if (attempt == 3) {
+                        throw e;
+                    }
+                    continue;
+                }
+                removed += plan.remove().size();
+                slotted += plan.slots().size();
+                surplus += plan.unslot().size();
+                break;
+            }
+        }
+        if (!buyerIds.isEmpty()) {
+            logger.info("Cart slot backfill: {} buyers, {} lines slotted, {} removed, {} over the limit in {} ms",
+                    buyerIds.size(), slotted, removed, surplus, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Names of the unique cart indexes not in place, under their own name or with the same keys.
+     */
+    public List<String> missingUniqueIndexes() {
+        List<IndexInfo> indexes = mongoTemplate.indexOps(COLLECTION).getIndexInfo();
+        List<String> missing = new ArrayList<>();
+        UNIQUE_INDEXES.forEach((name, keys) -> {
+            boolean present = indexes.stream().anyMatch(info -> info.isUnique()
+                    && (info.getName().equals(name) || info.getIndexFields().stream().map(IndexField::getKey)
+                            .toList().equals(keys)));
+            if (!present) {
+                missing.add(name);
+            }
+        });
+        missing.sort(null);
+        return missing;
+    }
+
+    // Lines in creation order: the oldest line for a product wins, and a line keeps a slot no older line holds
+    static Plan plan(List<Document> lines, Set<String> liveProducts) {
+        List<Object> remove = new ArrayList<>();
+        Set<String> seenProducts = new HashSet<>();
+        Set<Integer> taken = new HashSet<>();
+        List<Document> unslotted = new ArrayList<>();
+        for (Document line : lines) {
+            String productId = MongoIds.refId(line.get("product"));
+            if (productId == null || !liveProducts.contains(productId) || !seenProducts.add(productId)) {
+                remove.add(line.get("_id"));
+                continue;
+            }
+            Object slot = line.get("slot");
+            if (slot instanceof Number number && number.intValue() >= 0 && number.intValue() < CartService.MAX_ITEMS
+                    && taken.add(number.intValue())) {
+                continue;
+            }
+            unslotted.add(line);
+        }
+
+        Map<Object, Integer> slots = new LinkedHashMap<>();
+        List<Object> unslot = new ArrayList<>();
+        int next = 0;
+        for (Document line : unslotted) {
+            while (next < CartService.MAX_ITEMS && taken.contains(next)) {
+                next++;
+            }
+            if (next < CartService.MAX_ITEMS) {
+                taken.add(next);
+                slots.put(line.get("_id"), next);
+            } else if (line.containsKey("slot")) {
+                // A duplicate or out-of-range slot on a line past the limit
+                unslot.add(line.get("_id"));
+            }
+        }
+        return new Plan(remove, slots, unslot);
+    }
+
+    private List<Document> lines(String buyerId) {
+        Query query = new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId))).with(Sort.by("_id"));
+        query.fields().include("product", "slot");
+        return mongoTemplate.find(query, Document.class, COLLECTION);
+    }
+
+    private Set<String> liveProducts(String buyerId) {
+        Set<Object> productIds = new HashSet<>();
+        Query lines = new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)));
+        lines.fields().include("product");
+        mongoTemplate.executeQuery(lines, COLLECTION, document -> {
+            String productId = MongoIds.refId(document.get("product"));
+            if (productId != null) {
+                productIds.add(MongoIds.of(productId));
+            }
+        });
+        Set<String> live = new HashSet<>();
+        if (!productIds.isEmpty()) {
+            Query products = new Query(Criteria.where("_id").in(productIds));
+            products.fields().include("_id");
+            mongoTemplate.executeQuery(products, "products", document -> live.add(document.get("_id").toString()));
+        }
+        return live;
+    }
+
+    private void apply(Plan plan) {
+        if (plan.isEmpty()) {
+            return;
+        }
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+        if (!plan.remove().isEmpty()) {
+            operations.remove(new Query(Criteria.where("_id").in(plan.remove())));
+        }
+        plan.slots().forEach((id, slot) -> operations.updateOne(new Query(Criteria.where("_id").is(id)),
+                new Update().set("slot", slot)));
+        for (Object id : plan.unslot()) {
+            operations.updateOne(new Query(Criteria.where("_id").is(id)), new Update().unset("slot"));
+        }
+        operations.execute();
+    }
+
+    // Lines left behind by products deleted before deletes cleaned up carts
+    private Set<String> buyersWithDanglingLines() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                // Same workaround as findCartItems: $lookup cannot name product.$id
+                stage(new Document("$addFields", new Document("productId", new Document("$arrayElemAt",
+                        List.of(new Document("$objectToArray", "$product"), 1))))),
+                stage(new Document("$lookup", new Document("from", "products").append("localField", "productId.v")
+                        .append("foreignField", "_id").append("as", "found"))),
+                stage(new Document("$match", new Document("found", new Document("$size", 0)))),
+                stage(new Document("$project", new Document("buyer", 1))));
+        Set<String> buyerIds = new HashSet<>();
+        for (Document document : mongoTemplate.aggregate(aggregation, COLLECTION, Document.class)) {
+            buyerIds.add(MongoIds.refId(document.get("buyer")));
+        }
+        return buyerIds;
+    }
+
+    private static AggregationOperation stage(Document stage) {
+        return context -> stage;
+    }
+}
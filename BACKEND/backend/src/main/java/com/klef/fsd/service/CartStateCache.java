@@ -0,0 +1,563 @@
+package com.klef.fsd.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.CartRepository;
+import com.klef.fsd.util.MongoIds;
+import com.klef.fsd.util.ProductImages;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-memory cart state per buyer for the "carts" line model. Cart reads and counts
+ * are answered from memory after the first load. Quantity changes go to Mongo
+ * immediately (cart.write-mode=write-through, the default) or are buffered and
+ * flushed in unordered bulk writes every cart.write-behind.flush-interval-ms
+ * (write-behind). Other cart writes flush and drop the buyer's state afterwards,
+ * and a state older than cart.cache.ttl-seconds is reloaded (keeping buffered
+ * quantities) so product changes show up in carts.
+ *
+ * Buyers are spread over a fixed set of lock stripes, held only while memory is
+ * touched, never across a Mongo read or write. Each stripe counts the writes that
+ * reached it: a state read from Mongo is only cached if the count did not move
+ * during the read, and a write-through quantity is only copied into the cached
+ * line if no other write overlapped it (otherwise the state is dropped). A buyer has at most one flight of buffered
+ * writes on its way to Mongo; flush and invalidate wait for a running flight
+ * before sending their own, so an older quantity never lands after a newer one.
+ * Buffered writes are kept apart from the cached lines, so evicting or dropping a
+ * state never loses them, and a failed write is put back unless a newer value was
+ * buffered meanwhile.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.model", havingValue = "lines", matchIfMissing = true)
+public class CartStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CartStateCache.class);
+
+    private static final int STRIPES = 64;
+
+    private static final int SHUTDOWN_ATTEMPTS = 5;
+    private static final long SHUTDOWN_BACKOFF_MILLIS = 200;
+    private static final long SHUTDOWN_FLIGHT_WAIT_SECONDS = 10;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private BuyerRepository buyerRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final Map<String, CartState> states = new ConcurrentHashMap<>();
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>(); // buyers with buffered writes
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>(); // writes being sent, one per buyer
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final long[] versions = new long[STRIPES]; // writes per stripe, guarded by the stripe lock
+    private final boolean writeBehind;
+    private final int batchSize;
+    private final long idleMillis;
+    private final long ttlMillis;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long lastFlushLagMillis;
+    private volatile long maxFlushLagMillis;
+
+    public CartStateCache(@Value("${cart.write-mode:write-through}") String writeMode,
+            @Value("${cart.write-behind.batch-size:500}") int batchSize,
+            @Value("${cart.cache.idle-minutes:30}") long idleMinutes,
+            @Value("${cart.cache.ttl-seconds:60}") long ttlSeconds) {
+        if (!writeMode.equals("write-through") && !writeMode.equals("write-behind")) {
+            throw new IllegalArgumentException("cart.write-mode must be write-through or write-behind");
+        }
+        this.writeBehind = writeMode.equals("write-behind");
+        this.batchSize = batchSize;
+        this.idleMillis = TimeUnit.MINUTES.toMillis(idleMinutes);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * The buyer's cart lines, or null when the buyer does not exist.
+     */
+    public List<CartDTO> items(String buyerId) {
+        return withState(buyerId, state -> {
+            if (state == null) {
+                return null;
+            }
+            List<CartDTO> copies = new ArrayList<>(state.items.size());
+            for (CartDTO item : state.items.values()) {
+                copies.add(copy(item));
+            }
+            return copies;
+        });
+    }
+
+    /**
+     * Number of lines, or -1 when the buyer does not exist.
+     */
+    public long count(String buyerId) {
+        return withState(buyerId, state -> state != null ? state.items.size() : -1L);
+    }
+
+    public CartDTO updateQuantity(String buyerId, String productId, int quantity) {
+        CartDTO line = withState(buyerId, state -> {
+            if (state == null) {
+                throw new IllegalArgumentException("Buyer does not exist");
+            }
+            CartDTO item = state.items.get(productId);
+            if (item == null) {
+                throw new IllegalArgumentException("Cart item does not exist for this buyer and product");
+            }
+            if (writeBehind) {
+                pending.computeIfAbsent(buyerId, id -> new Pending(System.currentTimeMillis())).quantities
+                        .put(productId, quantity);
+                item.setQuantity(quantity);
+            }
+            return copy(item);
+        });
+        if (!writeBehind) {
+            writeThrough(buyerId, productId, quantity);
+        }
+        line.setQuantity(quantity);
+        return line;
+    }
+
+    /**
+     * Writes the buyer's buffered changes now, keeping the cached lines. Waits for
+     * a flush of the buyer already running; failed writes stay buffered.
+     */
+    public void flush(String buyerId) {
+        Flight flight = takeOff(buyerId, true);
+        if (flight == null) {
+            return;
+        }
+        List<Write> writes = flight.writes(buyerId);
+        try {
+            apply(writes);
+        } catch (RuntimeException e) {
+            requeue(writes);
+            throw e;
+        } finally {
+            land(buyerId, flight);
+        }
+    }
+
+    /**
+     * Writes the buyer's buffered changes and forgets the state; called after any
+     * other cart write for the buyer, and by checkout so Mongo matches what is paid for.
+     */
+    public void invalidate(String buyerId) {
+        try {
+            flush(buyerId);
+        } finally {
+            int stripe = stripeIndex(buyerId);
+            ReentrantLock lock = stripes[stripe];
+            lock.lock();
+            try {
+                states.remove(buyerId);
+                versions[stripe]++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cart.write-behind.flush-interval-ms:1000}")
+    public void flushAll() {
+        long now = System.currentTimeMillis();
+        Map<String, Flight> departing = new LinkedHashMap<>();
+        List<Write> writes = new ArrayList<>();
+        long lag = 0;
+        // Buyers already being flushed stay buffered for the next round
+        for (String buyerId : new ArrayList<>(pending.keySet())) {
+            Flight flight = takeOff(buyerId, false);
+            if (flight != null) {
+                departing.put(buyerId, flight);
+                writes.addAll(flight.writes(buyerId));
+                lag = Math.max(lag, now - flight.dirtySince);
+            }
+        }
+        try {
+            for (int start = 0; start < writes.size(); start += batchSize) {
+                List<Write> batch = writes.subList(start, Math.min(start + batchSize, writes.size()));
+                try {
+                    apply(batch);
+                } catch (RuntimeException e) {
+                    // Later batches still go out; this one is retried on the next round
+                    requeue(batch);
+                    logger.warn("Cart flush of {} writes failed: {}", batch.size(), e.getMessage());
+                }
+            }
+        } finally {
+            departing.forEach(this::land);
+        }
+        if (!writes.isEmpty()) {
+            lastFlushLagMillis = lag;
+            maxFlushLagMillis = Math.max(maxFlushLagMillis, lag);
+        }
+        evictIdle(now);
+    }
+
+    // flushAll leaves failed writes and buyers with a flight in the air for the next round, and
+    // there is none after this: wait for those flights, retry with backoff, and log what is lost
+    @PreDestroy
+    public void shutdown() {
+        for (int attempt = 1; attempt <= SHUTDOWN_ATTEMPTS; attempt++) {
+            for (Flight flight : new ArrayList<>(flights.values())) {
+                try {
+                    flight.landed.get(SHUTDOWN_FLIGHT_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.warn("Cart flush still running at shutdown: {}", e.getMessage());
+                }
+            }
+            flushAll();
+            if (pending.isEmpty() && flights.isEmpty()) {
+                return;
+            }
+            if (attempt < SHUTDOWN_ATTEMPTS) {
+                try {
+                    Thread.sleep(SHUTDOWN_BACKOFF_MILLIS << (attempt - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        List<Write> lost = new ArrayList<>();
+        pending.forEach((buyerId, queued) -> queued.quantities
+                .forEach((productId, quantity) -> lost.add(new Write(buyerId, productId, quantity))));
+        flights.forEach((buyerId, flight) -> lost.addAll(flight.writes(buyerId)));
+        if (!lost.isEmpty()) {
+            logger.error("Cart writes not flushed at shutdown ({}): {}", lost.size(), lost);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long pending = 0;
+        long oldest = 0;
+        long now = System.currentTimeMillis();
+        for (Pending queued : this.pending.values()) {
+            pending += queued.quantities.size();
+            oldest = Math.max(oldest, now - queued.dirtySince);
+        }
+        for (Flight flight : flights.values()) {
+            pending += flight.quantities.size();
+            oldest = Math.max(oldest, now - flight.dirtySince);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("writeMode", writeBehind ? "write-behind" : "write-through");
+        stats.put("cachedBuyers", states.size());
+        stats.put("pendingWrites", pending);
+        stats.put("oldestPendingMillis", oldest);
+        stats.put("flushes", flushes.get());
+        stats.put("flushedWrites", flushedWrites.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("lastFlushLagMillis", lastFlushLagMillis);
+        stats.put("maxFlushLagMillis", maxFlushLagMillis);
+        return stats;
+    }
+
+    private record Write(String buyerId, String productId, int quantity) {
+    }
+
+    private static final class CartState {
+        final Map<String, CartDTO> items = new LinkedHashMap<>(); // by product id, in cart order
+        long loadedAt;
+        long lastAccess;
+    }
+
+    private static final class Pending {
+        final Map<String, Integer> quantities = new HashMap<>(); // product id -> quantity not yet in Mongo
+        final long dirtySince;
+
+        Pending(long dirtySince) {
+            this.dirtySince = dirtySince;
+        }
+    }
+
+    private static final class Flight {
+        final Map<String, Integer> quantities;
+        final long dirtySince;
+        final CompletableFuture<Void> landed = new CompletableFuture<>();
+
+        Flight(Pending pending) {
+            this.quantities = pending.quantities;
+            this.dirtySince = pending.dirtySince;
+        }
+
+        List<Write> writes(String buyerId) {
+            List<Write> writes = new ArrayList<>(quantities.size());
+            quantities.forEach((productId, quantity) -> writes.add(new Write(buyerId, productId, quantity)));
+            return writes;
+        }
+    }
+
+    // Runs the action under the stripe lock on the buyer's state, or on null when the buyer does not
+    // exist. A missing or expired state is read without the lock; if a write reached the stripe during
+    // the read it is read again, and after three tries the last read answers without being cached.
+    private <T> T withState(String buyerId, Function<CartState, T> action) {
+        int stripe = stripeIndex(buyerId);
+        ReentrantLock lock = stripes[stripe];
+        for (int attempt = 1; ; attempt++) {
+            boolean cached;
+            long version;
+            lock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                CartState state = states.get(buyerId);
+                if (state != null && now - state.loadedAt <= ttlMillis) {
+                    state.lastAccess = now;
+                    return action.apply(state);
+                }
+                cached = state != null;
+                version = versions[stripe];
+            } finally {
+                lock.unlock();
+            }
+
+            List<CartDTO> items = cartRepository.findCartItems(buyerId);
+            boolean exists = cached || !items.isEmpty() || buyerRepository.existsById(buyerId);
+
+            lock.lock();
+            try {
+                if (!exists) {
+                    return action.apply(null);
+                }
+                CartState state = load(buyerId, items);
+                if (versions[stripe] == version) {
+                    states.put(buyerId, state);
+                    return action.apply(state);
+                }
+                if (attempt == 3) {
+                    return action.apply(state);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Caller holds the stripe lock; buffered quantities win over what Mongo returned
+    private CartState load(String buyerId, List<CartDTO> items) {
+        long now = System.currentTimeMillis();
+        CartState state = new CartState();
+        for (CartDTO item : items) {
+            String imageUrl = item.getProduct().getImageUrl();
+            if (imageUrl == null || imageUrl.trim().isEmpty()) {
+                item.getProduct().setImageUrl(ProductImages.PLACEHOLDER_URL);
+            }
+            Integer unwritten = unwritten(buyerId, item.getProduct().getId());
+            if (unwritten != null) {
+                item.setQuantity(unwritten);
+            }
+            state.items.put(item.getProduct().getId(), item);
+        }
+        state.loadedAt = now;
+        state.lastAccess = now;
+        return state;
+    }
+
+    // Sent without the stripe lock. A read that raced the write is never cached, and a second write
+    // to the stripe in the meantime makes the cached order unknowable, so the state is dropped.
+    private void writeThrough(String buyerId, String productId, int quantity) {
+        int stripe = stripeIndex(buyerId);
+        ReentrantLock lock = stripes[stripe];
+        long started;
+        lock.lock();
+        try {
+            started = ++versions[stripe];
+        } finally {
+            lock.unlock();
+        }
+        boolean written = false;
+        try {
+            mongoTemplate.updateFirst(line(buyerId, productId), new Update().set("quantity", quantity), Cart.class);
+            written = true;
+        } finally {
+            lock.lock();
+            try {
+                CartState state = states.get(buyerId);
+                CartDTO item = state != null ? state.items.get(productId) : null;
+                if (written && item != null && versions[stripe] == started) {
+                    item.setQuantity(quantity);
+                } else {
+                    states.remove(buyerId);
+                }
+                versions[stripe]++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Caller holds the stripe lock; the newest quantity not yet known to be in Mongo
+    private Integer unwritten(String buyerId, String productId) {
+        Pending queued = pending.get(buyerId);
+        Integer quantity = queued != null ? queued.quantities.get(productId) : null;
+        if (quantity == null) {
+            Flight flight = flights.get(buyerId);
+            quantity = flight != null ? flight.quantities.get(productId) : null;
+        }
+        return quantity;
+    }
+
+    // Moves the buyer's buffered writes into a new flight; null if there are none, or if a
+    // flight is already running and wait is false
+    private Flight takeOff(String buyerId, boolean wait) {
+        while (true) {
+            Flight running;
+            ReentrantLock lock = stripe(buyerId);
+            lock.lock();
+            try {
+                running = flights.get(buyerId);
+                if (running == null) {
+                    Pending queued = pending.remove(buyerId);
+                    if (queued == null) {
+                        return null;
+                    }
+                    Flight flight = new Flight(queued);
+                    flights.put(buyerId, flight);
+                    return flight;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!wait) {
+                return null;
+            }
+            running.landed.join();
+        }
+    }
+
+    private void land(String buyerId, Flight flight) {
+        int stripe = stripeIndex(buyerId);
+        ReentrantLock lock = stripes[stripe];
+        lock.lock();
+        try {
+            // A read from before the writes landed would no longer see their quantities
+            flights.remove(buyerId, flight);
+            versions[stripe]++;
+        } finally {
+            lock.unlock();
+        }
+        flight.landed.complete(null);
+    }
+
+    private void apply(List<Write> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class);
+        for (Write write : writes) {
+            operations.updateOne(line(write.buyerId(), write.productId()),
+                    new Update().set("quantity", write.quantity()));
+        }
+        try {
+            operations.execute();
+            flushes.incrementAndGet();
+            flushedWrites.addAndGet(writes.size());
+        } catch (RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // Puts failed writes back unless a newer value was buffered meanwhile; the state may be gone
+    private void requeue(List<Write> writes) {
+        long now = System.currentTimeMillis();
+        for (Write write : writes) {
+            ReentrantLock lock = stripe(write.buyerId());
+            lock.lock();
+            try {
+                pending.computeIfAbsent(write.buyerId(), id -> new Pending(now)).quantities
+                        .putIfAbsent(write.productId(), write.quantity());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Map.Entry<String, CartState>> entries = states.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, CartState> entry = entries.next();
+            ReentrantLock lock = stripe(entry.getKey());
+            lock.lock();
+            try {
+                // Safe to drop: buffered writes are kept outside the state
+                if (now - entry.getValue().lastAccess > idleMillis) {
+                    entries.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private ReentrantLock stripe(String buyerId) {
+        return stripes[stripeIndex(buyerId)];
+    }
+
+    private static int stripeIndex(String buyerId) {
+        return Math.floorMod(buyerId.hashCode(), STRIPES);
+    }
+
+    private static Query line(String buyerId, String productId) {
+        return new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)).and("product.$id")
+                .is(MongoIds.of(productId)));
+    }
+
+    private static CartDTO copy(CartDTO item) {
+        ProductDTO product = new ProductDTO();
+        ProductDTO source = item.getProduct();
+        product.setId(source.getId());
+        product.setName(source.getName());
+        product.setCategory(source.getCategory());
+        product.setDescription(source.getDescription());
+        product.setCost(source.getCost());
+        product.setImageUrl(source.getImageUrl());
+        product.setSeller_id(source.getSeller_id());
+        CartDTO copy = new CartDTO();
+        copy.setId(item.getId());
+        copy.setQuantity(item.getQuantity());
+        copy.setSlot(item.getSlot());
+        copy.setProduct(product);
+        return copy;
+    }
+}
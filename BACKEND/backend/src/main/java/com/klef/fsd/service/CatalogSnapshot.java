@@ -0,0 +1,122 @@
+package com.klef.fsd.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.util.ProductImages;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * The full viewallproducts response, serialised once and kept as immutable
+ * identity and gzip byte arrays. Rebuilt in the background, debounced, after
+ * catalog writes. A snapshot is only valid for the catalog version it was built
+ * from; callers compare {@link Snapshot#version()} with {@link CatalogVersion#current()}
+ * and fall back to the live path while a rebuild is pending. A failed rebuild is
+ * retried with exponential backoff, so a Mongo outage does not leave the live path
+ * serving every request until the next catalog write.
+ */
+@Component
+public class CatalogSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSnapshot.class);
+
+    public record Snapshot(long version, byte[] identity, byte[] gzip) {
+    }
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long debounceMillis;
+    private final long retryInitialMillis;
+    private final long retryMaxMillis;
+    private int failures; // only touched on the executor thread
+
+    private volatile Snapshot current;
+
+    public CatalogSnapshot(@Value("${catalog.snapshot.debounce-ms:250}") long debounceMillis,
+            @Value("${catalog.snapshot.retry-initial-ms:1000}") long retryInitialMillis,
+            @Value("${catalog.snapshot.retry-max-ms:60000}") long retryMaxMillis) {
+        this.debounceMillis = debounceMillis;
+        this.retryInitialMillis = retryInitialMillis;
+        this.retryMaxMillis = retryMaxMillis;
+    }
+
+    public Snapshot current() {
+        return current;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleRebuild() {
+        // A burst of writes collapses into one rebuild
+        if (rebuildPending.compareAndSet(false, true)) {
+            executor.schedule(this::rebuild, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void rebuild() {
+        rebuildPending.set(false);
+        try {
+            // Read the version before the data: a write racing the build leaves the snapshot stale, never wrong
+            long version = catalogVersion.current();
+            List<ProductDTO> products = productRepository.findSummaries(null, null, 0);
+            ProductImages.applyFallback(products);
+            byte[] identity = objectMapper.writeValueAsBytes(products);
+            current = new Snapshot(version, identity, gzip(identity));
+            failures = 0;
+            logger.info("Catalog snapshot built: {} products, {} bytes ({} gzipped)", products.size(),
+                    identity.length, current.gzip().length);
+        } catch (Exception e) {
+            failures++;
+            long backoff = Math.min(retryMaxMillis, retryInitialMillis << Math.min(failures - 1, 20));
+            logger.warn("Catalog snapshot rebuild failed (attempt {}), retrying in {} ms: {}", failures, backoff,
+                    e.getMessage());
+            // A write in the meantime has already scheduled the next attempt
+            if (rebuildPending.compareAndSet(false, true)) {
+                executor.schedule(this::rebuild, backoff, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,36 @@
+package com.klef.fsd.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Monotonic version of the product catalog, bumped on every product write and
+ * used as the validator for conditional GETs on catalog endpoints. Seeded with
+ * the startup time so a restart never reissues an ETag from before it.
+ * The version is per instance: behind several instances clients just revalidate more often.
+ */
+@Component
+public class CatalogVersion {
+
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    private volatile long lastModified = System.currentTimeMillis();
+
+    public long bump() {
+        lastModified = System.currentTimeMillis();
+        return version.incrementAndGet();
+    }
+
+    public long current() {
+        return version.get();
+    }
+
+    // Strong ETag: the catalog representation is byte-identical for a given version
+    public String etag() {
+        return "\"catalog-" + version.get() + "\"";
+    }
+
+    public long lastModified() {
+        return lastModified;
+    }
+}
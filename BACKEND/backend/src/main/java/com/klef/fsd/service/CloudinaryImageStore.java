@@ -0,0 +1,50 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+@Service
+@ConditionalOnProperty(name = "image.store", havingValue = "cloudinary", matchIfMissing = true)
+public class CloudinaryImageStore implements ImageStore {
+
+    private static final String FOLDER = "llcart/products";
+
+    @Autowired
+    private CloudinaryService cloudinaryService;
+
+    @Override
+    public StoredImage store(Path file) throws IOException {
+        return toStoredImage(cloudinaryService.uploadImage(file.toFile(), FOLDER));
+    }
+
+    @Override
+    public StoredImage storeFromUrl(String url) throws IOException {
+        // Cloudinary fetches remote images itself
+        return toStoredImage(cloudinaryService.uploadImage(url, FOLDER));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        cloudinaryService.deleteImage(key);
+    }
+
+    @Override
+    public Optional<Path> file(String key) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Path> resolve(String imageUrl) {
+        return Optional.empty();
+    }
+
+    private static StoredImage toStoredImage(Map<String, Object> result) {
+        return new StoredImage((String) result.get("secure_url"), (String) result.get("public_id"));
+    }
+}
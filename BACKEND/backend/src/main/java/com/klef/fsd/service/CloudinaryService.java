@@ -3,6 +3,7 @@ package com.klef.fsd.service;
 import com.cloudinary.Cloudinary;
 import com.cloudinary.utils.ObjectUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -10,6 +11,7 @@ import java.io.IOException;
 import java.util.Map;
 
 @Service
+@ConditionalOnProperty(name = "image.store", havingValue = "cloudinary", matchIfMissing = true)
 public class CloudinaryService {
 
     @Autowired
@@ -24,6 +26,16 @@ public class CloudinaryService {
             ));
     }
 
+    // source is a File or a remote URL that Cloudinary fetches itself; nothing is buffered in heap
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> uploadImage(Object source, String folder) throws IOException {
+        return cloudinary.uploader().upload(source,
+            ObjectUtils.asMap(
+                "folder", folder,
+                "resource_type", "auto"
+            ));
+    }
+
     public void deleteImage(String publicId) throws IOException {
         cloudinary.uploader().destroy(publicId, ObjectUtils.emptyMap());
     }
@@ -0,0 +1,401 @@
+package com.klef.fsd.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CartOperationDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.BuyerCart;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.model.CartItem;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.util.MongoIds;
+import com.klef.fsd.util.ProductImages;
+
+/**
+ * Cart stored as one BuyerCart document per buyer (cart.model=embedded). Every
+ * mutation is a single conditional update on that document, so the duplicate and
+ * size checks are part of the write and concurrent adds cannot exceed the limit.
+ * Extra round trips only happen on error paths, to tell which condition failed,
+ * for a buyer's first add, and for counts, which leave out lines of deleted
+ * products as reads do. Such lines are pulled as soon as they are seen.
+ */
+@Service
+@ConditionalOnProperty(name = "cart.model", havingValue = "embedded")
+public class EmbeddedCartServiceImpl implements CartService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BuyerRepository buyerRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CartMigration cartMigration;
+
+    @Override
+    public Cart addToCart(Cart cart) {
+        if (cart == null || cart.getProduct() == null || cart.getBuyer() == null) {
+            throw new IllegalArgumentException("Cart, product, or buyer cannot be null");
+        }
+        Product product = productService.getProductById(cart.getProduct().getId());
+        if (product == null) {
+            throw new IllegalArgumentException("Product does not exist");
+        }
+        String buyerId = cart.getBuyer().getId();
+        cartMigration.migrateBuyer(buyerId);
+
+        CartItem item = snapshot(product, cart.getQuantity());
+        // No line for this product yet and fewer than MAX_ITEMS lines: items.(MAX_ITEMS - 1) must not exist
+        Query query = byBuyer(buyerId).addCriteria(Criteria.where("items.productId").ne(product.getId())
+                .and("items." + (MAX_ITEMS - 1)).exists(false));
+        Update push = new Update().push("items", item);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (mongoTemplate.updateFirst(query, push, BuyerCart.class).getMatchedCount() > 0) {
+                return toCart(buyerId, item);
+            }
+            BuyerCart existing = mongoTemplate.findOne(byBuyer(buyerId), BuyerCart.class);
+            if (existing != null) {
+                for (CartItem line : existing.getItems()) {
+                    if (product.getId().equals(line.getProductId())) {
+                        throw new IllegalArgumentException("Product already in cart");
+                    }
+                }
+                if (existing.getItems().size() >= MAX_ITEMS) {
+                    // Lines of deleted products count toward items.(MAX_ITEMS - 1); only a cart full of live ones is full
+                    List<String> lineProducts = new ArrayList<>();
+                    for (CartItem line : existing.getItems()) {
+                        lineProducts.add(line.getProductId());
+                    }
+                    if (pruneDeletedProducts(buyerId, lineProducts).size() >= MAX_ITEMS) {
+                        throw new IllegalArgumentException("Cart limit exceeded");
+                    }
+                }
+                continue; // changed between the two reads, or lines were pruned; try again
+            }
+            if (!buyerRepository.existsById(buyerId)) {
+                throw new IllegalArgumentException("Buyer does not exist");
+            }
+            BuyerCart created = new BuyerCart();
+            created.setBuyerId(buyerId);
+            created.getItems().add(item);
+            try {
+                mongoTemplate.insert(created);
+                return toCart(buyerId, item);
+            } catch (DuplicateKeyException e) {
+                // Another request created the cart first; its document now takes the conditional push
+            }
+        }
+        throw new CartConflictException("Cart changed concurrently, please retry", getCartItemsByBuyerId(buyerId));
+    }
+
+    @Override
+    public List<CartDTO> getCartItemsByBuyerId(String buyerId) {
+        cartMigration.migrateBuyer(buyerId);
+        BuyerCart cart = mongoTemplate.findOne(byBuyer(buyerId), BuyerCart.class);
+        if (cart == null) {
+            return buyerRepository.existsById(buyerId) ? new ArrayList<>() : null;
+        }
+        if (cart.getItems().isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Name, price and image are read fresh so checkout never sees a stale snapshot: one query for all lines
+        List<String> productIds = new ArrayList<>();
+        for (CartItem item : cart.getItems()) {
+            productIds.add(item.getProductId());
+        }
+        Map<String, Product> products = new HashMap<>();
+        for (Product product : productRepository.findAllById(productIds)) {
+            products.put(product.getId(), product);
+        }
+        List<CartDTO> cartDTOs = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (CartItem item : cart.getItems()) {
+            Product product = products.get(item.getProductId());
+            if (product == null) {
+                deleted.add(item.getProductId());
+                continue;
+            }
+            CartDTO cartDTO = new CartDTO();
+            cartDTO.setId(item.getId());
+            cartDTO.setQuantity(item.getQuantity());
+            cartDTO.setProduct(toProductDTO(snapshot(product, item.getQuantity())));
+            cartDTOs.add(cartDTO);
+        }
+        // Left behind by a delete that raced an add; they would still count toward the limit
+        pull(buyerId, deleted);
+        return cartDTOs;
+    }
+
+    @Override
+    public void removeCartItem(String cartId) {
+        Query query = new Query(Criteria.where("items.id").is(cartId));
+        Update pull = new Update().pull("items", new Document("id", cartId));
+        if (mongoTemplate.updateFirst(query, pull, BuyerCart.class).getModifiedCount() == 0) {
+            throw new IllegalArgumentException("Cart item does not exist");
+        }
+    }
+
+    @Override
+    public void clearCartByBuyerId(String buyerId) {
+        cartMigration.migrateBuyer(buyerId);
+        if (mongoTemplate.updateFirst(byBuyer(buyerId), new Update().set("items", List.of()), BuyerCart.class)
+                .getMatchedCount() == 0 && !buyerRepository.existsById(buyerId)) {
+            throw new IllegalArgumentException("Buyer does not exist");
+        }
+    }
+
+    @Override
+    public void removeProductsFromCart(String buyerId, Collection<String> productIds) {
+        cartMigration.migrateBuyer(buyerId);
+        pull(buyerId, productIds);
+    }
+
+    @Override
+    public void removeProductsFromAllCarts(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(productIds);
+        Update pull = new Update().pull("items", new Document("productId", new Document("$in", ids)));
+        mongoTemplate.updateMulti(new Query(Criteria.where("items.productId").in(ids)), pull, BuyerCart.class);
+    }
+
+    @Override
+    public Cart updateCartQuantity(String buyerId, String productId, int quantity) {
+        if (quantity < 1 || quantity > MAX_QUANTITY) {
+            throw new IllegalArgumentException("Quantity must be between 1 and 10");
+        }
+        cartMigration.migrateBuyer(buyerId);
+        Query query = byBuyer(buyerId).addCriteria(Criteria.where("items.productId").is(productId));
+        BuyerCart cart = mongoTemplate.findAndModify(query, new Update().set("items.$.quantity", quantity),
+                FindAndModifyOptions.options().returnNew(true), BuyerCart.class);
+        if (cart == null) {
+            throw new IllegalArgumentException("Cart item does not exist for this buyer and product");
+        }
+        for (CartItem item : cart.getItems()) {
+            if (productId.equals(item.getProductId())) {
+                return toCart(buyerId, item);
+            }
+        }
+        throw new IllegalArgumentException("Cart item does not exist for this buyer and product");
+    }
+
+    @Override
+    public long getCartCountByBuyerId(String buyerId) {
+        cartMigration.migrateBuyer(buyerId);
+        Query query = byBuyer(buyerId);
+        query.fields().include("items.productId");
+        BuyerCart cart = mongoTemplate.findOne(query, BuyerCart.class);
+        if (cart == null) {
+            if (!buyerRepository.existsById(buyerId)) {
+                throw new IllegalArgumentException("Buyer does not exist");
+            }
+            return 0;
+        }
+        if (cart.getItems().isEmpty()) {
+            return 0;
+        }
+        // Same lines as getCartItemsByBuyerId shows
+        List<String> productIds = new ArrayList<>();
+        for (CartItem item : cart.getItems()) {
+            productIds.add(item.getProductId());
+        }
+        return pruneDeletedProducts(buyerId, productIds).size();
+    }
+
+    @Override
+    public List<CartDTO> applyCartBatch(String buyerId, List<CartOperationDTO> operations) {
+        List<CartBatch.Step> steps = CartBatch.parse(operations);
+        cartMigration.migrateBuyer(buyerId);
+        BuyerCart cart = mongoTemplate.findOne(byBuyer(buyerId), BuyerCart.class);
+        if (cart == null && !buyerRepository.existsById(buyerId)) {
+            throw new IllegalArgumentException("Buyer does not exist");
+        }
+        List<CartItem> items = cart != null ? cart.getItems() : List.of();
+        Map<String, CartItem> itemByProduct = new HashMap<>();
+        LinkedHashMap<String, Integer> current = new LinkedHashMap<>();
+        List<String> itemIds = new ArrayList<>();
+        for (CartItem item : items) {
+            itemByProduct.put(item.getProductId(), item);
+            current.put(item.getProductId(), item.getQuantity());
+            itemIds.add(item.getId());
+        }
+        Set<String> addedIds = CartBatch.addedProductIds(steps);
+        Map<String, Product> products = new HashMap<>();
+        if (!addedIds.isEmpty()) {
+            for (Product product : productRepository.findAllById(addedIds)) {
+                products.put(product.getId(), product);
+            }
+        }
+        LinkedHashMap<String, Integer> result = CartBatch.apply(current, steps, products.keySet());
+
+        List<CartItem> next = new ArrayList<>(result.size());
+        result.forEach((productId, quantity) -> {
+            // An added product is a new line even if an earlier step removed the old one
+            CartItem item = addedIds.contains(productId) ? snapshot(products.get(productId), quantity)
+                    : itemByProduct.get(productId);
+            item.setQuantity(quantity);
+            next.add(item);
+        });
+
+        if (cart == null) {
+            BuyerCart created = new BuyerCart();
+            created.setBuyerId(buyerId);
+            created.setItems(next);
+            try {
+                mongoTemplate.insert(created);
+            } catch (DuplicateKeyException e) {
+                throw new CartConflictException("Cart changed concurrently, please retry",
+                        getCartItemsByBuyerId(buyerId));
+            }
+        } else {
+            // Same lines as when read: a concurrent add or remove makes this match nothing
+            Query unchanged = byBuyer(buyerId).addCriteria(Criteria.where("items").size(itemIds.size()));
+            if (!itemIds.isEmpty()) {
+                unchanged.addCriteria(Criteria.where("items.id").all(itemIds));
+            }
+            if (mongoTemplate.updateFirst(unchanged, new Update().set("items", next), BuyerCart.class)
+                    .getMatchedCount() == 0) {
+                throw new CartConflictException("Cart changed concurrently, please retry",
+                        getCartItemsByBuyerId(buyerId));
+            }
+        }
+
+        List<CartDTO> cartDTOs = new ArrayList<>(next.size());
+        for (CartItem item : next) {
+            CartDTO cartDTO = new CartDTO();
+            cartDTO.setId(item.getId());
+            cartDTO.setQuantity(item.getQuantity());
+            cartDTO.setProduct(toProductDTO(item));
+            cartDTOs.add(cartDTO);
+        }
+        return cartDTOs;
+    }
+
+    @Override
+    public void flushCart(String buyerId) {
+        // Every write above is already in Mongo
+    }
+
+    @Override
+    public Map<String, Object> getCartCacheStats() {
+        return Map.of("writeMode", "none");
+    }
+
+    // Pulls the lines whose product no longer exists; returns the products that do
+    private Set<String> pruneDeletedProducts(String buyerId, List<String> productIds) {
+        List<Object> ids = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            ids.add(MongoIds.of(productId));
+        }
+        Query query = new Query(Criteria.where("_id").in(ids));
+        query.fields().include("_id");
+        Set<String> live = new HashSet<>();
+        mongoTemplate.executeQuery(query, "products", document -> live.add(document.get("_id").toString()));
+        List<String> deleted = new ArrayList<>();
+        for (String productId : productIds) {
+            if (!live.contains(productId)) {
+                deleted.add(productId);
+            }
+        }
+        pull(buyerId, deleted);
+        return live;
+    }
+
+    private void pull(String buyerId, Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        Update pull = new Update().pull("items",
+                new Document("productId", new Document("$in", new ArrayList<>(productIds))));
+        mongoTemplate.updateFirst(byBuyer(buyerId), pull, BuyerCart.class);
+    }
+
+    private static Query byBuyer(String buyerId) {
+        return new Query(Criteria.where("_id").is(MongoIds.of(buyerId)));
+    }
+
+    static CartItem snapshot(Product product, int quantity) {
+        CartItem item = new CartItem();
+        item.setId(new ObjectId().toHexString());
+        item.setProductId(product.getId());
+        item.setSellerId(product.getSeller() != null ? product.getSeller().getId() : null);
+        item.setName(product.getName());
+        item.setCategory(product.getCategory());
+        item.setDescription(product.getDescription());
+        item.setCost(product.getCost());
+        item.setImageUrl(product.getImageUrl());
+        item.setQuantity(quantity);
+        item.setAddedAt(LocalDateTime.now());
+        return item;
+    }
+
+    private static ProductDTO toProductDTO(CartItem item) {
+        ProductDTO pdto = new ProductDTO();
+        pdto.setId(item.getProductId());
+        pdto.setName(item.getName());
+        pdto.setCategory(item.getCategory());
+        pdto.setDescription(item.getDescription());
+        pdto.setCost(item.getCost());
+        String imageUrl = item.getImageUrl();
+        pdto.setImageUrl(imageUrl == null || imageUrl.trim().isEmpty() ? ProductImages.PLACEHOLDER_URL : imageUrl);
+        pdto.setSeller_id(item.getSellerId());
+        return pdto;
+    }
+
+    // CartController maps the Cart entity; rebuild one from the embedded line
+    private static Cart toCart(String buyerId, CartItem item) {
+        Product product = new Product();
+        product.setId(item.getProductId());
+        product.setName(item.getName());
+        product.setCategory(item.getCategory());
+        product.setDescription(item.getDescription());
+        product.setCost(item.getCost());
+        product.setImageUrl(item.getImageUrl());
+        if (item.getSellerId() != null) {
+            Seller seller = new Seller();
+            seller.setId(item.getSellerId());
+            product.setSeller(seller);
+        }
+        Buyer buyer = new Buyer();
+        buyer.setId(buyerId);
+
+        Cart cart = new Cart();
+        cart.setCid(item.getId());
+        cart.setQuantity(item.getQuantity());
+        cart.setProduct(product);
+        cart.setBuyer(buyer);
+        return cart;
+    }
+}
@@ -0,0 +1,48 @@
+package com.klef.fsd.service;
+
+import java.time.LocalDate;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+public interface ExportService {
+
+    enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format of(String value) {
+            if (value == null || value.isBlank()) {
+                return NDJSON;
+            }
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported export format: " + value);
+        }
+    }
+
+    // Dates are inclusive and optional; products are dated by their ObjectId creation time
+    public StreamingResponseBody exportProducts(String sellerId, LocalDate from, LocalDate to, Format format);
+
+    // sellerId null exports every seller's orders (admin)
+    public StreamingResponseBody exportOrders(String sellerId, LocalDate from, LocalDate to, String status,
+            Format format);
+}
@@ -0,0 +1,212 @@
+package com.klef.fsd.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klef.fsd.util.MongoIds;
+
+/**
+ * Streams exports straight from a Mongo cursor: each document is turned into one
+ * row and written before the next is read, so memory does not grow with the
+ * result size. References are exported as ids rather than resolved.
+ */
+@Service
+public class ExportServiceImpl implements ExportService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final List<String> PRODUCT_COLUMNS = List.of("id", "name", "category", "description", "cost",
+            "imageUrl", "sellerId", "createdAt");
+
+    private static final List<String> ORDER_COLUMNS = List.of("id", "orderDate", "status", "quantity", "amount",
+            "productId", "buyerId", "sellerId", "addressId", "razorpayOrderId", "razorpayPaymentId");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public StreamingResponseBody exportProducts(String sellerId, LocalDate from, LocalDate to, Format format) {
+        checkRange(from, to);
+        Query query = new Query();
+        if (sellerId != null && !sellerId.isBlank()) {
+            query.addCriteria(Criteria.where("seller.$id").is(MongoIds.of(sellerId)));
+        }
+        if (from != null || to != null) {
+            // ObjectIds embed their creation second, which stands in for a createdAt field
+            Criteria created = Criteria.where("_id");
+            if (from != null) {
+                created = created.gte(ObjectId.getSmallestWithDate(toDate(from)));
+            }
+            if (to != null) {
+                created = created.lt(ObjectId.getSmallestWithDate(toDate(to.plusDays(1))));
+            }
+            query.addCriteria(created);
+        }
+        query.fields().include("name", "category", "description", "cost", "imageUrl", "seller");
+        return stream(query, "products", PRODUCT_COLUMNS, format, this::productRow);
+    }
+
+    @Override
+    public StreamingResponseBody exportOrders(String sellerId, LocalDate from, LocalDate to, String status,
+            Format format) {
+        checkRange(from, to);
+        Query query = new Query();
+        if (sellerId != null && !sellerId.isBlank()) {
+            query.addCriteria(Criteria.where("seller.$id").is(MongoIds.of(sellerId)));
+        }
+        if (from != null || to != null) {
+            Criteria ordered = Criteria.where("orderDate");
+            if (from != null) {
+                ordered = ordered.gte(toDate(from));
+            }
+            if (to != null) {
+                ordered = ordered.lt(toDate(to.plusDays(1)));
+            }
+            query.addCriteria(ordered);
+        }
+        if (status != null && !status.isBlank()) {
+            query.addCriteria(Criteria.where("status").is(status));
+        }
+        return stream(query, "orders", ORDER_COLUMNS, format, this::orderRow);
+    }
+
+    private StreamingResponseBody stream(Query query, String collection, List<String> columns, Format format,
+            Function<Document, Map<String, Object>> toRow) {
+        // _id order walks the primary index instead of sorting in memory
+        query.with(Sort.by(Sort.Direction.ASC, "_id")).cursorBatchSize(BATCH_SIZE);
+        return output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            if (format == Format.CSV) {
+                writeCsvLine(writer, columns);
+            }
+            try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, collection)) {
+                documents.forEachOrdered(document -> {
+                    try {
+                        Map<String, Object> row = toRow.apply(document);
+                        if (format == Format.CSV) {
+                            writeCsvLine(writer, row.values());
+                        } else {
+                            writer.write(objectMapper.writeValueAsString(row));
+                            writer.write('\n');
+                        }
+                    } catch (IOException e) {
+                        // Client went away: abort the cursor rather than keep reading
+                        throw new ExportAbortedException(e);
+                    }
+                });
+            } catch (ExportAbortedException e) {
+                throw (IOException) e.getCause();
+            }
+            writer.flush();
+        };
+    }
+
+    private Map<String, Object> productRow(Document document) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        Object id = document.get("_id");
+        row.put("id", id != null ? id.toString() : null);
+        row.put("name", document.getString("name"));
+        row.put("category", document.getString("category"));
+        row.put("description", document.getString("description"));
+        row.put("cost", document.get("cost"));
+        row.put("imageUrl", document.getString("imageUrl"));
+        row.put("sellerId", MongoIds.refId(document.get("seller")));
+        row.put("createdAt", id instanceof ObjectId ? toLocal(((ObjectId) id).getDate()) : null);
+        return row;
+    }
+
+    private Map<String, Object> orderRow(Document document) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        Object id = document.get("_id");
+        row.put("id", id != null ? id.toString() : null);
+        Object orderDate = document.get("orderDate");
+        row.put("orderDate", orderDate instanceof Date ? toLocal((Date) orderDate) : null);
+        row.put("status", document.getString("status"));
+        row.put("quantity", document.get("quantity"));
+        row.put("amount", document.get("amount"));
+        row.put("productId", MongoIds.refId(document.get("product")));
+        row.put("buyerId", MongoIds.refId(document.get("buyer")));
+        row.put("sellerId", MongoIds.refId(document.get("seller")));
+        row.put("addressId", MongoIds.refId(document.get("address")));
+        row.put("razorpayOrderId", document.getString("razorpayOrderId"));
+        row.put("razorpayPaymentId", document.getString("razorpayPaymentId"));
+        return row;
+    }
+
+    private static void writeCsvLine(Writer writer, Iterable<?> values) throws IOException {
+        boolean first = true;
+        for (Object value : values) {
+            if (!first) {
+                writer.write(',');
+            }
+            writer.write(csvField(value));
+            first = false;
+        }
+        writer.write("\r\n");
+    }
+
+    private static String csvField(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        // Keep spreadsheets from evaluating seller-supplied text as a formula
+        if (!(value instanceof Number) && !text.isEmpty() && "=+-@".indexOf(text.charAt(0)) >= 0) {
+            text = "'" + text;
+        }
+        if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0
+                || text.indexOf('\r') >= 0) {
+            text = '"' + text.replace("\"", "\"\"") + '"';
+        }
+        return text;
+    }
+
+    private static void checkRange(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+    }
+
+    // Spring Data stores LocalDateTime in the JVM's default zone, so filters must match it
+    private static Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static String toLocal(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()).toString();
+    }
+
+    private static final class ExportAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ExportAbortedException(IOException cause) {
+            super(cause);
+        }
+    }
+}
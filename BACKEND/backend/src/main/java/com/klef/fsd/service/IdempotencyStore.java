@@ -0,0 +1,214 @@
+package com.klef.fsd.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.klef.fsd.model.IdempotencyRecord;
+
+/**
+ * Responses stored per Idempotency-Key. Completed responses sit in a Caffeine
+ * LRU in front of the "idempotency_keys" collection, whose _id makes the first
+ * request the only one to claim a key. A repeat of a key that is still running
+ * waits for the first request's response: on the same instance through a
+ * shared future, on another instance by polling the record. A claim whose
+ * request died is taken over after idempotency.lease-ms.
+ */
+@Component
+public class IdempotencyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    static final String IN_FLIGHT = "IN_FLIGHT";
+    static final String DONE = "DONE";
+
+    // Matches the TTL index on IdempotencyRecord.createdAt
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final long POLL_MILLIS = 100;
+
+    public record StoredResponse(String fingerprint, int status, String contentType, byte[] body) {
+    }
+
+    public enum Kind {
+        EXECUTE, REPLAY, MISMATCH, IN_PROGRESS
+    }
+
+    public record Outcome(Kind kind, StoredResponse response) {
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${idempotency.wait-ms:30000}")
+    private long waitMillis;
+
+    @Value("${idempotency.lease-ms:60000}")
+    private long leaseMillis;
+
+    private final Cache<String, StoredResponse> completed;
+    private final ConcurrentHashMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyStore(@Value("${idempotency.cache-size:10000}") long cacheSize) {
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(TTL)
+                .build();
+    }
+
+    /**
+     * Decides what to do with a request carrying this key: EXECUTE it (the caller
+     * must then complete or release the key), REPLAY a stored response, or reject
+     * it because the key was used for a different request or is still running.
+     */
+    public Outcome begin(String key, String fingerprint) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            StoredResponse done = completed.getIfPresent(key);
+            if (done != null) {
+                return replay(done, fingerprint);
+            }
+            CompletableFuture<StoredResponse> mine = new CompletableFuture<>();
+            CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                try {
+                    return replay(running.get(Math.max(0, deadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS), fingerprint);
+                } catch (TimeoutException e) {
+                    return new Outcome(Kind.IN_PROGRESS, null);
+                } catch (ExecutionException e) {
+                    // The first request ended without a stored response; run it ourselves
+                    continue;
+                }
+            }
+            try {
+                Outcome outcome = claimOrWait(key, fingerprint, deadline);
+                if (outcome.kind() == Kind.REPLAY) {
+                    inFlight.remove(key, mine);
+                    mine.complete(outcome.response());
+                } else if (outcome.kind() != Kind.EXECUTE) {
+                    abandon(key, mine);
+                }
+                return outcome;
+            } catch (InterruptedException e) {
+                abandon(key, mine);
+                throw e;
+            } catch (RuntimeException e) {
+                // Mongo unavailable: the in-flight future still guards this instance
+                logger.warn("Idempotency store unavailable, key only guarded locally: {}", e.getMessage());
+                return new Outcome(Kind.EXECUTE, null);
+            }
+        }
+    }
+
+    /**
+     * Stores the response of a request that was told to EXECUTE and hands it to
+     * the requests waiting on the same key.
+     */
+    public void complete(String key, StoredResponse response) {
+        completed.put(key, response);
+        try {
+            mongoTemplate.updateFirst(byKey(key), new Update().set("status", DONE)
+                    .set("fingerprint", response.fingerprint()).set("httpStatus", response.status())
+                    .set("contentType", response.contentType()).set("body", response.body())
+                    .set("updatedAt", LocalDateTime.now()), IdempotencyRecord.class);
+        } catch (RuntimeException e) {
+            // Other instances re-run the request once the claim's lease runs out
+            logger.warn("Could not store idempotent response: {}", e.getMessage());
+        }
+        CompletableFuture<StoredResponse> waiting = inFlight.remove(key);
+        if (waiting != null) {
+            waiting.complete(response);
+        }
+    }
+
+    /**
+     * Gives up the key without storing a response, so a retry runs the request again.
+     */
+    public void release(String key) {
+        try {
+            mongoTemplate.remove(byKey(key).addCriteria(Criteria.where("status").is(IN_FLIGHT)),
+                    IdempotencyRecord.class);
+        } catch (RuntimeException e) {
+            logger.warn("Could not release idempotency key: {}", e.getMessage());
+        }
+        CompletableFuture<StoredResponse> waiting = inFlight.remove(key);
+        if (waiting != null) {
+            waiting.completeExceptionally(new IllegalStateException("Request ended without a stored response"));
+        }
+    }
+
+    private Outcome claimOrWait(String key, String fingerprint, long deadline) throws InterruptedException {
+        while (true) {
+            if (claim(key, fingerprint)) {
+                return new Outcome(Kind.EXECUTE, null);
+            }
+            IdempotencyRecord existing = mongoTemplate.findById(key, IdempotencyRecord.class);
+            if (existing == null) {
+                // Released or expired in between
+                continue;
+            }
+            if (!fingerprint.equals(existing.getFingerprint())) {
+                return new Outcome(Kind.MISMATCH, null);
+            }
+            if (DONE.equals(existing.getStatus())) {
+                StoredResponse response = new StoredResponse(existing.getFingerprint(), existing.getHttpStatus(),
+                        existing.getContentType(), existing.getBody());
+                completed.put(key, response);
+                return new Outcome(Kind.REPLAY, response);
+            }
+            // Running on another instance
+            if (System.currentTimeMillis() >= deadline) {
+                return new Outcome(Kind.IN_PROGRESS, null);
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    // Inserts the key, or takes over a claim whose lease ran out; false if someone else holds it
+    private boolean claim(String key, String fingerprint) {
+        LocalDateTime now = LocalDateTime.now();
+        Query claimable = byKey(key).addCriteria(Criteria.where("status").is(IN_FLIGHT)
+                .and("updatedAt").lt(now.minus(Duration.ofMillis(leaseMillis))));
+        Update update = new Update().set("status", IN_FLIGHT).set("fingerprint", fingerprint)
+                .set("updatedAt", now).setOnInsert("createdAt", now);
+        try {
+            mongoTemplate.findAndModify(claimable, update, FindAndModifyOptions.options().upsert(true),
+                    IdempotencyRecord.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private void abandon(String key, CompletableFuture<StoredResponse> mine) {
+        inFlight.remove(key, mine);
+        mine.completeExceptionally(new IllegalStateException("Idempotency key not claimed"));
+    }
+
+    private static Outcome replay(StoredResponse response, String fingerprint) {
+        return fingerprint.equals(response.fingerprint()) ? new Outcome(Kind.REPLAY, response)
+                : new Outcome(Kind.MISMATCH, null);
+    }
+
+    private static Query byKey(String key) {
+        return new Query(Criteria.where("_id").is(key));
+    }
+}
@@ -0,0 +1,292 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.klef.fsd.model.Product;
+import com.klef.fsd.util.MongoIds;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Takes product image uploads off the request thread. The multipart stream is
+ * spooled to a temp file, the product is saved with imageStatus PENDING, and a
+ * bounded worker pool hands the file to the {@link ImageStore} with retries before
+ * patching imageUrl. The patch is conditional on the upload token so an older
+ * upload can never overwrite a newer image. Uploads are registered with
+ * {@link ImageRegistry} so identical bytes are only uploaded once.
+ *
+ * A queued file is named after its upload token, so an upload cut off by a
+ * restart can be found again: sweepStale re-queues a product left PENDING for
+ * image.upload.stale-minutes when its file is still there, and marks it FAILED
+ * otherwise. Tokens are ObjectIds, which carry their creation time.
+ */
+@Service
+public class ImageIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageIngestionService.class);
+
+    public static final String PENDING = "PENDING";
+    public static final String READY = "READY";
+    public static final String FAILED = "FAILED";
+
+    public record SpooledImage(Path path, String hash) {
+    }
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ImageRegistry imageRegistry;
+
+    private final ThreadPoolExecutor workers;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Path spoolDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+    private final Set<String> queuedTokens = ConcurrentHashMap.newKeySet();
+
+    @Value("${image.upload.stale-minutes:15}")
+    private long staleMinutes;
+
+    @Value("${image.upload.shutdown-wait-seconds:30}")
+    private long shutdownWaitSeconds;
+
+    public ImageIngestionService(@Value("${image.upload.workers:4}") int workerCount,
+            @Value("${image.upload.queue-capacity:200}") int queueCapacity,
+            @Value("${image.upload.max-attempts:3}") int maxAttempts,
+            @Value("${image.upload.retry-delay-ms:1000}") long retryDelayMillis) {
+        // A full queue makes the caller upload itself: backpressure instead of unbounded temp files
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> new Thread(runnable, "image-upload"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Copies the upload to a temp file without loading it into the heap, hashing the
+     * bytes on the way through.
+     */
+    public SpooledImage spool(MultipartFile file) throws IOException {
+        Path spooled = Files.createTempFile(spoolDirectory, "product-image-", null);
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return new SpooledImage(spooled, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Queues the upload of a spooled file for a product already saved with the given token.
+     * {@code onReady} runs after the product's image fields have been patched.
+     */
+    public void submit(String productId, String token, SpooledImage image, Runnable onReady) {
+        SpooledImage queued = image;
+        try {
+            queued = new SpooledImage(Files.move(image.path(), queuedPath(token), StandardCopyOption.REPLACE_EXISTING),
+                    image.hash());
+        } catch (IOException e) {
+            // Still uploaded; only a restart before it finishes would leave it to be marked FAILED
+            logger.warn("Could not rename spooled image {}: {}", image.path(), e.getMessage());
+        }
+        queue(productId, token, queued, onReady);
+    }
+
+    /**
+     * Re-queues uploads cut off by a restart, or marks their products FAILED when the
+     * spooled file is gone. {@code onUpdated} gets the id of every product re-queued
+     * (once its image is patched) or marked FAILED.
+     */
+    public void sweepStale(Consumer<String> onUpdated) {
+        Query query = new Query(Criteria.where("imageUploadToken").exists(true).and("imageStatus").is(PENDING));
+        query.fields().include("imageUploadToken");
+        List<Document> pending = new ArrayList<>();
+        mongoTemplate.executeQuery(query, "products", pending::add);
+        long staleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(staleMinutes);
+        int requeued = 0;
+        int failed = 0;
+        for (Document product : pending) {
+            String productId = product.get("_id").toString();
+            String token = product.getString("imageUploadToken");
+            // Tokens from before they were ObjectIds have no age; they predate this process
+            if (token == null || queuedTokens.contains(token)
+                    || (ObjectId.isValid(token) && new ObjectId(token).getDate().getTime() > staleBefore)) {
+                continue;
+            }
+            Path file = queuedPath(token);
+            try {
+                if (Files.isRegularFile(file)) {
+                    queue(productId, token, new SpooledImage(file, hash(file)), () -> onUpdated.accept(productId));
+                    requeued++;
+                } else if (patch(productId, token, new Update().set("imageStatus", FAILED)) != null) {
+                    onUpdated.accept(productId);
+                    failed++;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not recover image upload for product {}: {}", productId, e.getMessage());
+            }
+        }
+        if (requeued > 0 || failed > 0) {
+            logger.info("Stale image uploads: {} re-queued, {} marked FAILED", requeued, failed);
+        }
+    }
+
+    public void discard(SpooledImage image) {
+        try {
+            Files.deleteIfExists(image.path());
+        } catch (IOException e) {
+            logger.warn("Could not delete spooled image {}", image.path());
+        }
+    }
+
+    private void queue(String productId, String token, SpooledImage image, Runnable onReady) {
+        queuedTokens.add(token);
+        workers.execute(() -> {
+            try {
+                upload(productId, token, image, onReady);
+            } finally {
+                queuedTokens.remove(token);
+            }
+        });
+    }
+
+    private Path queuedPath(String token) {
+        return spoolDirectory.resolve("product-image-" + token + ".pending");
+    }
+
+    private void upload(String productId, String token, SpooledImage image, Runnable onReady) {
+        boolean keepFile = false;
+        try {
+            ImageStore.StoredImage result = null;
+            for (int attempt = 1; attempt <= maxAttempts && result == null; attempt++) {
+                try {
+                    result = imageStore.store(image.path());
+                } catch (Exception e) {
+                    logger.warn("Image upload for product {} failed (attempt {}/{}): {}", productId, attempt,
+                            maxAttempts, e.getMessage());
+                    if (attempt < maxAttempts) {
+                        Thread.sleep(retryDelayMillis << (attempt - 1));
+                    }
+                }
+            }
+
+            if (result == null) {
+                if (patch(productId, token, new Update().set("imageStatus", FAILED)) != null) {
+                    onReady.run();
+                }
+                return;
+            }
+
+            String sharedUrl = imageRegistry.registerUpload(image.hash(), result,
+                    () -> imageStore.store(image.path()));
+            if (sharedUrl == null) {
+                // The entry for these bytes stayed in deletion; our upload may be that very file, so it is left alone
+                if (patch(productId, token, new Update().set("imageStatus", FAILED)) != null) {
+                    onReady.run();
+                }
+                return;
+            }
+            Update update = new Update().set("imageStatus", READY).set("imageUrl", sharedUrl)
+                    .set("imageHash", image.hash());
+            Product previous;
+            try {
+                previous = patch(productId, token, update);
+            } catch (RuntimeException e) {
+                previous = null;
+                logger.warn("Could not patch image for product {}: {}", productId, e.getMessage());
+            }
+            if (previous == null) {
+                // Superseded, deleted or not patched: give the reference back
+                imageRegistry.release(image.hash());
+                return;
+            }
+            if (previous.getImageHash() != null) {
+                imageRegistry.release(previous.getImageHash());
+            }
+            onReady.run();
+        } catch (InterruptedException e) {
+            // Cut off by shutdown: the file stays for sweepStale after the restart
+            keepFile = true;
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Image ingestion for product {} failed: {}", productId, e.getMessage());
+        } finally {
+            if (!keepFile) {
+                discard(image);
+            }
+        }
+    }
+
+    // Applies the update only if no newer image was submitted since; returns the product as it was before, or null
+    private Product patch(String productId, String token, Update update) {
+        Query query = new Query(Criteria.where("_id").is(MongoIds.of(productId)).and("imageUploadToken").is(token));
+        return mongoTemplate.findAndModify(query, update.unset("imageUploadToken"), Product.class);
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Queued uploads get a chance to finish; what is still queued or running after the wait keeps its
+    // file and is picked up by sweepStale after the restart
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownWaitSeconds, TimeUnit.SECONDS)) {
+                logger.warn("Image uploads still running after {} s; {} queued uploads left for the next start",
+                        shutdownWaitSeconds, workers.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.klef.fsd.model.Image;
+
+/**
+ * Content-addressed registry of uploaded images. Products hold a counted
+ * reference (Product.imageHash) to an entry; an upload is skipped when the same
+ * bytes were uploaded before. Entries whose count stays at zero past a grace
+ * period are deleted from the {@link ImageStore} in batches by a scheduled cleanup.
+ */
+@Service
+public class ImageRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageRegistry.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Value("${image.cleanup.grace-minutes:60}")
+    private long graceMinutes;
+
+    @Value("${image.cleanup.batch-size:100}")
+    private int cleanupBatchSize;
+
+    @Value("${image.register.attempts:5}")
+    private int registerAttempts;
+
+    @Value("${image.register.retry-delay-ms:200}")
+    private long registerRetryDelayMillis;
+
+    /**
+     * Takes a reference to an already uploaded image; returns its URL, or null when
+     * these bytes have not been uploaded (or are being deleted).
+     */
+    public String acquire(String hash) {
+        Query query = new Query(Criteria.where("_id").is(hash).and("deleting").ne(true));
+        Image image = mongoTemplate.findAndModify(query, new Update().inc("refCount", 1).unset("releasedAt"),
+                FindAndModifyOptions.options().returnNew(true), Image.class);
+        return image != null ? image.getUrl() : null;
+    }
+
+    /**
+     * Uploads the same bytes again, for {@link #registerUpload}.
+     */
+    @FunctionalInterface
+    public interface Reupload {
+        ImageStore.StoredImage store() throws IOException;
+    }
+
+    /**
+     * Records a finished upload and takes a reference to it, returning the URL products
+     * should use: if the same bytes were registered concurrently the first URL wins and
+     * our upload is deleted, unless it is stored under the winner's key. An upload is
+     * never left without a reference, since a content-addressed store (LocalImageStore)
+     * puts the same bytes in the same file: while the entry for these bytes is being
+     * deleted this waits for it to go and uploads again. Returns null if it was still
+     * there after the last attempt; the upload is then left alone.
+     */
+    public String registerUpload(String hash, ImageStore.StoredImage stored, Reupload reupload)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            Image image = register(hash, stored);
+            if (image != null) {
+                if (!Objects.equals(image.getPublicId(), stored.key())) {
+                    // The same bytes were registered concurrently and that copy won; ours is unused
+                    deleteUpload(stored.key());
+                } else if (!imageStore.exists(stored.key())) {
+                    // A cleanup claimed the previous entry after our upload and deleted the file;
+                    // our reference keeps the next cleanup away from the copy stored now
+                    reupload.store();
+                }
+                return image.getUrl();
+            }
+            if (attempt == registerAttempts) {
+                logger.warn("Image {} is still being deleted after {} attempts to register it", hash, attempt);
+                return null;
+            }
+            Thread.sleep(registerRetryDelayMillis << (attempt - 1));
+            // The cleanup deletes the file before the entry, possibly after our upload wrote it
+            stored = reupload.store();
+            if (stored.hash() != null && !stored.hash().equals(hash)) {
+                throw new IOException("image changed while it was uploaded again");
+            }
+        }
+    }
+
+    private Image register(String hash, ImageStore.StoredImage stored) {
+        Query query = new Query(Criteria.where("_id").is(hash).and("deleting").ne(true));
+        Update update = new Update().setOnInsert("url", stored.url()).setOnInsert("publicId", stored.key())
+                .setOnInsert("deleting", false).inc("refCount", 1).unset("releasedAt");
+        try {
+            return mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Image.class);
+        } catch (DuplicateKeyException e) {
+            // An entry for these bytes is being deleted, so the upsert could not insert a fresh one
+            return null;
+        }
+    }
+
+    private void deleteUpload(String key) {
+        try {
+            imageStore.delete(key);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not delete unused image upload {}: {}", key, e.getMessage());
+        }
+    }
+
+    public void release(String hash) {
+        if (hash == null) {
+            return;
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(hash).and("refCount").gt(0)),
+                new Update().inc("refCount", -1), Image.class);
+        // Stamp the moment the last reference went away; the grace period counts from here
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(hash).and("refCount").lte(0)
+                .and("releasedAt").exists(false)), new Update().set("releasedAt", LocalDateTime.now()), Image.class);
+    }
+
+    @Scheduled(fixedDelayString = "${image.cleanup.interval-ms:3600000}",
+            initialDelayString = "${image.cleanup.interval-ms:3600000}")
+    public void cleanup() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(graceMinutes);
+        int deleted = 0;
+        try {
+            for (int i = 0; i < cleanupBatchSize; i++) {
+                // Claim one unreferenced entry so acquire() stops handing it out before the asset is destroyed
+                Query claim = new Query(Criteria.where("refCount").lte(0).and("releasedAt").lt(cutoff)
+                        .and("deleting").ne(true));
+                Image image = mongoTemplate.findAndModify(claim, new Update().set("deleting", true),
+                        FindAndModifyOptions.options().returnNew(true), Image.class);
+                if (image == null) {
+                    break;
+                }
+                try {
+                    if (image.getPublicId() != null) {
+                        imageStore.delete(image.getPublicId());
+                    }
+                    mongoTemplate.remove(new Query(Criteria.where("_id").is(image.getHash())), Image.class);
+                    deleted++;
+                } catch (Exception e) {
+                    // Unclaim so the next run retries instead of leaking the asset
+                    mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(image.getHash())),
+                            new Update().set("deleting", false), Image.class);
+                    logger.warn("Could not delete image {}: {}", image.getHash(), e.getMessage());
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Image cleanup failed: {}", e.getMessage());
+        }
+        if (deleted > 0) {
+            logger.info("Image cleanup removed {} unreferenced images", deleted);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Where product images live. Selected with image.store: "cloudinary" (default)
+ * or "local" for offline development and load tests.
+ */
+public interface ImageStore {
+
+    // url is what products store in imageUrl; key is what delete() needs later; hash is the
+    // content's SHA-256 when the store computed it, for ImageRegistry
+    record StoredImage(String url, String key, String hash) {
+
+        public StoredImage(String url, String key) {
+            this(url, key, null);
+        }
+    }
+
+    StoredImage store(Path file) throws IOException;
+
+    StoredImage storeFromUrl(String url) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    /**
+     * Whether the image stored under a key is still there; stores that cannot tell say true.
+     */
+    default boolean exists(String key) {
+        return true;
+    }
+
+    /**
+     * The local file stored under a key, if this store serves files itself.
+     */
+    Optional<Path> file(String key);
+
+    /**
+     * The local file behind an imageUrl issued by this store, if it serves files itself;
+     * empty for URLs the client should be redirected to.
+     */
+    Optional<Path> resolve(String imageUrl);
+}
@@ -0,0 +1,300 @@
+package com.klef.fsd.service;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Stores images on the local filesystem under their SHA-256, so a file never
+ * changes once written and can be served with a strong ETag and a long max-age.
+ * Products with the same bytes share one file, so every upload is registered with
+ * {@link ImageRegistry} and its reference count decides when the file can go.
+ * URLs point back at this backend's /product/images/{key} endpoint. Remote
+ * images are only fetched from public http(s) hosts, with timeouts and a size
+ * cap, so a seller-supplied URL cannot reach internal services or stall imports.
+ * The fetch connects only to addresses its own resolver vetted, so a DNS answer
+ * that changes after the check (rebinding) cannot redirect it.
+ */
+@Service
+@ConditionalOnProperty(name = "image.store", havingValue = "local")
+public class LocalImageStore implements ImageStore {
+
+    public static final String PATH_PREFIX = "/product/images/";
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}\\.[a-z]{3,4}");
+
+    // Resolver for remote image fetches: fails on any non-public address
+    private static final DnsResolver PUBLIC_ONLY = LocalImageStore::publicAddresses;
+
+    private final Path root;
+    private final String baseUrl;
+    private final CloseableHttpClient httpClient;
+    private final long maxBytes;
+
+    public LocalImageStore(@Value("${image.local.dir:${java.io.tmpdir}/llcart-images}") String dir,
+            @Value("${image.local.base-url:http://localhost:2000}") String baseUrl,
+            @Value("${image.fetch.connect-timeout-ms:2000}") long connectTimeoutMillis,
+            @Value("${image.fetch.timeout-ms:10000}") long fetchTimeoutMillis,
+            @Value("${image.fetch.max-bytes:10485760}") long maxBytes) throws IOException {
+        this.root = Files.createDirectories(Path.of(dir)).toAbsolutePath();
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        // Redirects are not followed: they could point past the host check. No proxy either,
+        // since a proxy would resolve the host itself.
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout((int) connectTimeoutMillis)
+                .setConnectionRequestTimeout((int) connectTimeoutMillis)
+                .setSocketTimeout((int) fetchTimeoutMillis)
+                .setRedirectsEnabled(false)
+                .build();
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                        .build(),
+                PUBLIC_ONLY);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(config)
+                .disableRedirectHandling()
+                .build();
+        this.maxBytes = maxBytes;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    @Override
+    public StoredImage store(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return write(in);
+        }
+    }
+
+    @Override
+    public StoredImage storeFromUrl(String url) throws IOException {
+        URI uri = publicHttpUri(url);
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(uri))) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw new IOException("Fetching " + url + " returned HTTP " + status);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Fetching " + url + " returned no body");
+            }
+            if (entity.getContentLength() > maxBytes) {
+                throw new IOException("Image at " + url + " is larger than " + maxBytes + " bytes");
+            }
+            try (InputStream in = entity.getContent()) {
+                return write(new CappedInputStream(in, maxBytes));
+            }
+        }
+    }
+
+    // The addresses returned are the ones connected to, so the check and the connection can never
+    // see different DNS answers
+    static InetAddress[] publicAddresses(String host) throws UnknownHostException {
+        InetAddress[] addresses = InetAddress.getAllByName(host);
+        if (!allPublic(addresses)) {
+            throw new UnknownHostException("Image host is not a public address: " + host);
+        }
+        return addresses;
+    }
+
+    // Only http(s) URLs whose host resolves to public addresses; checked again when connecting
+    static URI publicHttpUri(String url) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid image URL: " + url);
+        }
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if ((!scheme.equals("http") && !scheme.equals("https")) || uri.getHost() == null) {
+            throw new IOException("Image URL must be http or https: " + url);
+        }
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(uri.getHost());
+        } catch (UnknownHostException e) {
+            throw new IOException("Unknown image host: " + uri.getHost());
+        }
+        if (!allPublic(addresses)) {
+            throw new IOException("Image host is not a public address: " + uri.getHost());
+        }
+        return uri;
+    }
+
+    private static boolean allPublic(InetAddress[] addresses) {
+        for (InetAddress address : addresses) {
+            if (!isPublic(address)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPublic(InetAddress address) {
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            // Unique local fc00::/7
+            return (bytes[0] & 0xfe) != 0xfc;
+        }
+        // Carrier-grade NAT 100.64.0.0/10
+        return !((bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (key != null && KEY.matcher(key).matches()) {
+            Files.deleteIfExists(root.resolve(key));
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return file(key).isPresent();
+    }
+
+    @Override
+    public Optional<Path> resolve(String imageUrl) {
+        String prefix = baseUrl + PATH_PREFIX;
+        if (imageUrl == null || !imageUrl.startsWith(prefix)) {
+            return Optional.empty();
+        }
+        return file(imageUrl.substring(prefix.length()));
+    }
+
+    // Rejects anything that is not a key this store issued, so the key can never escape the directory
+    @Override
+    public Optional<Path> file(String key) {
+        if (key == null || !KEY.matcher(key).matches()) {
+            return Optional.empty();
+        }
+        Path file = root.resolve(key);
+        return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+    }
+
+    private StoredImage write(InputStream source) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(source);
+        String extension = extension(URLConnection.guessContentTypeFromStream(in));
+        MessageDigest digest = sha256();
+        Path temp = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            try (InputStream hashing = new DigestInputStream(in, digest)) {
+                Files.copy(hashing, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String key = hash + "." + extension;
+            // Same bytes, same name: an existing file is already the right content
+            Files.move(temp, root.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new StoredImage(baseUrl + PATH_PREFIX + key, key, hash);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Fails the read once more than max bytes have come through
+    private static final class CappedInputStream extends FilterInputStream {
+
+        private final long max;
+        private long count;
+
+        CappedInputStream(InputStream in, long max) {
+            super(in);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            count += n;
+            if (count > max) {
+                throw new IOException("Image is larger than " + max + " bytes");
+            }
+        }
+    }
+
+    private static String extension(String contentType) {
+        if (contentType == null) {
+            return "bin";
+        }
+        switch (contentType) {
+        case "image/jpeg":
+            return "jpg";
+        case "image/png":
+            return "png";
+        case "image/gif":
+            return "gif";
+        case "image/webp":
+            return "webp";
+        default:
+            return "bin";
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.klef.fsd.service;
 
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.dto.OrderDTO;
 import com.klef.fsd.model.Order;
 
@@ -7,6 +9,12 @@ import java.util.List;
 
 public interface OrderService {
     Order createOrder(Order order);
+    // One paid order per line, priced at the line's cost, validated and inserted together;
+    // throws ProductUnavailableException naming every line whose product is gone
+    List<Order> placeOrders(String buyerId, String addressId, List<CartDTO> cartItems, String razorpayOrderId,
+            String razorpayPaymentId);
     List<OrderDTO> getOrdersByBuyerId(String buyerId);
     List<OrderDTO> getOrdersBySellerId(String sellerId);
+    CursorPage<OrderDTO> getOrdersByBuyerIdPage(String buyerId, String after, Integer limit);
+    CursorPage<OrderDTO> getOrdersBySellerIdPage(String sellerId, String after, Integer limit);
 }
\ No newline at end of file
@@ -1,21 +1,40 @@
 package com.klef.fsd.service;
 
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CursorPage;
 import com.klef.fsd.dto.OrderDTO;
 import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Address;
 import com.klef.fsd.model.Buyer;
 import com.klef.fsd.model.Order;
 import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
 import com.klef.fsd.repository.AddressRepository;
 import com.klef.fsd.repository.BuyerRepository;
 import com.klef.fsd.repository.OrderRepository;
-import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.repository.SellerRepository;
+import com.klef.fsd.search.CatalogIndexer;
+import com.klef.fsd.util.CursorCodec;
+import com.klef.fsd.util.MongoIds;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Optional;
 
 @Service
@@ -29,11 +48,20 @@ public class OrderServiceImpl implements OrderService {
     private BuyerRepository buyerRepository;
 
     @Autowired
-    private ProductRepository productRepository;
+    private SellerRepository sellerRepository;
+
+    @Autowired
+    private ProductService productService;
 
     @Autowired
     private AddressRepository addressRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CatalogIndexer catalogIndexer;
+
     @Override
     public Order createOrder(Order order) {
         if (order == null || order.getBuyer() == null || order.getProduct() == null || order.getSeller() == null) {
@@ -45,8 +73,7 @@ public class OrderServiceImpl implements OrderService {
             throw new IllegalArgumentException("Buyer does not exist");
         }
 
-        Optional<Product> productOpt = productRepository.findById(order.getProduct().getId());
-        if (!productOpt.isPresent()) {
+        if (productService.getProductById(order.getProduct().getId()) == null) {
             throw new IllegalArgumentException("Product does not exist");
         }
 
@@ -55,7 +82,82 @@ public class OrderServiceImpl implements OrderService {
             throw new IllegalArgumentException("Address does not exist");
         }
 
-        return orderRepository.save(order);
+        Order saved = orderRepository.save(order);
+        catalogIndexer.orderPlaced(order);
+        return saved;
+    }
+
+    @Override
+    public List<Order> placeOrders(String buyerId, String addressId, List<CartDTO> cartItems,
+            String razorpayOrderId, String razorpayPaymentId) {
+        // A fixed number of round trips whatever the cart size: buyer, address, products, insert.
+        // The address and products are read without their DBRefs, which would each cost a find.
+        Buyer buyer = buyerRepository.findById(buyerId)
+                .orElseThrow(() -> new IllegalArgumentException("Buyer not found with ID: " + buyerId));
+        if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(MongoIds.of(addressId))), Address.class)) {
+            throw new IllegalArgumentException("Address not found with ID: " + addressId);
+        }
+        Address address = new Address();
+        address.setId(addressId);
+
+        Set<String> productIds = new LinkedHashSet<>();
+        List<Object> ids = new ArrayList<>();
+        for (CartDTO cartItem : cartItems) {
+            if (productIds.add(cartItem.getProduct().getId())) {
+                ids.add(MongoIds.of(cartItem.getProduct().getId()));
+            }
+        }
+        // Only what the order and the catalog indexer need: the id, the seller's id and the category
+        Query byId = new Query(Criteria.where("_id").in(ids));
+        byId.fields().include("seller", "category");
+        Map<String, Product> products = new HashMap<>();
+        mongoTemplate.executeQuery(byId, "products", document -> {
+            Product product = new Product();
+            product.setId(document.get("_id").toString());
+            product.setCategory(document.getString("category"));
+            String sellerId = MongoIds.refId(document.get("seller"));
+            if (sellerId != null) {
+                Seller seller = new Seller();
+                seller.setId(sellerId);
+                product.setSeller(seller);
+            }
+            products.put(product.getId(), product);
+        });
+
+        List<String> missing = new ArrayList<>();
+        for (String productId : productIds) {
+            if (!products.containsKey(productId)) {
+                missing.add(productId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new ProductUnavailableException(missing);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Order> orders = new ArrayList<>(cartItems.size());
+        for (CartDTO cartItem : cartItems) {
+            Product product = products.get(cartItem.getProduct().getId());
+            Order order = new Order();
+            order.setBuyer(buyer);
+            order.setSeller(product.getSeller());
+            order.setProduct(product);
+            order.setQuantity(cartItem.getQuantity());
+            // Priced as charged, from the checkout snapshot
+            order.setAmount(cartItem.getProduct().getCost() * cartItem.getQuantity());
+            order.setStatus("PAID");
+            order.setOrderDate(now);
+            order.setAddress(address);
+            order.setRazorpayOrderId(razorpayOrderId);
+            order.setRazorpayPaymentId(razorpayPaymentId);
+            orders.add(order);
+        }
+
+        List<Order> saved = orderRepository.insert(orders);
+        for (Order order : saved) {
+            catalogIndexer.orderPlaced(order);
+        }
+        return saved;
     }
 
     @Override
@@ -69,25 +171,7 @@ public class OrderServiceImpl implements OrderService {
         List<OrderDTO> orderDTOs = new ArrayList<>();
 
         for (Order order : orders) {
-            OrderDTO orderDTO = new OrderDTO();
-            orderDTO.setId(order.getId());
-            orderDTO.setQuantity(order.getQuantity());
-            orderDTO.setAmount(order.getAmount());
-            orderDTO.setStatus(order.getStatus());
-            orderDTO.setOrderDate(order.getOrderDate());
-            orderDTO.setAddress(order.getAddress());
-
-            ProductDTO productDTO = new ProductDTO();
-            productDTO.setId(order.getProduct().getId());
-            productDTO.setName(order.getProduct().getName());
-            productDTO.setCategory(order.getProduct().getCategory());
-            productDTO.setDescription(order.getProduct().getDescription());
-            productDTO.setCost(order.getProduct().getCost());
-            productDTO.setSeller_id(order.getSeller().getId());
-            productDTO.setImageUrl(order.getProduct().getImageUrl());
-
-            orderDTO.setProduct(productDTO);
-            orderDTOs.add(orderDTO);
+            orderDTOs.add(toOrderDTO(order, false));
         }
 
         return orderDTOs;
@@ -99,29 +183,88 @@ public class OrderServiceImpl implements OrderService {
         List<OrderDTO> orderDTOs = new ArrayList<>();
 
         for (Order order : orders) {
-            OrderDTO orderDTO = new OrderDTO();
-            orderDTO.setId(order.getId());
-            orderDTO.setQuantity(order.getQuantity());
-            orderDTO.setAmount(order.getAmount());
-            orderDTO.setStatus(order.getStatus());
-            orderDTO.setOrderDate(order.getOrderDate());
-            orderDTO.setBuyerName(order.getBuyer().getName());
-            orderDTO.setBuyerEmail(order.getBuyer().getEmail());
-            orderDTO.setAddress(order.getAddress());
+            orderDTOs.add(toOrderDTO(order, true));
+        }
+
+        return orderDTOs;
+    }
+
+    @Override
+    public CursorPage<OrderDTO> getOrdersByBuyerIdPage(String buyerId, String after, Integer limit) {
+        Optional<Buyer> buyerOpt = buyerRepository.findById(buyerId);
+        if (!buyerOpt.isPresent()) {
+            throw new IllegalArgumentException("Buyer does not exist");
+        }
 
-            ProductDTO productDTO = new ProductDTO();
-            productDTO.setId(order.getProduct().getId());
-            productDTO.setName(order.getProduct().getName());
-            productDTO.setCategory(order.getProduct().getCategory());
-            productDTO.setDescription(order.getProduct().getDescription());
-            productDTO.setCost(order.getProduct().getCost());
-            productDTO.setSeller_id(order.getSeller().getId());
-            productDTO.setImageUrl(order.getProduct().getImageUrl());
+        String[] cursor = CursorCodec.decode(after, 2);
+        Pageable page = newestFirst(limit);
+        Slice<Order> slice = cursor == null ? orderRepository.findByBuyerId(buyerId, page)
+                : orderRepository.findByBuyerIdBefore(buyerId, parseCursorDate(cursor[0]), cursor[1], page);
+        return toPage(slice, false);
+    }
 
-            orderDTO.setProduct(productDTO);
-            orderDTOs.add(orderDTO);
+    @Override
+    public CursorPage<OrderDTO> getOrdersBySellerIdPage(String sellerId, String after, Integer limit) {
+        if (!sellerRepository.existsById(sellerId)) {
+            throw new IllegalArgumentException("Seller does not exist");
         }
 
-        return orderDTOs;
+        String[] cursor = CursorCodec.decode(after, 2);
+        Pageable page = newestFirst(limit);
+        Slice<Order> slice = cursor == null ? orderRepository.findBySellerId(sellerId, page)
+                : orderRepository.findBySellerIdBefore(sellerId, parseCursorDate(cursor[0]), cursor[1], page);
+        return toPage(slice, true);
+    }
+
+    private LocalDateTime parseCursorDate(String value) {
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private Pageable newestFirst(Integer limit) {
+        return PageRequest.of(0, CursorCodec.clampLimit(limit), Sort.by(Sort.Direction.DESC, "orderDate", "id"));
+    }
+
+    private CursorPage<OrderDTO> toPage(Slice<Order> slice, boolean withBuyer) {
+        List<OrderDTO> orderDTOs = new ArrayList<>();
+        for (Order order : slice.getContent()) {
+            orderDTOs.add(toOrderDTO(order, withBuyer));
+        }
+
+        String next = null;
+        if (slice.hasNext() && slice.hasContent()) {
+            Order last = slice.getContent().get(slice.getNumberOfElements() - 1);
+            next = CursorCodec.encode(last.getOrderDate().toString(), last.getId());
+        }
+        return new CursorPage<>(orderDTOs, next);
+    }
+
+    private OrderDTO toOrderDTO(Order order, boolean withBuyer) {
+        OrderDTO orderDTO = new OrderDTO();
+        orderDTO.setId(order.getId());
+        orderDTO.setQuantity(order.getQuantity());
+        orderDTO.setAmount(order.getAmount());
+        orderDTO.setStatus(order.getStatus());
+        orderDTO.setOrderDate(order.getOrderDate());
+        if (withBuyer) {
+            orderDTO.setBuyerName(order.getBuyer().getName());
+            orderDTO.setBuyerEmail(order.getBuyer().getEmail());
+        }
+        orderDTO.setAddress(order.getAddress());
+
+        ProductDTO productDTO = new ProductDTO();
+        productDTO.setId(order.getProduct().getId());
+        productDTO.setName(order.getProduct().getName());
+        productDTO.setCategory(order.getProduct().getCategory());
+        productDTO.setDescription(order.getProduct().getDescription());
+        productDTO.setCost(order.getProduct().getCost());
+        productDTO.setSeller_id(order.getSeller().getId());
+        productDTO.setImageUrl(order.getProduct().getImageUrl());
+
+        orderDTO.setProduct(productDTO);
+        return orderDTO;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,300 @@
+package com.klef.fsd.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Checkout;
+import com.klef.fsd.model.PaymentEvent;
+import com.klef.fsd.repository.CheckoutRepository;
+import com.klef.fsd.repository.OrderRepository;
+import com.klef.fsd.repository.PaymentEventRepository;
+import com.klef.fsd.util.MongoIds;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Turns captured payments into orders off the request thread. The webhook and
+ * verify-payment only record the payment in "payment_events"; payment.workers
+ * virtual threads claim due entries under a lease, create the orders from the
+ * checkout snapshot taken at create-order and take the paid-for products out of
+ * the cart. Failed attempts are retried with exponential backoff up to payment.capture.max-attempts; a lease
+ * that runs out (worker or process died) makes the entry claimable again. Each
+ * claim carries a token, so a worker that stalled past its lease cannot record
+ * an outcome over the new holder, and the unique payment/product index on orders
+ * keeps two workers from both inserting.
+ */
+@Service
+public class PaymentCaptureService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentCaptureService.class);
+
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+    // Captured, but some paid-for products were deleted before capture: those lines need a refund
+    public static final String REVIEW = "REVIEW";
+
+    private static final long LEASE_SECONDS = 60;
+    private static final long MAX_BACKOFF_SECONDS = 300;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PaymentEventRepository paymentEventRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private CheckoutRepository checkoutRepository;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Value("${payment.workers:4}")
+    private int workers;
+
+    @Value("${payment.capture.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${payment.capture.poll-interval-ms:1000}")
+    private long pollIntervalMillis;
+
+    // Wakes an idle worker as soon as something is enqueued here; polling covers other instances
+    private final Semaphore work = new Semaphore(0);
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * Records a captured payment once; later reports of the same payment only fill
+     * in buyer and address if they were missing.
+     */
+    public PaymentEvent enqueue(String razorpayPaymentId, String razorpayOrderId, String buyerId, String addressId,
+            String source) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update().setOnInsert("razorpayOrderId", razorpayOrderId).setOnInsert("source", source)
+                .setOnInsert("status", PENDING).setOnInsert("attempts", 0).setOnInsert("notBefore", now)
+                .setOnInsert("createdAt", now).set("updatedAt", now);
+        if (buyerId != null && addressId != null) {
+            update.set("buyerId", buyerId).set("addressId", addressId);
+        }
+        PaymentEvent event = mongoTemplate.findAndModify(byId(razorpayPaymentId), update,
+                FindAndModifyOptions.options().upsert(true).returnNew(true), PaymentEvent.class);
+        work.release();
+        return event;
+    }
+
+    public Optional<PaymentEvent> status(String razorpayPaymentId) {
+        return paymentEventRepository.findById(razorpayPaymentId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofVirtual().name("payment-worker-" + i).start(this::work));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                PaymentEvent event = claim();
+                if (event == null) {
+                    work.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                process(event);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // Mongo unreachable: back off instead of spinning
+                logger.warn("Payment worker could not claim work: {}", e.getMessage());
+                try {
+                    Thread.sleep(Math.max(pollIntervalMillis, 5000));
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private PaymentEvent claim() {
+        LocalDateTime now = LocalDateTime.now();
+        Query due = new Query(Criteria.where("status").in(PENDING, PROCESSING).and("notBefore").lte(now))
+                .with(Sort.by("notBefore"));
+        Update lease = new Update().set("status", PROCESSING).set("notBefore", now.plusSeconds(LEASE_SECONDS))
+                .set("claimToken", UUID.randomUUID().toString()).inc("attempts", 1).set("updatedAt", now);
+        return mongoTemplate.findAndModify(due, lease, FindAndModifyOptions.options().returnNew(true),
+                PaymentEvent.class);
+    }
+
+    private void process(PaymentEvent event) {
+        String id = event.getRazorpayPaymentId();
+        // The claim may have sat in the queue; start the capture with a full lease
+        if (!record(event, new Update().set("notBefore", LocalDateTime.now().plusSeconds(LEASE_SECONDS)))) {
+            return;
+        }
+        try {
+            Capture result = capture(event);
+            if (!result.unavailable().isEmpty()) {
+                String error = "Products no longer available, refund due: " + String.join(", ", result.unavailable());
+                if (record(event, new Update().set("status", REVIEW).set("ordersCreated", result.created())
+                        .set("error", error).set("updatedAt", LocalDateTime.now()))) {
+                    logger.error("Payment captured but needs review: paymentId={}, orders={}: {}", id,
+                            result.created(), error);
+                }
+            } else if (record(event, new Update().set("status", DONE).set("ordersCreated", result.created())
+                    .unset("error").set("updatedAt", LocalDateTime.now()))) {
+                logger.info("Payment captured: paymentId={}, orders={}", id, result.created());
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // A missing checkout, buyer or product will not fix itself
+            fail(event, e.getMessage(), false);
+        } catch (RuntimeException e) {
+            fail(event, e.getMessage(), event.getAttempts() < maxAttempts);
+        }
+    }
+
+    /**
+     * Creates the orders for one payment from its checkout snapshot and removes the
+     * checkout's products from the cart. An earlier attempt may have died after
+     * inserting some or all of the orders: only the missing lines are inserted, and
+     * the products are removed either way. Lines the buyer added after create-order
+     * stay in the cart. A product deleted since checkout gets no order; the others
+     * are still placed and the deleted ones are reported for a refund.
+     */
+    Capture capture(PaymentEvent event) {
+        Checkout checkout = checkoutRepository.findById(event.getRazorpayOrderId())
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "No checkout recorded for order " + event.getRazorpayOrderId()));
+        if (checkout.getLines() == null || checkout.getLines().isEmpty()) {
+            throw new IllegalStateException("Checkout has no items");
+        }
+
+        Set<String> ordered = new HashSet<>();
+        for (Document row : orderRepository.productsByPayment(event.getRazorpayPaymentId())) {
+            String productId = MongoIds.refId(row.get("product"));
+            if (productId != null) {
+                ordered.add(productId);
+            }
+        }
+
+        List<CartDTO> lines = new ArrayList<>(checkout.getLines().size());
+        Set<String> paidFor = new LinkedHashSet<>();
+        for (Checkout.Line line : checkout.getLines()) {
+            paidFor.add(line.getProductId());
+            if (ordered.contains(line.getProductId())) {
+                continue;
+            }
+            ProductDTO product = new ProductDTO();
+            product.setId(line.getProductId());
+            product.setCost(line.getCost());
+            CartDTO cartItem = new CartDTO();
+            cartItem.setProduct(product);
+            cartItem.setQuantity(line.getQuantity());
+            lines.add(cartItem);
+        }
+
+        int created = 0;
+        List<String> unavailable = List.of();
+        if (!lines.isEmpty()) {
+            try {
+                created = place(checkout, event, lines);
+            } catch (ProductUnavailableException e) {
+                // The money is taken either way: order what still exists, leave the rest for review
+                unavailable = e.getProductIds();
+                Set<String> gone = new HashSet<>(unavailable);
+                lines.removeIf(line -> gone.contains(line.getProduct().getId()));
+                if (!lines.isEmpty()) {
+                    created = place(checkout, event, lines);
+                }
+            }
+        }
+        // Idempotent, so also safe when an earlier attempt placed the orders and died before this
+        cartService.removeProductsFromCart(checkout.getBuyerId(), paidFor);
+        return new Capture(created, unavailable);
+    }
+
+    record Capture(int created, List<String> unavailable) {
+    }
+
+    private int place(Checkout checkout, PaymentEvent event, List<CartDTO> lines) {
+        // A DuplicateKeyException here means a worker that lost its lease inserted concurrently;
+        // it is retried like any other failure, and the retry sees those orders as already placed
+        return orderService.placeOrders(checkout.getBuyerId(), checkout.getAddressId(), lines,
+                event.getRazorpayOrderId(), event.getRazorpayPaymentId()).size();
+    }
+
+    private void fail(PaymentEvent event, String error, boolean retry) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update().set("error", error).set("updatedAt", now);
+        if (retry) {
+            long backoff = Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(event.getAttempts(), 20));
+            update.set("status", PENDING).set("notBefore", now.plusSeconds(backoff));
+            logger.warn("Payment capture failed, retrying in {} s: paymentId={}: {}", backoff,
+                    event.getRazorpayPaymentId(), error);
+        } else {
+            update.set("status", FAILED);
+            logger.error("Payment capture failed: paymentId={}: {}", event.getRazorpayPaymentId(), error);
+        }
+        try {
+            record(event, update);
+        } catch (RuntimeException e) {
+            // The lease runs out and the entry is claimed again
+            logger.warn("Could not record payment failure: {}", e.getMessage());
+        }
+    }
+
+    // Applies the update only while this worker still holds the claim
+    private boolean record(PaymentEvent event, Update update) {
+        Query claimed = new Query(Criteria.where("_id").is(event.getRazorpayPaymentId()).and("claimToken")
+                .is(event.getClaimToken()));
+        if (mongoTemplate.updateFirst(claimed, update, PaymentEvent.class).getMatchedCount() == 0) {
+            logger.warn("Lease on payment {} was taken over, leaving it to the new holder",
+                    event.getRazorpayPaymentId());
+            return false;
+        }
+        return true;
+    }
+
+    private static Query byId(String razorpayPaymentId) {
+        return new Query(Criteria.where("_id").is(razorpayPaymentId));
+    }
+}
@@ -0,0 +1,26 @@
+package com.klef.fsd.service;
+
+import java.util.Map;
+
+/**
+ * Payment provider used by checkout. One shared instance per application, chosen
+ * with payment.gateway: razorpay (default) or stub for offline load tests.
+ */
+public interface PaymentGateway {
+
+    // amount is in the smallest currency unit (paise for INR)
+    record GatewayOrder(String id, long amount, String currency) {
+    }
+
+    // Public key the checkout page needs to open the provider's payment form
+    String keyId();
+
+    // notes are stored on the order and come back in its webhook events
+    GatewayOrder createOrder(long amount, String currency, String receipt, Map<String, String> notes);
+
+    // Checks the signature the payment form returns for orderId|paymentId
+    boolean verifyPaymentSignature(String orderId, String paymentId, String signature);
+
+    // Checks the signature header of a webhook call against its raw body
+    boolean verifyWebhookSignature(String body, String signature);
+}
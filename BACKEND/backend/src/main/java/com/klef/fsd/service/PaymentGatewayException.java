@@ -0,0 +1,15 @@
+package com.klef.fsd.service;
+
+// The payment provider could not be reached or refused the request
+public class PaymentGatewayException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PaymentGatewayException(String message) {
+        super(message);
+    }
+
+    public PaymentGatewayException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,102 @@
+package com.klef.fsd.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.klef.fsd.model.Product;
+
+/**
+ * Bounded product-by-id cache in front of ProductRepository.findById.
+ * Caffeine's W-TinyLFU admission keeps hot products resident under
+ * flash-sale traffic; entries are weighed by their approximate heap size.
+ * Callers get their own copy, so editing a product before saving it never
+ * shows half-applied changes to concurrent readers.
+ */
+@Component
+public class ProductCache {
+
+    private final Cache<String, Product> cache;
+
+    public ProductCache(@Value("${product.cache.max-bytes:33554432}") long maxBytes,
+            @Value("${product.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, Product product) -> weigh(product))
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns a copy of the cached product or loads it; a null from the loader is not cached.
+     */
+    public Product get(String id, Function<String, Product> loader) {
+        if (id == null) {
+            return null;
+        }
+        Product product = cache.get(id, loader);
+        return product != null ? copy(product) : null;
+    }
+
+    public void invalidate(String id) {
+        if (id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("evictionWeight", stats.evictionWeight());
+        result.put("estimatedSize", cache.estimatedSize());
+        cache.policy().eviction().ifPresent(eviction -> {
+            result.put("weightedSizeBytes", eviction.weightedSize().orElse(0L));
+            result.put("maximumBytes", eviction.getMaximum());
+        });
+        return result;
+    }
+
+    private static Product copy(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setCategory(product.getCategory());
+        copy.setName(product.getName());
+        copy.setDescription(product.getDescription());
+        copy.setCost(product.getCost());
+        copy.setImageUrl(product.getImageUrl());
+        copy.setSku(product.getSku());
+        copy.setImportHash(product.getImportHash());
+        copy.setImageStatus(product.getImageStatus());
+        copy.setImageUploadToken(product.getImageUploadToken());
+        copy.setImageHash(product.getImageHash());
+        copy.setSeller(product.getSeller());
+        return copy;
+    }
+
+    // Rough heap footprint: object headers plus two bytes per string character
+    private static int weigh(Product product) {
+        long chars = length(product.getId()) + length(product.getName()) + length(product.getCategory())
+                + length(product.getDescription()) + length(product.getImageUrl());
+        if (product.getSeller() != null) {
+            chars += length(product.getSeller().getName()) + length(product.getSeller().getEmail())
+                    + length(product.getSeller().getLocation()) + 128;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 256 + chars * 2);
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.klef.fsd.dto.ImportJobDTO;
+
+public interface ProductImportService {
+
+	// Spools the file and queues the import; returns immediately with the job to poll
+	public ImportJobDTO startImport(String sellerId, MultipartFile file, boolean sync) throws IOException;
+
+	// Null when the job is unknown or has expired
+	public ImportJobDTO getImportJob(String jobId);
+
+}
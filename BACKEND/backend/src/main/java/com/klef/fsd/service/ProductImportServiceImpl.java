@@ -0,0 +1,523 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.klef.fsd.dto.ImportJobDTO;
+import com.klef.fsd.importer.CsvRowReader;
+import com.klef.fsd.importer.ImportJob;
+import com.klef.fsd.importer.ImportRow;
+import com.klef.fsd.importer.ImportRowReader;
+import com.klef.fsd.importer.NdjsonRowReader;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.repository.SellerRepository;
+import com.klef.fsd.util.MongoIds;
+import com.mongodb.bulk.BulkWriteError;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Bulk product import. The upload is spooled to a temp file and processed on a
+ * background job: rows are read and validated one at a time, collected into
+ * batches, their images uploaded on a bounded pool, and each batch written with
+ * a single unordered bulk write. Sync mode diffs each row's hash against the
+ * seller's imported products, writes only changed rows and deletes skus that are
+ * missing from the file.
+ */
+@Service
+public class ProductImportServiceImpl implements ProductImportService {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProductImportServiceImpl.class);
+
+	private enum Format {
+		CSV, NDJSON, ZIP
+	}
+
+	// What sync needs to know about a product the seller imported before
+	private record Existing(String id, String hash, String imageUrl, String imageHash) {
+	}
+
+	// An uploaded image: hash is set when the product holds a registry reference to it, key when
+	// the store reported no hash, so the upload is under a key of its own and must be deleted if unused
+	private record Upload(String url, String hash, String key) {
+	}
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private SellerRepository sellerRepository;
+
+	@Autowired
+	private ImageStore imageStore;
+
+	@Autowired
+	private ImageRegistry imageRegistry;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final int batchSize;
+	private final ExecutorService jobExecutor;
+	private final ExecutorService imageExecutor;
+
+	// Finished jobs stay pollable for a day
+	private final Cache<String, ImportJob> jobs = Caffeine.newBuilder()
+			.expireAfterWrite(Duration.ofHours(24))
+			.maximumSize(1000)
+			.build();
+
+	public ProductImportServiceImpl(@Value("${import.batch-size:500}") int batchSize,
+			@Value("${import.image-parallelism:4}") int imageParallelism,
+			@Value("${import.max-concurrent-jobs:2}") int maxConcurrentJobs) {
+		this.batchSize = Math.max(1, batchSize);
+		this.jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(maxConcurrentJobs * 4), runnable -> new Thread(runnable, "product-import"));
+		this.imageExecutor = Executors.newFixedThreadPool(imageParallelism,
+				runnable -> new Thread(runnable, "product-import-image"));
+	}
+
+	@Override
+	public ImportJobDTO startImport(String sellerId, MultipartFile file, boolean sync) throws IOException {
+		if (file == null || file.isEmpty()) {
+			throw new IllegalArgumentException("Import file is required");
+		}
+		Seller seller = sellerRepository.findById(sellerId)
+				.orElseThrow(() -> new IllegalArgumentException("Seller not found with ID: " + sellerId));
+		Format format = formatOf(file.getOriginalFilename());
+
+		Path spooled = Files.createTempFile("product-import-", "." + format.name().toLowerCase(Locale.ROOT));
+		try (InputStream in = file.getInputStream()) {
+			Files.copy(in, spooled, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		ImportJob job = new ImportJob(UUID.randomUUID().toString(), sellerId, sync);
+		jobs.put(job.getId(), job);
+		try {
+			jobExecutor.execute(() -> run(job, seller, spooled, format));
+		} catch (RejectedExecutionException e) {
+			jobs.invalidate(job.getId());
+			Files.deleteIfExists(spooled);
+			throw new IllegalStateException("Too many imports in progress, try again later");
+		}
+		return job.toDTO();
+	}
+
+	@Override
+	public ImportJobDTO getImportJob(String jobId) {
+		ImportJob job = jobs.getIfPresent(jobId);
+		return job != null ? job.toDTO() : null;
+	}
+
+	private void run(ImportJob job, Seller seller, Path spooled, Format format) {
+		job.start();
+		try (ZipFile zip = format == Format.ZIP ? new ZipFile(spooled.toFile()) : null;
+				ImportRowReader reader = openReader(spooled, format, zip)) {
+			Map<String, Existing> existing = job.isSync() ? loadExisting(seller.getId()) : Map.of();
+			Map<String, ZipEntry> images = zip != null ? indexImages(zip) : Map.of();
+			Set<String> seenSkus = new HashSet<>();
+			List<ImportRow> batch = new ArrayList<>(batchSize);
+
+			Map<String, String> values;
+			while ((values = reader.next()) != null) {
+				job.rowRead();
+				ImportRow row;
+				try {
+					row = ImportRow.parse(reader.rowNumber(), values, job.isSync());
+				} catch (IllegalArgumentException e) {
+					// An invalid row still claims its sku, so sync does not delete the product
+					String sku = values.get("sku");
+					if (sku != null && !sku.isBlank()) {
+						seenSkus.add(sku.trim());
+					}
+					job.fail(reader.rowNumber(), e.getMessage());
+					continue;
+				}
+				if (row.getSku() != null && !seenSkus.add(row.getSku())) {
+					job.fail(row.getRowNumber(), "duplicate sku " + row.getSku());
+					continue;
+				}
+				Existing current = row.getSku() != null ? existing.get(row.getSku()) : null;
+				if (current != null && row.getHash().equals(current.hash())) {
+					job.unchanged();
+					continue;
+				}
+				batch.add(row);
+				if (batch.size() >= batchSize) {
+					writeBatch(job, seller, batch, existing, zip, images);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				writeBatch(job, seller, batch, existing, zip, images);
+			}
+			if (job.isSync()) {
+				deleteMissing(job, existing, seenSkus);
+			}
+			job.finish(true);
+		} catch (Exception e) {
+			logger.warn("Product import {} failed: {}", job.getId(), e.getMessage());
+			job.error("Import aborted: " + e.getMessage());
+			job.finish(false);
+		} finally {
+			try {
+				Files.deleteIfExists(spooled);
+			} catch (IOException e) {
+				logger.warn("Could not delete import spool file {}", spooled);
+			}
+		}
+	}
+
+	private void writeBatch(ImportJob job, Seller seller, List<ImportRow> batch, Map<String, Existing> existing,
+			ZipFile zip, Map<String, ZipEntry> images) throws InterruptedException {
+		// Upload the batch's images in parallel before touching Mongo
+		List<Future<Upload>> uploads = new ArrayList<>(batch.size());
+		for (ImportRow row : batch) {
+			uploads.add(row.getImage() != null ? imageExecutor.submit(() -> uploadImage(row.getImage(), zip, images))
+					: null);
+		}
+
+		BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+		List<Product> written = new ArrayList<>(batch.size());
+		List<ImportRow> writtenRows = new ArrayList<>(batch.size());
+		Set<String> insertedIds = new HashSet<>();
+		Map<String, String> replacedHashes = new HashMap<>(); // product id -> registry reference to give back
+		Map<String, Upload> uploadByProduct = new HashMap<>(); // the image each written row brought along
+		for (int i = 0; i < batch.size(); i++) {
+			ImportRow row = batch.get(i);
+			Upload upload = null;
+			if (uploads.get(i) != null) {
+				try {
+					upload = uploads.get(i).get();
+				} catch (ExecutionException e) {
+					job.fail(row.getRowNumber(), "image upload failed: " + e.getCause().getMessage());
+					continue;
+				} catch (InterruptedException e) {
+					uploadByProduct.values().forEach(this::discardUpload);
+					throw e;
+				}
+			}
+			String imageUrl = upload != null ? upload.url() : null;
+			String imageHash = upload != null ? upload.hash() : null;
+
+			Existing current = row.getSku() != null ? existing.get(row.getSku()) : null;
+			Product product = new Product();
+			product.setName(row.getName());
+			product.setCategory(row.getCategory());
+			product.setDescription(row.getDescription());
+			product.setCost(row.getCost());
+			product.setSku(row.getSku());
+			product.setImportHash(row.getHash());
+			product.setSeller(seller);
+			if (current == null) {
+				// Ids are assigned here so the caches and indexes can be told about the new products
+				product.setId(new ObjectId().toHexString());
+				product.setImageUrl(imageUrl);
+				product.setImageHash(imageHash);
+				operations.insert(product);
+				insertedIds.add(product.getId());
+			} else {
+				product.setId(current.id());
+				product.setImageUrl(imageUrl != null ? imageUrl : current.imageUrl());
+				Update update = new Update()
+						.set("name", product.getName())
+						.set("category", product.getCategory())
+						.set("description", product.getDescription())
+						.set("cost", product.getCost())
+						.set("importHash", product.getImportHash());
+				if (imageUrl != null) {
+					// The imported image replaces whatever was there, including an upload still in flight:
+					// clearing the token makes that upload give up instead of overwriting this one
+					update.set("imageUrl", imageUrl)
+							.set("imageStatus", ImageIngestionService.READY)
+							.unset("imageUploadToken");
+					if (imageHash != null) {
+						update.set("imageHash", imageHash);
+					} else {
+						update.unset("imageHash");
+					}
+					if (current.imageHash() != null) {
+						replacedHashes.put(current.id(), current.imageHash());
+					}
+				}
+				operations.updateOne(new Query(Criteria.where("_id").is(MongoIds.of(current.id()))), update);
+			}
+			if (upload != null) {
+				uploadByProduct.put(product.getId(), upload);
+			}
+			written.add(product);
+			writtenRows.add(row);
+		}
+		if (written.isEmpty()) {
+			return;
+		}
+
+		try {
+			operations.execute();
+		} catch (BulkOperationException e) {
+			// Unordered: the other operations were applied, so only the reported ones are dropped
+			Set<Integer> rejected = new HashSet<>();
+			for (BulkWriteError error : e.getErrors()) {
+				rejected.add(error.getIndex());
+				job.fail(writtenRows.get(error.getIndex()).getRowNumber(), error.getMessage());
+			}
+			List<Product> applied = new ArrayList<>(written.size());
+			for (int i = 0; i < written.size(); i++) {
+				if (!rejected.contains(i)) {
+					applied.add(written.get(i));
+				} else {
+					// No product points at the image
+					discardUpload(uploadByProduct.get(written.get(i).getId()));
+				}
+			}
+			written = applied;
+		} catch (RuntimeException e) {
+			// Nothing is known to be written and the job aborts
+			uploadByProduct.values().forEach(this::discardUpload);
+			throw e;
+		}
+
+		int inserts = 0;
+		for (Product product : written) {
+			if (insertedIds.contains(product.getId())) {
+				inserts++;
+			}
+		}
+		for (Product product : written) {
+			String replaced = replacedHashes.get(product.getId());
+			if (replaced != null) {
+				imageRegistry.release(replaced);
+			}
+		}
+		job.inserted(inserts);
+		job.updated(written.size() - inserts);
+		productService.productsImported(written, List.of());
+	}
+
+	// Goes through ImageRegistry like a single upload, so bytes already uploaded are reused and
+	// a stored file shared with other products is not deleted while these products use it
+	private Upload uploadImage(String image, ZipFile zip, Map<String, ZipEntry> images)
+			throws IOException, InterruptedException {
+		String lower = image.toLowerCase(Locale.ROOT);
+		if (lower.startsWith("http://") || lower.startsWith("https://")) {
+			// The store fetches the bytes itself; it reports their hash when it computed one
+			ImageStore.StoredImage stored = imageStore.storeFromUrl(image);
+			return stored.hash() != null ? register(stored.hash(), stored, () -> imageStore.storeFromUrl(image))
+					: new Upload(stored.url(), null, stored.key());
+		}
+		ZipEntry entry = images.get(baseName(image));
+		if (zip == null || entry == null) {
+			throw new IOException("image " + image + " not found in the upload");
+		}
+		Path extracted = Files.createTempFile("product-import-image-", null);
+		try {
+			MessageDigest digest = sha256();
+			try (InputStream in = new DigestInputStream(zip.getInputStream(entry), digest)) {
+				Files.copy(in, extracted, StandardCopyOption.REPLACE_EXISTING);
+			}
+			String hash = HexFormat.of().formatHex(digest.digest());
+			String url = imageRegistry.acquire(hash);
+			if (url != null) {
+				return new Upload(url, hash, null);
+			}
+			return register(hash, imageStore.store(extracted), () -> imageStore.store(extracted));
+		} finally {
+			Files.deleteIfExists(extracted);
+		}
+	}
+
+	private Upload register(String hash, ImageStore.StoredImage stored, ImageRegistry.Reupload reupload)
+			throws IOException, InterruptedException {
+		String sharedUrl = imageRegistry.registerUpload(hash, stored, reupload);
+		if (sharedUrl == null) {
+			// Our upload may be the very file being deleted, so there is no copy of our own to fall back on
+			throw new IOException("image is being cleaned up, import the row again later");
+		}
+		return new Upload(sharedUrl, hash, null);
+	}
+
+	// For an image no product ended up pointing at
+	private void discardUpload(Upload upload) {
+		if (upload == null) {
+			return;
+		}
+		try {
+			if (upload.hash() != null) {
+				imageRegistry.release(upload.hash());
+			} else if (upload.key() != null) {
+				deleteUpload(upload.key());
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Could not discard unused image {}: {}", upload.url(), e.getMessage());
+		}
+	}
+
+	private void deleteUpload(String key) {
+		try {
+			imageStore.delete(key);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not delete unused image upload {}: {}", key, e.getMessage());
+		}
+	}
+
+	private void deleteMissing(ImportJob job, Map<String, Existing> existing, Set<String> seenSkus) {
+		List<String> missing = new ArrayList<>();
+		for (Map.Entry<String, Existing> entry : existing.entrySet()) {
+			if (!seenSkus.contains(entry.getKey())) {
+				missing.add(entry.getValue().id());
+			}
+		}
+		for (int start = 0; start < missing.size(); start += batchSize) {
+			List<String> ids = missing.subList(start, Math.min(start + batchSize, missing.size()));
+			List<String> removed = new ArrayList<>(ids.size());
+			for (String id : ids) {
+				// One at a time so only the call that removed a product releases its image, not a concurrent delete too
+				Query byId = new Query(Criteria.where("_id").is(MongoIds.of(id)));
+				byId.fields().include("imageHash");
+				Document product = mongoTemplate.findAndRemove(byId, Document.class, "products");
+				if (product == null) {
+					continue;
+				}
+				removed.add(id);
+				try {
+					imageRegistry.release(product.getString("imageHash"));
+				} catch (RuntimeException e) {
+					// Left referenced: the file stays, it is never deleted from under a product
+					logger.warn("Could not release image of deleted product {}: {}", id, e.getMessage());
+				}
+			}
+			job.deleted(removed.size());
+			// Also removes their cart lines
+			productService.productsImported(List.of(), removed);
+		}
+	}
+
+	// Only products that came from an import carry a sku; hand-added ones are never touched by sync
+	private Map<String, Existing> loadExisting(String sellerId) {
+		Query query = new Query(Criteria.where("seller.$id").is(MongoIds.of(sellerId)).and("sku").exists(true));
+		query.fields().include("sku", "importHash", "imageUrl", "imageHash");
+		Map<String, Existing> existing = new HashMap<>();
+		mongoTemplate.executeQuery(query, "products", document -> existing.put(document.getString("sku"),
+				new Existing(document.get("_id").toString(), document.getString("importHash"),
+						document.getString("imageUrl"), document.getString("imageHash"))));
+		return existing;
+	}
+
+	private ImportRowReader openReader(Path spooled, Format format, ZipFile zip) throws IOException {
+		if (format == Format.ZIP) {
+			// The first CSV or NDJSON entry is the manifest; everything else is an image
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || entry.getName().startsWith("__MACOSX/")) {
+					continue;
+				}
+				String name = entry.getName().toLowerCase(Locale.ROOT);
+				if (name.endsWith(".csv") || name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+					InputStreamReader manifest = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8);
+					return name.endsWith(".csv") ? new CsvRowReader(manifest)
+							: new NdjsonRowReader(manifest, objectMapper);
+				}
+			}
+			throw new IllegalArgumentException("ZIP contains no .csv or .ndjson manifest");
+		}
+		InputStreamReader in = new InputStreamReader(Files.newInputStream(spooled), StandardCharsets.UTF_8);
+		return format == Format.CSV ? new CsvRowReader(in) : new NdjsonRowReader(in, objectMapper);
+	}
+
+	private static Map<String, ZipEntry> indexImages(ZipFile zip) {
+		Map<String, ZipEntry> images = new HashMap<>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && !entry.getName().startsWith("__MACOSX/")) {
+				images.putIfAbsent(baseName(entry.getName()), entry);
+			}
+		}
+		return images;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String baseName(String path) {
+		int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+		return path.substring(slash + 1);
+	}
+
+	private static Format formatOf(String filename) {
+		String name = filename != null ? filename.toLowerCase(Locale.ROOT) : "";
+		if (name.endsWith(".csv")) {
+			return Format.CSV;
+		}
+		if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+			return Format.NDJSON;
+		}
+		if (name.endsWith(".zip")) {
+			return Format.ZIP;
+		}
+		throw new IllegalArgumentException("Import file must be .csv, .ndjson, .jsonl or .zip");
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		jobExecutor.shutdownNow();
+		imageExecutor.shutdownNow();
+	}
+}
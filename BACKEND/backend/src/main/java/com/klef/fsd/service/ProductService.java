@@ -2,9 +2,13 @@ package com.klef.fsd.service;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.web.multipart.MultipartFile;
 
+import com.klef.fsd.dto.BrowseResultDTO;
+import com.klef.fsd.dto.CursorPage;
+import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Product;
 
 public interface ProductService {
@@ -15,14 +19,36 @@ public interface ProductService {
 	
 	public String deleteProduct(String pid) throws IOException;
 
-	public List<Product> viewallProducts();
+	public List<ProductDTO> viewallProducts();
 
-	public List<Product> viewProductsBySeller(String sid);
+	public List<ProductDTO> viewProductsBySeller(String sid);
 
-	public List<Product> viewProductsByCategory(String category);
+	public List<ProductDTO> viewProductsByCategory(String category);
 	
 	public Product viewProductById(String sid);
 	
 	public Product getProductById(String pid);
 
+	public Map<String, Object> getProductCacheStats();
+
+	// Called by bulk import after products were written or deleted behind this service
+	public void productsImported(List<Product> saved, List<String> deletedIds);
+
+	public List<ProductDTO> searchProducts(String query, Integer limit);
+
+	public List<String> suggestProductNames(String prefix, Integer limit);
+
+	// Frequently bought together, topped up with same-category products; null if the product does not exist
+	public List<ProductDTO> recommendProducts(String productId, Integer limit);
+
+	// Best sellers in the last hour, day or week, optionally within one category
+	public List<ProductDTO> trendingProducts(String category, String window, Integer limit);
+
+	public BrowseResultDTO browseProducts(String category, Double minPrice, Double maxPrice, String sellerId,
+			String sort, Integer offset, Integer limit);
+
+	public CursorPage<ProductDTO> viewProductsPage(String after, Integer limit, String sort);
+
+	public CursorPage<ProductDTO> viewProductsBySellerPage(String sid, String after, Integer limit);
+
 }
@@ -1,18 +1,41 @@
 package com.klef.fsd.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.klef.fsd.dto.BrowseResultDTO;
+import com.klef.fsd.dto.CursorPage;
+import com.klef.fsd.dto.ProductDTO;
 import com.klef.fsd.model.Product;
-import com.klef.fsd.model.Seller;
 import com.klef.fsd.repository.ProductRepository;
-import com.klef.fsd.repository.SellerRepository;
+import com.klef.fsd.search.CatalogIndexer;
+import com.klef.fsd.search.ProductFacetIndex;
+import com.klef.fsd.search.ProductSearchIndex;
+import com.klef.fsd.search.RecommendationIndex;
+import com.klef.fsd.search.SuggestIndex;
+import com.klef.fsd.search.TrendingIndex;
+import com.klef.fsd.service.ImageIngestionService.SpooledImage;
+import com.klef.fsd.util.CursorCodec;
+import com.klef.fsd.util.MongoIds;
 
 @Service
 public class ProductServiceImpl implements ProductService {
@@ -21,37 +44,94 @@ public class ProductServiceImpl implements ProductService {
 	private ProductRepository productRepository;
 
 	@Autowired
-	private SellerRepository sellerRepository;
+	private ImageIngestionService imageIngestionService;
 
 	@Autowired
-	private CloudinaryService cloudinaryService;
+	private ImageRegistry imageRegistry;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private ProductCache productCache;
+
+	@Autowired
+	private CatalogIndexer catalogIndexer;
+
+	@Autowired
+	private CatalogVersion catalogVersion;
+
+	@Autowired
+	private CatalogSnapshot catalogSnapshot;
+
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	@Autowired
+	private ProductFacetIndex productFacetIndex;
+
+	@Autowired
+	private SuggestIndex suggestIndex;
+
+	@Autowired
+	private RecommendationIndex recommendationIndex;
+
+	@Autowired
+	private TrendingIndex trendingIndex;
+
+	// Lazy: the cart services look products up through this service
+	@Autowired
+	@Lazy
+	private CartService cartService;
 
 	@Override
 	public String addProduct(Product product, MultipartFile imageFile) throws IOException {
-		// Upload image to Cloudinary
+		// Spool the image now; Cloudinary upload, if still needed, happens after the product is published
+		SpooledImage pending = null;
+		String acquired = null; // registry reference to give back if the product is never saved
 		if (imageFile != null && !imageFile.isEmpty()) {
-			Map<String, Object> uploadResult = cloudinaryService.uploadImage(imageFile, "llcart/products");
-			String imageUrl = (String) uploadResult.get("secure_url");
-			product.setImageUrl(imageUrl);
+			SpooledImage image = imageIngestionService.spool(imageFile);
+			if (attachImage(product, image)) {
+				acquired = image.hash();
+			} else {
+				pending = image;
+			}
+		}
+		try {
+			Product saved = productRepository.save(product);
+			acquired = null;
+			catalogIndexer.productSaved(saved);
+			catalogChanged();
+			if (pending != null) {
+				imageIngestionService.submit(saved.getId(), saved.getImageUploadToken(), pending,
+						() -> imageUpdated(saved.getId()));
+				pending = null;
+			}
+		} finally {
+			imageRegistry.release(acquired);
+			if (pending != null) {
+				imageIngestionService.discard(pending);
+			}
 		}
-		productRepository.save(product);
 		return "Product Added Successfully";
 	}
 
 	@Override
-	public List<Product> viewallProducts() {
-		return productRepository.findAll();
+	public List<ProductDTO> viewallProducts() {
+		return productRepository.findSummaries(null, null, 0);
 	}
 
 	@Override
-	public List<Product> viewProductsByCategory(String category) {
-		return productRepository.findByCategory(category);
+	public List<ProductDTO> viewProductsByCategory(String category) {
+		if (productFacetIndex.isReady()) {
+			return productFacetIndex.browse(category, null, null, null, null, 0, Integer.MAX_VALUE).getProducts();
+		}
+		return productRepository.findSummaries(Criteria.where("category").is(category), null, 0);
 	}
 
 	@Override
-	public List<Product> viewProductsBySeller(String sid) {
-		Seller seller = sellerRepository.findById(sid).orElse(null);
-		return productRepository.findBySeller(seller);
+	public List<ProductDTO> viewProductsBySeller(String sid) {
+		return productRepository.findSummaries(Criteria.where("seller.$id").is(MongoIds.of(sid)), null, 0);
 	}
 
 	@Override
@@ -60,6 +140,12 @@ public class ProductServiceImpl implements ProductService {
 		if (productOpt.isPresent()) {
 			Product product = productOpt.get();
 			productRepository.delete(product);
+			imageRegistry.release(product.getImageHash());
+			// Its lines would otherwise hold cart slots without showing up in the cart
+			cartService.removeProductsFromAllCarts(List.of(pid));
+			productCache.invalidate(pid);
+			catalogIndexer.productDeleted(pid);
+			catalogChanged();
 			return "Product Deleted Successfully";
 		}
 		return "Product Not found";
@@ -67,33 +153,354 @@ public class ProductServiceImpl implements ProductService {
 
 	@Override
 	public Product viewProductById(String sid) {
-		return productRepository.findById(sid).orElse(null);
+		return getProductById(sid);
 	}
 
 	@Override
 	public String updateProduct(Product product, MultipartFile imageFile) throws IOException {
-		Optional<Product> existingOpt = productRepository.findById(product.getId());
-		if (existingOpt.isPresent()) {
-			Product existing = existingOpt.get();
-			
-			// Update image if new file provided
+		SpooledImage pending = null;
+		String acquired = null;
+		boolean written = false; // may have modified the product
+		try {
+			// Only the edited fields: a full save would put back whatever image state the caller read,
+			// overwriting an upload the worker patched in meanwhile (and sku/importHash from an import)
+			Update update = new Update().set("category", product.getCategory()).set("name", product.getName())
+					.set("description", product.getDescription()).set("cost", product.getCost())
+					.set("seller", product.getSeller());
 			if (imageFile != null && !imageFile.isEmpty()) {
-				Map<String, Object> uploadResult = cloudinaryService.uploadImage(imageFile, "llcart/products");
-				String imageUrl = (String) uploadResult.get("secure_url");
-				product.setImageUrl(imageUrl);
-			} else {
-				// Keep existing image
-				product.setImageUrl(existing.getImageUrl());
+				SpooledImage image = imageIngestionService.spool(imageFile);
+				if (attachImage(product, image)) {
+					acquired = image.hash();
+					update.set("imageUrl", product.getImageUrl()).set("imageHash", product.getImageHash())
+							.set("imageStatus", product.getImageStatus()).unset("imageUploadToken");
+				} else {
+					// The current image stays visible until the upload finishes; the new token
+					// supersedes any older upload still in flight
+					pending = image;
+					update.set("imageStatus", product.getImageStatus())
+							.set("imageUploadToken", product.getImageUploadToken());
+				}
+			}
+
+			// Returns the document as it was just before this write, so the replaced image is exact.
+			// A findAndModify that throws may still have been applied.
+			written = true;
+			Product previous = mongoTemplate.findAndModify(
+					new Query(Criteria.where("_id").is(MongoIds.of(product.getId()))), update, Product.class);
+			if (previous == null) {
+				written = false;
+				return "Product Not found";
+			}
+			if (acquired != null) {
+				acquired = null;
+				// A pending image's upload worker does this once the new image is patched in
+				imageRegistry.release(previous.getImageHash());
+			}
+
+			// What was just written, for the indexes
+			Product saved = previous;
+			saved.setCategory(product.getCategory());
+			saved.setName(product.getName());
+			saved.setDescription(product.getDescription());
+			saved.setCost(product.getCost());
+			saved.setSeller(product.getSeller());
+			if (imageFile != null && !imageFile.isEmpty()) {
+				if (pending == null) {
+					saved.setImageUrl(product.getImageUrl());
+					saved.setImageHash(product.getImageHash());
+				}
+				saved.setImageStatus(product.getImageStatus());
+				saved.setImageUploadToken(product.getImageUploadToken());
+			}
+			catalogIndexer.productSaved(saved);
+			if (pending != null) {
+				imageIngestionService.submit(saved.getId(), saved.getImageUploadToken(), pending,
+						() -> imageUpdated(saved.getId()));
+				pending = null;
+			}
+			return "Product Updated Successfully";
+		} finally {
+			// A write that failed never took over the acquired reference
+			imageRegistry.release(acquired);
+			if (written) {
+				// Invalidate even on failure so the cache never outlives a partial update
+				productCache.invalidate(product.getId());
+				// Bumped last so no client can pair the new ETag with the old representation
+				catalogChanged();
+			}
+			if (pending != null) {
+				imageIngestionService.discard(pending);
 			}
 		}
-		
-		productRepository.save(product);
-		return "Product Updated Successfully";
+	}
+
+	/**
+	 * Points the product at an already uploaded copy of the image when one exists and
+	 * returns true; otherwise marks it PENDING for the upload worker and returns false.
+	 */
+	private boolean attachImage(Product product, SpooledImage image) {
+		String url = imageRegistry.acquire(image.hash());
+		if (url == null) {
+			product.setImageStatus(ImageIngestionService.PENDING);
+			// An ObjectId, so a stale upload can be told by its age
+			product.setImageUploadToken(new ObjectId().toHexString());
+			return false;
+		}
+		imageIngestionService.discard(image);
+		product.setImageUrl(url);
+		product.setImageHash(image.hash());
+		product.setImageStatus(ImageIngestionService.READY);
+		// Also cancels any older upload still in flight for this product
+		product.setImageUploadToken(null);
+		return true;
+	}
+
+	// Uploads cut off by a restart; the first sweep runs shortly after startup
+	@Scheduled(fixedDelayString = "${image.upload.sweep-interval-ms:600000}",
+			initialDelayString = "${image.upload.sweep-initial-delay-ms:60000}")
+	public void sweepStaleImageUploads() {
+		imageIngestionService.sweepStale(this::imageUpdated);
+	}
+
+	// Runs on the upload worker once imageUrl or imageStatus has been patched
+	private void imageUpdated(String productId) {
+		productCache.invalidate(productId);
+		productRepository.findById(productId).ifPresent(catalogIndexer::productSaved);
+		catalogChanged();
 	}
 
 	@Override
 	public Product getProductById(String id) {
-	    return productRepository.findById(id).orElse(null);
+	    return productCache.get(id, pid -> productRepository.findById(pid).orElse(null));
+	}
+
+	@Override
+	public List<ProductDTO> searchProducts(String query, Integer limit) {
+		return productSearchIndex.search(query, CursorCodec.clampLimit(limit));
+	}
+
+	@Override
+	public List<String> suggestProductNames(String prefix, Integer limit) {
+		return suggestIndex.suggest(prefix, limit != null ? limit : SuggestIndex.TOP_K);
+	}
+
+	@Override
+	public List<ProductDTO> recommendProducts(String productId, Integer limit) {
+		int size = Math.min(limit != null && limit > 0 ? limit : 10, RecommendationIndex.TOP_K);
+		ProductDTO product = productFacetIndex.get(productId);
+		if (product == null) {
+			Product stored = getProductById(productId);
+			if (stored == null) {
+				return null;
+			}
+			product = new ProductDTO();
+			product.setId(stored.getId());
+			product.setCategory(stored.getCategory());
+		}
+
+		List<ProductDTO> results = new ArrayList<>(size);
+		Set<String> seen = new HashSet<>();
+		seen.add(productId);
+		if (productFacetIndex.isReady()) {
+			for (String id : recommendationIndex.recommend(productId, size)) {
+				// Deleted products stay in the co-purchase model but are no longer indexed
+				ProductDTO related = productFacetIndex.get(id);
+				if (related != null && seen.add(id)) {
+					results.add(related);
+				}
+			}
+		}
+		if (results.size() < size && product.getCategory() != null) {
+			List<ProductDTO> sameCategory = productFacetIndex.isReady()
+					? productFacetIndex.browse(product.getCategory(), null, null, null, null, 0, size + 1).getProducts()
+					: productRepository.findSummaries(Criteria.where("category").is(product.getCategory()), null,
+							size + 1);
+			for (ProductDTO related : sameCategory) {
+				if (results.size() < size && seen.add(related.getId())) {
+					results.add(related);
+				}
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public List<ProductDTO> trendingProducts(String category, String window, Integer limit) {
+		TrendingIndex.Window trendingWindow = TrendingIndex.Window.of(window);
+		int size = CursorCodec.clampLimit(limit);
+		List<ProductDTO> results = new ArrayList<>(size);
+		// Ask for a few extra in case some of the best sellers were deleted since
+		for (TrendingIndex.Entry entry : trendingIndex.top(category, trendingWindow, size * 2)) {
+			ProductDTO product = productFacetIndex.get(entry.productId());
+			if (product != null && results.size() < size) {
+				results.add(product);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public BrowseResultDTO browseProducts(String category, Double minPrice, Double maxPrice, String sellerId,
+			String sort, Integer offset, Integer limit) {
+		int start = offset != null ? offset : 0;
+		if (start < 0) {
+			throw new IllegalArgumentException("offset must not be negative");
+		}
+		if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+			throw new IllegalArgumentException("minPrice must not exceed maxPrice");
+		}
+		String categoryFilter = (category == null || category.isBlank()) ? null : category;
+		String sellerFilter = (sellerId == null || sellerId.isBlank()) ? null : sellerId;
+
+		if (!productFacetIndex.isReady()) {
+			return browseFromMongo(categoryFilter, minPrice, maxPrice, sellerFilter, sort, start,
+					CursorCodec.clampLimit(limit));
+		}
+		return productFacetIndex.browse(categoryFilter, minPrice, maxPrice, sellerFilter, sort, start,
+				CursorCodec.clampLimit(limit));
+	}
+
+	// Until the index is built (startup, or the rebuild is retrying): one page from Mongo, without facet counts
+	private BrowseResultDTO browseFromMongo(String category, Double minPrice, Double maxPrice, String sellerId,
+			String sort, int offset, int limit) {
+		Criteria criteria = new Criteria();
+		if (category != null) {
+			criteria.and("category").is(category);
+		}
+		if (sellerId != null) {
+			criteria.and("seller.$id").is(MongoIds.of(sellerId));
+		}
+		if (minPrice != null || maxPrice != null) {
+			Criteria cost = criteria.and("cost");
+			if (minPrice != null) {
+				cost.gte(minPrice);
+			}
+			if (maxPrice != null) {
+				cost.lte(maxPrice);
+			}
+		}
+		Sort order;
+		if ("priceLow".equals(sort)) {
+			order = Sort.by(Sort.Order.asc("cost"), Sort.Order.asc("_id"));
+		} else if ("priceHigh".equals(sort)) {
+			order = Sort.by(Sort.Order.desc("cost"), Sort.Order.asc("_id"));
+		} else {
+			order = Sort.by("_id");
+		}
+		BrowseResultDTO result = new BrowseResultDTO();
+		result.setProducts(productRepository.findSummaries(criteria, order, offset, limit));
+		result.setTotal((int) Math.min(Integer.MAX_VALUE, productRepository.countSummaries(criteria)));
+		result.setCategories(new TreeMap<>());
+		result.setPriceBuckets(new LinkedHashMap<>());
+		return result;
+	}
+
+	@Override
+	public void productsImported(List<Product> saved, List<String> deletedIds) {
+		for (Product product : saved) {
+			productCache.invalidate(product.getId());
+			catalogIndexer.productSaved(product);
+		}
+		if (!deletedIds.isEmpty()) {
+			cartService.removeProductsFromAllCarts(deletedIds);
+		}
+		for (String id : deletedIds) {
+			productCache.invalidate(id);
+			catalogIndexer.productDeleted(id);
+		}
+		if (!saved.isEmpty() || !deletedIds.isEmpty()) {
+			catalogChanged();
+		}
+	}
+
+	@Override
+	public Map<String, Object> getProductCacheStats() {
+		return productCache.stats();
+	}
+
+	@Override
+	public CursorPage<ProductDTO> viewProductsPage(String after, Integer limit, String sort) {
+		int size = CursorCodec.clampLimit(limit);
+		String order = (sort == null || sort.isBlank()) ? "default" : sort;
+		Criteria criteria = null;
+		Sort direction;
+		boolean costCursor = false;
+
+		switch (order) {
+		case "default": {
+			String[] cursor = CursorCodec.decode(after, 1);
+			if (cursor != null) {
+				criteria = Criteria.where("_id").gt(MongoIds.of(cursor[0]));
+			}
+			direction = Sort.by(Sort.Direction.ASC, "_id");
+			break;
+		}
+		case "newest": {
+			// ObjectIds grow with insertion time, so _id desc is newest first
+			String[] cursor = CursorCodec.decode(after, 1);
+			if (cursor != null) {
+				criteria = Criteria.where("_id").lt(MongoIds.of(cursor[0]));
+			}
+			direction = Sort.by(Sort.Direction.DESC, "_id");
+			break;
+		}
+		case "priceLow": {
+			String[] cursor = CursorCodec.decode(after, 2);
+			if (cursor != null) {
+				double cost = Double.parseDouble(cursor[0]);
+				criteria = new Criteria().orOperator(Criteria.where("cost").gt(cost),
+						Criteria.where("cost").is(cost).and("_id").gt(MongoIds.of(cursor[1])));
+			}
+			direction = Sort.by(Sort.Direction.ASC, "cost", "_id");
+			costCursor = true;
+			break;
+		}
+		case "priceHigh": {
+			String[] cursor = CursorCodec.decode(after, 2);
+			if (cursor != null) {
+				double cost = Double.parseDouble(cursor[0]);
+				criteria = new Criteria().orOperator(Criteria.where("cost").lt(cost),
+						Criteria.where("cost").is(cost).and("_id").lt(MongoIds.of(cursor[1])));
+			}
+			direction = Sort.by(Sort.Direction.DESC, "cost", "_id");
+			costCursor = true;
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Unsupported sort: " + sort);
+		}
+
+		// Fetch one extra row to learn whether another page exists
+		List<ProductDTO> rows = productRepository.findSummaries(criteria, direction, size + 1);
+		return toPage(rows, size, costCursor);
+	}
+
+	@Override
+	public CursorPage<ProductDTO> viewProductsBySellerPage(String sid, String after, Integer limit) {
+		int size = CursorCodec.clampLimit(limit);
+		String[] cursor = CursorCodec.decode(after, 1);
+		Criteria criteria = Criteria.where("seller.$id").is(MongoIds.of(sid));
+		if (cursor != null) {
+			criteria = criteria.and("_id").gt(MongoIds.of(cursor[0]));
+		}
+		List<ProductDTO> rows = productRepository.findSummaries(criteria, Sort.by(Sort.Direction.ASC, "_id"), size + 1);
+		return toPage(rows, size, false);
+	}
+
+	private void catalogChanged() {
+		catalogVersion.bump();
+		catalogSnapshot.scheduleRebuild();
+	}
+
+	private CursorPage<ProductDTO> toPage(List<ProductDTO> rows, int size, boolean costCursor) {
+		if (rows.size() <= size) {
+			return new CursorPage<>(rows, null);
+		}
+		List<ProductDTO> items = new ArrayList<>(rows.subList(0, size));
+		ProductDTO last = items.get(size - 1);
+		String next = costCursor ? CursorCodec.encode(Double.toString(last.getCost()), last.getId())
+				: CursorCodec.encode(last.getId());
+		return new CursorPage<>(items, next);
 	}
 
 }
@@ -0,0 +1,20 @@
+package com.klef.fsd.service;
+
+import java.util.List;
+
+// Products a paid checkout still refers to no longer exist, so no order can be built for them
+public class ProductUnavailableException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] productIds;
+
+    public ProductUnavailableException(List<String> productIds) {
+        super("Product not found with ID: " + String.join(", ", productIds));
+        this.productIds = productIds.toArray(new String[0]);
+    }
+
+    public List<String> getProductIds() {
+        return List.of(productIds);
+    }
+}
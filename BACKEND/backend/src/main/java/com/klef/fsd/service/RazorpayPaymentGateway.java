@@ -0,0 +1,110 @@
+package com.klef.fsd.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.razorpay.RazorpayException;
+import com.razorpay.Utils;
+
+/**
+ * Razorpay over one shared HttpClient, which keeps connections (and their TLS
+ * sessions) open between checkouts. RazorpayClient is not used for calls: every
+ * instance rebuilds the SDK's HTTP client and its timeouts cannot be configured.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.gateway", havingValue = "razorpay", matchIfMissing = true)
+public class RazorpayPaymentGateway implements PaymentGateway {
+
+    private final String keyId;
+    private final String secretKey;
+    private final String webhookSecret;
+    private final URI ordersUri;
+    private final Duration requestTimeout;
+    private final String authorization;
+    private final HttpClient httpClient;
+
+    public RazorpayPaymentGateway(@Value("${razorpay.key.id:}") String keyId,
+            @Value("${razorpay.secret.key:}") String secretKey,
+            @Value("${razorpay.webhook.secret:}") String webhookSecret,
+            @Value("${razorpay.api-url:https://api.razorpay.com/v1}") String apiUrl,
+            @Value("${payment.gateway.connect-timeout-ms:2000}") long connectTimeoutMillis,
+            @Value("${payment.gateway.request-timeout-ms:10000}") long requestTimeoutMillis) {
+        this.keyId = keyId;
+        this.secretKey = secretKey;
+        this.webhookSecret = webhookSecret;
+        this.ordersUri = URI.create(apiUrl + "/orders");
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((keyId + ":" + secretKey).getBytes(StandardCharsets.UTF_8));
+        this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(connectTimeoutMillis)).build();
+    }
+
+    @Override
+    public String keyId() {
+        return keyId;
+    }
+
+    @Override
+    public GatewayOrder createOrder(long amount, String currency, String receipt, Map<String, String> notes) {
+        if (keyId.isEmpty() || secretKey.isEmpty()) {
+            throw new IllegalStateException("Razorpay API keys are not configured properly. Check application.properties.");
+        }
+        JSONObject body = new JSONObject();
+        body.put("amount", amount);
+        body.put("currency", currency);
+        body.put("receipt", receipt);
+        body.put("notes", new JSONObject(notes));
+        HttpRequest request = HttpRequest.newBuilder(ordersUri).timeout(requestTimeout)
+                .header("Authorization", authorization).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            JSONObject json = new JSONObject(response.body());
+            if (response.statusCode() / 100 != 2) {
+                JSONObject error = json.optJSONObject("error");
+                throw new PaymentGatewayException("Razorpay returned " + response.statusCode() + ": "
+                        + (error != null ? error.optString("description") : response.body()));
+            }
+            return new GatewayOrder(json.getString("id"), json.getLong("amount"), json.getString("currency"));
+        } catch (IOException | JSONException e) {
+            throw new PaymentGatewayException("Razorpay request failed: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentGatewayException("Razorpay request interrupted", e);
+        }
+    }
+
+    @Override
+    public boolean verifyPaymentSignature(String orderId, String paymentId, String signature) {
+        try {
+            return Utils.verifySignature(orderId + "|" + paymentId, signature, secretKey);
+        } catch (RazorpayException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean verifyWebhookSignature(String body, String signature) {
+        if (webhookSecret.isEmpty() || signature == null) {
+            return false;
+        }
+        try {
+            return Utils.verifyWebhookSignature(body, signature, webhookSecret);
+        } catch (RazorpayException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.klef.fsd.service;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.razorpay.RazorpayException;
+import com.razorpay.Utils;
+
+/**
+ * In-process gateway for load tests (payment.gateway=stub). Order ids are a
+ * counter, failures come from a seeded random, and payment.stub.latency-ms is
+ * added to every order, so a run can be repeated exactly. Signatures use the same
+ * HMAC-SHA256 as Razorpay with payment.stub.secret, so a test client can sign
+ * orderId|paymentId (or a webhook body) itself and drive checkout end to end.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.gateway", havingValue = "stub")
+public class StubPaymentGateway implements PaymentGateway {
+
+    private final long latencyMillis;
+    private final double failureRate;
+    private final String secret;
+    private final Random random;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public StubPaymentGateway(@Value("${payment.stub.latency-ms:0}") long latencyMillis,
+            @Value("${payment.stub.failure-rate:0}") double failureRate,
+            @Value("${payment.stub.seed:42}") long seed,
+            @Value("${payment.stub.secret:stub_secret}") String secret) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.secret = secret;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public String keyId() {
+        return "rzp_test_stub";
+    }
+
+    @Override
+    public GatewayOrder createOrder(long amount, String currency, String receipt, Map<String, String> notes) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PaymentGatewayException("Stub gateway interrupted", e);
+            }
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new PaymentGatewayException("Stub gateway: injected failure");
+        }
+        return new GatewayOrder(String.format("order_stub%014d", sequence.incrementAndGet()), amount, currency);
+    }
+
+    @Override
+    public boolean verifyPaymentSignature(String orderId, String paymentId, String signature) {
+        try {
+            return Utils.verifySignature(orderId + "|" + paymentId, signature, secret);
+        } catch (RazorpayException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean verifyWebhookSignature(String body, String signature) {
+        if (signature == null) {
+            return false;
+        }
+        try {
+            return Utils.verifyWebhookSignature(body, signature, secret);
+        } catch (RazorpayException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.klef.fsd.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes keyset positions (last sort key + last _id) into opaque URL-safe
+ * cursors so clients can page with ?limit=&after= without knowing the sort.
+ */
+public final class CursorCodec {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    private static final String SEPARATOR = "\n";
+
+    private CursorCodec() {
+    }
+
+    public static String encode(String... parts) {
+        String raw = String.join(SEPARATOR, parts);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the cursor parts, or null for a missing cursor (first page).
+     * Throws IllegalArgumentException when the cursor was tampered with.
+     */
+    public static String[] decode(String cursor, int expectedParts) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String[] parts = raw.split(SEPARATOR, -1);
+        if (parts.length != expectedParts) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return parts;
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null || limit < 1) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+}
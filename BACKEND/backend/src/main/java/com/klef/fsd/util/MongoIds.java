@@ -0,0 +1,33 @@
+package com.klef.fsd.util;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBRef;
+
+/**
+ * Hand-written criteria bypass the entity mapping, so ids (and DBRef $id values)
+ * must be converted the same way Spring Data stores them.
+ */
+public final class MongoIds {
+
+    private MongoIds() {
+    }
+
+    public static Object of(String id) {
+        return id != null && ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    /**
+     * Id of a raw DBRef value, which the codec returns as a DBRef or a {$ref, $id} document.
+     */
+    public static String refId(Object ref) {
+        Object id = null;
+        if (ref instanceof DBRef) {
+            id = ((DBRef) ref).getId();
+        } else if (ref instanceof Document) {
+            id = ((Document) ref).get("$id");
+        }
+        return id != null ? id.toString() : null;
+    }
+}
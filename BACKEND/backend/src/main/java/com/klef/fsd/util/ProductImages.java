@@ -0,0 +1,26 @@
+package com.klef.fsd.util;
+
+import java.util.List;
+
+import com.klef.fsd.dto.ProductDTO;
+
+/**
+ * Placeholder for products without an image, shared by the controllers and
+ * the catalog snapshot so both produce the same JSON.
+ */
+public final class ProductImages {
+
+    public static final String PLACEHOLDER_URL = "https://placehold.co/300x200?text=No+Image";
+
+    private ProductImages() {
+    }
+
+    public static void applyFallback(List<ProductDTO> products) {
+        for (ProductDTO dto : products) {
+            String imageUrl = dto.getImageUrl();
+            if (imageUrl == null || imageUrl.trim().isEmpty()) {
+                dto.setImageUrl(PLACEHOLDER_URL);
+            }
+        }
+    }
+}
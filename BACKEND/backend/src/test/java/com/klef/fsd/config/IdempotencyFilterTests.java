@@ -0,0 +1,124 @@
+package com.klef.fsd.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klef.fsd.service.IdempotencyStore;
+import com.klef.fsd.service.IdempotencyStore.Outcome;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServlet;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyFilterTests {
+
+	private static final String PATH = "/payment/create-order";
+
+	@Mock
+	private IdempotencyStore idempotencyStore;
+
+	private IdempotencyFilter filter;
+
+	@BeforeEach
+	void setUp() {
+		filter = new IdempotencyFilter();
+		ReflectionTestUtils.setField(filter, "idempotencyStore", idempotencyStore);
+		ReflectionTestUtils.setField(filter, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(filter, "paths", List.of(PATH));
+		ReflectionTestUtils.setField(filter, "maxBodyBytes", 16);
+	}
+
+	@Test
+	void declaredOversizedBodyIsRefusedUnread() throws Exception {
+		MockHttpServletRequest request = request(new byte[64]);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		MockFilterChain chain = new MockFilterChain();
+
+		filter.doFilter(request, response, chain);
+
+		assertThat(response.getStatus()).isEqualTo(413);
+		assertThat(chain.getRequest()).isNull();
+		verifyNoInteractions(idempotencyStore);
+	}
+
+	@Test
+	void chunkedOversizedBodyIsCutOffAtTheLimit() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH) {
+			@Override
+			public long getContentLengthLong() {
+				return -1;
+			}
+		};
+		request.addHeader(IdempotencyFilter.HEADER, "k1");
+		request.setContent(new byte[64]);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		filter.doFilter(request, response, new MockFilterChain());
+
+		assertThat(response.getStatus()).isEqualTo(413);
+		assertThat(request.getInputStream().available()).isEqualTo(64 - 17);
+		verifyNoInteractions(idempotencyStore);
+	}
+
+	@Test
+	void bufferedBodyCanBeReadThroughAReadListener() throws Exception {
+		when(idempotencyStore.begin(any(), any())).thenReturn(new Outcome(IdempotencyStore.Kind.EXECUTE, null));
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		List<String> events = new ArrayList<>();
+		MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+		}, (request, response, next) -> {
+			ServletInputStream in = request.getInputStream();
+			in.setReadListener(new ReadListener() {
+				@Override
+				public void onDataAvailable() throws IOException {
+					events.add("data");
+					while (in.isReady() && !in.isFinished()) {
+						read.write(in.read());
+					}
+				}
+
+				@Override
+				public void onAllDataRead() {
+					events.add("all");
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					events.add("error");
+				}
+			});
+		});
+
+		filter.doFilter(request("{\"a\":1}".getBytes(StandardCharsets.UTF_8)), new MockHttpServletResponse(), chain);
+
+		assertThat(events).containsExactly("data", "all");
+		assertThat(read.toString(StandardCharsets.UTF_8)).isEqualTo("{\"a\":1}");
+	}
+
+	private static MockHttpServletRequest request(byte[] body) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+		request.addHeader(IdempotencyFilter.HEADER, "k1");
+		request.setContent(body);
+		return request;
+	}
+}
@@ -0,0 +1,122 @@
+package com.klef.fsd.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.repository.ProductRepository;
+import com.klef.fsd.repository.ProductRepositoryCustomImpl;
+import com.klef.fsd.service.CatalogSnapshot;
+import com.klef.fsd.service.CatalogVersion;
+import com.klef.fsd.service.ProductServiceImpl;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Counts the Mongo commands behind GET /product/viewallproducts when no catalog snapshot
+ * is built yet. Every product has its own seller, so resolving the seller DBRefs would cost
+ * one find per product. Needs a real MongoDB and runs with {@code mvn test -Pbenchmark}
+ * (see CartReadBenchmarkTests); the database is dropped afterwards.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark.mongodb.uri", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ProductCatalogQueryCountTests {
+
+	private static final int PRODUCTS = 50;
+
+	private final List<String> commands = new ArrayList<>();
+	private MongoClient client;
+	private MongoTemplate mongoTemplate;
+	private MockMvc mockMvc;
+
+	@BeforeAll
+	void seed() {
+		ConnectionString uri = new ConnectionString(System.getProperty("benchmark.mongodb.uri"));
+		client = MongoClients.create(MongoClientSettings.builder().applyConnectionString(uri)
+				.addCommandListener(new CommandListener() {
+					@Override
+					public void commandStarted(CommandStartedEvent event) {
+						synchronized (commands) {
+							commands.add(event.getCommandName());
+						}
+					}
+				}).build());
+		mongoTemplate = new MongoTemplate(client,
+				(uri.getDatabase() != null ? uri.getDatabase() : "cart_benchmark") + "_catalog");
+
+		for (int i = 0; i < PRODUCTS; i++) {
+			Seller seller = new Seller();
+			seller.setName("Seller " + i);
+			seller = mongoTemplate.insert(seller);
+			Product product = new Product();
+			product.setName("Product " + i);
+			product.setCategory("Electronics");
+			product.setCost(100 + i);
+			product.setSeller(seller);
+			mongoTemplate.insert(product);
+		}
+
+		ProductRepositoryCustomImpl custom = new ProductRepositoryCustomImpl();
+		ReflectionTestUtils.setField(custom, "mongoTemplate", mongoTemplate);
+		ProductRepository productRepository = new MongoRepositoryFactory(mongoTemplate)
+				.getRepository(ProductRepository.class, RepositoryFragments.just(custom));
+		ProductServiceImpl productService = new ProductServiceImpl();
+		ReflectionTestUtils.setField(productService, "productRepository", productRepository);
+		ProductController controller = new ProductController();
+		ReflectionTestUtils.setField(controller, "productService", productService);
+		ReflectionTestUtils.setField(controller, "catalogVersion", new CatalogVersion());
+		// Never rebuilt here, so the request takes the query path rather than the pre-serialised bytes
+		ReflectionTestUtils.setField(controller, "catalogSnapshot", new CatalogSnapshot(0, 0, 0));
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@AfterAll
+	void drop() {
+		if (mongoTemplate != null) {
+			mongoTemplate.getDb().drop();
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	@Test
+	void catalogPageIsOneFind() throws Exception {
+		synchronized (commands) {
+			commands.clear();
+		}
+
+		mockMvc.perform(get("/product/viewallproducts"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(PRODUCTS))
+				.andExpect(jsonPath("$[0].seller_id").isNotEmpty());
+
+		synchronized (commands) {
+			assertThat(commands).containsExactly("find");
+		}
+	}
+}
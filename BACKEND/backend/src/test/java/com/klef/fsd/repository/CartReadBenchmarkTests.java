@@ -0,0 +1,141 @@
+package com.klef.fsd.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.util.MongoIds;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Cart read before and after the aggregation: DBRef resolution per line versus one
+ * $lookup. Needs a real MongoDB, so it is not part of the normal test run; run it with
+ * {@code mvn test -Pbenchmark}, which uses mongodb://localhost:27017/cart_benchmark unless
+ * -Dbenchmark.mongodb.uri=... says otherwise (the database is dropped afterwards).
+ * The measurements are logged at INFO.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark.mongodb.uri", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CartReadBenchmarkTests {
+
+	private static final Logger logger = LoggerFactory.getLogger(CartReadBenchmarkTests.class);
+
+	private static final int LINES = 10;
+	private static final int ROUNDS = 200;
+
+	private final AtomicInteger commands = new AtomicInteger();
+	private MongoClient client;
+	private MongoTemplate mongoTemplate;
+	private CartRepositoryCustomImpl repository;
+	private String buyerId;
+
+	@BeforeAll
+	void seed() {
+		ConnectionString uri = new ConnectionString(System.getProperty("benchmark.mongodb.uri"));
+		client = MongoClients.create(MongoClientSettings.builder().applyConnectionString(uri)
+				.addCommandListener(new CommandListener() {
+					@Override
+					public void commandStarted(CommandStartedEvent event) {
+						commands.incrementAndGet();
+					}
+				}).build());
+		mongoTemplate = new MongoTemplate(client, uri.getDatabase() != null ? uri.getDatabase() : "cart_benchmark");
+		repository = new CartRepositoryCustomImpl();
+		ReflectionTestUtils.setField(repository, "mongoTemplate", mongoTemplate);
+
+		Buyer buyer = new Buyer();
+		buyer.setName("Benchmark buyer");
+		buyer = mongoTemplate.insert(buyer);
+		buyerId = buyer.getId();
+		for (int i = 0; i < LINES; i++) {
+			Seller seller = new Seller();
+			seller.setName("Seller " + i);
+			seller = mongoTemplate.insert(seller);
+			Product product = new Product();
+			product.setName("Product " + i);
+			product.setCost(100 + i);
+			product.setSeller(seller);
+			product = mongoTemplate.insert(product);
+			Cart cart = new Cart();
+			cart.setBuyer(buyer);
+			cart.setProduct(product);
+			cart.setQuantity(1);
+			mongoTemplate.insert(cart);
+		}
+	}
+
+	@AfterAll
+	void drop() {
+		if (mongoTemplate != null) {
+			mongoTemplate.getDb().drop();
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	@Test
+	void aggregationReadsTheCartInOneRoundTrip() {
+		Query byBuyer = new Query(Criteria.where("buyer.$id").is(MongoIds.of(buyerId)));
+
+		Result before = measure(() -> {
+			// What findById(buyer) + findByBuyer did: every line's Buyer, Product and Seller DBRef is fetched separately
+			mongoTemplate.findById(buyerId, Buyer.class);
+			List<Cart> carts = mongoTemplate.find(byBuyer, Cart.class);
+			assertThat(carts).hasSize(LINES);
+		});
+		Result after = measure(() -> {
+			List<CartDTO> items = repository.findCartItems(buyerId);
+			assertThat(items).hasSize(LINES);
+		});
+
+		logger.info("Cart read, {} lines: DBRef path {} round trips {} ms, aggregation {} round trips {} ms", LINES,
+				before.commands(), String.format("%.3f", before.millis()), after.commands(),
+				String.format("%.3f", after.millis()));
+		assertThat(after.commands()).isEqualTo(1);
+		assertThat(before.commands()).isGreaterThan(2 * LINES);
+	}
+
+	private record Result(int commands, double millis) {
+	}
+
+	// Commands for one read, and mean latency over ROUNDS reads after warm-up
+	private Result measure(Runnable read) {
+		for (int i = 0; i < 20; i++) {
+			read.run();
+		}
+		commands.set(0);
+		read.run();
+		int perRead = commands.get();
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			read.run();
+		}
+		return new Result(perRead, (System.nanoTime() - start) / 1e6 / ROUNDS);
+	}
+}
@@ -0,0 +1,76 @@
+package com.klef.fsd.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+
+import com.klef.fsd.dto.CartDTO;
+import com.mongodb.DBRef;
+
+@ExtendWith(MockitoExtension.class)
+class CartRepositoryCustomImplTests {
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@InjectMocks
+	private CartRepositoryCustomImpl repository;
+
+	@Test
+	void cartWithTenLinesCostsOneMongoCommand() {
+		ObjectId buyerId = new ObjectId();
+		List<Document> joined = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			// Every line has its own product and seller: the DBRef path would resolve both per line
+			joined.add(new Document("_id", new ObjectId())
+					.append("quantity", i + 1)
+					.append("product", new Document("_id", new ObjectId())
+							.append("name", "Product " + i)
+							.append("cost", 100.0 + i)
+							.append("seller", new DBRef("sellers", new ObjectId()))));
+		}
+		ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+		when(mongoTemplate.aggregate(aggregation.capture(), eq("carts"), eq(Document.class)))
+				.thenReturn(new AggregationResults<>(joined, new Document()));
+
+		List<CartDTO> items = repository.findCartItems(buyerId.toHexString());
+
+		assertThat(mockingDetails(mongoTemplate).getInvocations()).hasSize(1);
+		Document match = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0);
+		assertThat(match.get("$match", Document.class).get("buyer.$id")).isEqualTo(buyerId);
+		assertThat(items).hasSize(10);
+		for (int i = 0; i < items.size(); i++) {
+			Document product = joined.get(i).get("product", Document.class);
+			assertThat(items.get(i).getId()).isEqualTo(joined.get(i).getObjectId("_id").toHexString());
+			assertThat(items.get(i).getQuantity()).isEqualTo(i + 1);
+			assertThat(items.get(i).getProduct().getId()).isEqualTo(product.getObjectId("_id").toHexString());
+			assertThat(items.get(i).getProduct().getSeller_id())
+					.isEqualTo(((DBRef) product.get("seller")).getId().toString());
+		}
+	}
+
+	@Test
+	void emptyCartReturnsAnEmptyList() {
+		when(mongoTemplate.aggregate(any(Aggregation.class), eq("carts"), eq(Document.class)))
+				.thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+		assertThat(repository.findCartItems(new ObjectId().toHexString())).isEmpty();
+	}
+}
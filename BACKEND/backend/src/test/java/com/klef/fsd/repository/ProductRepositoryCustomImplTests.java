@@ -0,0 +1,50 @@
+package com.klef.fsd.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.klef.fsd.dto.ProductDTO;
+
+@ExtendWith(MockitoExtension.class)
+class ProductRepositoryCustomImplTests {
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@InjectMocks
+	private ProductRepositoryCustomImpl repository;
+
+	@Test
+	void sellerIdIsReadFromAnEmbeddedReferenceDocument() {
+		ObjectId sellerId = new ObjectId();
+		doAnswer(invocation -> {
+			DocumentCallbackHandler handler = invocation.getArgument(2);
+			handler.processDocument(new Document("_id", new ObjectId())
+					.append("cost", 10)
+					.append("seller", new Document("$ref", "sellers").append("$id", sellerId)));
+			return null;
+		}).when(mongoTemplate).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+
+		List<ProductDTO> page = repository.findSummaries(null, null, 0);
+
+		assertThat(mockingDetails(mongoTemplate).getInvocations()).hasSize(1);
+		assertThat(page.get(0).getSeller_id()).isEqualTo(sellerId.toHexString());
+		assertThat(page.get(0).getCost()).isEqualTo(10.0);
+	}
+}
@@ -0,0 +1,93 @@
+package com.klef.fsd.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.klef.fsd.dto.ProductDTO;
+
+class ProductSearchIndexTests {
+
+	private final ProductSearchIndex index = new ProductSearchIndex();
+
+	@Test
+	void nameMatchesOutrankDescriptionMatches() {
+		index.index(product("p1", "Walnut shelf", "Has room for a lamp"));
+		index.index(product("p2", "Desk lamp", "Warm light"));
+		index.index(product("p3", "Kettle", "Boils water"));
+
+		assertThat(ids(index.search("lamps", 10))).containsExactly("p2", "p1");
+	}
+
+	@Test
+	void rarerTermsWeighMore() {
+		index.index(product("p1", "Red phone", null));
+		index.index(product("p2", "Blue phone", null));
+		index.index(product("p3", "Black phone", null));
+		index.index(product("p4", "Red kettle", null));
+
+		// "red" is in two products and "phone" in three, so a red kettle beats a blue phone
+		assertThat(ids(index.search("red phone", 2))).containsExactly("p1", "p4");
+	}
+
+	@Test
+	void updateTombstonesTheOldVersion() {
+		index.index(product("p1", "Desk lamp", null));
+		index.index(product("p1", "Floor fan", null));
+
+		assertThat(index.search("lamp", 10)).isEmpty();
+		assertThat(ids(index.search("fan", 10))).containsExactly("p1");
+		assertThat(index.size()).isEqualTo(1);
+
+		index.remove("p1");
+		assertThat(index.search("fan", 10)).isEmpty();
+		assertThat(index.size()).isZero();
+	}
+
+	@Test
+	void searchStillWorksAfterCompaction() {
+		for (int i = 0; i < 2000; i++) {
+			index.index(product("p" + i, i % 4 == 0 ? "Desk lamp " + i : "Kettle " + i, null));
+		}
+		// Removing three quarters crosses the compaction threshold
+		for (int i = 0; i < 2000; i++) {
+			if (i % 4 != 0) {
+				index.remove("p" + i);
+			}
+		}
+
+		assertThat(index.size()).isEqualTo(500);
+		assertThat(index.search("kettle", 10)).isEmpty();
+		assertThat(index.search("lamp", 1000)).hasSize(500);
+		assertThat(ids(index.search("lamp 8", 1))).containsExactly("p8");
+	}
+
+	@Test
+	void resultsAreCopies() {
+		index.index(product("p1", "Desk lamp", null));
+
+		index.search("lamp", 1).get(0).setName("Edited");
+
+		assertThat(index.search("lamp", 1).get(0).getName()).isEqualTo("Desk lamp");
+	}
+
+	private static List<String> ids(List<ProductDTO> products) {
+		List<String> ids = new ArrayList<>();
+		for (ProductDTO product : products) {
+			ids.add(product.getId());
+		}
+		return ids;
+	}
+
+	private static ProductDTO product(String id, String name, String description) {
+		ProductDTO product = new ProductDTO();
+		product.setId(id);
+		product.setName(name);
+		product.setDescription(description);
+		product.setCategory("Home");
+		return product;
+	}
+}
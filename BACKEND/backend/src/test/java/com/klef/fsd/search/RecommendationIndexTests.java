@@ -0,0 +1,81 @@
+package com.klef.fsd.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RecommendationIndexTests {
+
+	private final RecommendationIndex index = new RecommendationIndex();
+
+	@Test
+	void rebuildRanksByCoOccurrenceThenByAge() {
+		index.rebuild(List.of(List.of("a", "b"), List.of("a", "b"), List.of("a", "c"), List.of("a", "b", "d")));
+
+		assertThat(index.recommend("a", 10)).containsExactly("b", "c", "d");
+		assertThat(index.recommend("d", 10)).containsExactly("a", "b");
+		assertThat(index.recommend("a", 1)).containsExactly("b");
+		assertThat(index.recommend("unknown", 10)).isEmpty();
+	}
+
+	@Test
+	void linesArePairedOnlyWithinTheirBasket() {
+		index.recordPurchase("order1", "a");
+		index.recordPurchase("order1", "b");
+		index.recordPurchase("order1", "b"); // repeated line of the same basket counts once
+		index.recordPurchase("order2", "c");
+		index.recordPurchase("order2", "a");
+		index.recordPurchase("order3", "b");
+		index.recordPurchase("order3", "a");
+
+		assertThat(index.recommend("a", 10)).containsExactly("b", "c");
+		assertThat(index.recommend("b", 10)).containsExactly("a");
+		assertThat(index.recommend("c", 10)).containsExactly("a");
+	}
+
+	@Test
+	void basketOpenAcrossARebuildPairsTheRightProducts() {
+		index.recordPurchase("order1", "x");
+		index.recordPurchase("order1", "y");
+		// Numbers the products afresh: "a" and "b" take the ordinals "x" and "y" had
+		index.rebuild(List.of(List.of("a", "b")));
+		index.recordPurchase("order1", "z");
+
+		assertThat(index.recommend("z", 10)).containsExactlyInAnyOrder("x", "y");
+		assertThat(index.recommend("a", 10)).containsExactly("b");
+	}
+
+	@Test
+	void keepsOnlyTheTopK() {
+		List<List<String>> baskets = new ArrayList<>();
+		for (int i = 0; i < RecommendationIndex.TOP_K + 5; i++) {
+			baskets.add(List.of("hub", "p" + i));
+		}
+		String last = "p" + (RecommendationIndex.TOP_K + 4);
+		baskets.add(List.of("hub", last));
+		index.rebuild(baskets);
+
+		List<String> top = index.recommend("hub", 100);
+		assertThat(top).hasSize(RecommendationIndex.TOP_K);
+		assertThat(top.get(0)).isEqualTo(last);
+		assertThat(top.subList(1, top.size())).containsExactly(expectedTies());
+
+		// An incremental purchase re-ranks the row
+		index.recordPurchase("order1", "hub");
+		index.recordPurchase("order1", "p3");
+		index.recordPurchase("order2", "hub");
+		index.recordPurchase("order2", "p3");
+		assertThat(index.recommend("hub", 2)).containsExactly("p3", last);
+	}
+
+	private static String[] expectedTies() {
+		String[] ids = new String[RecommendationIndex.TOP_K - 1];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = "p" + i;
+		}
+		return ids;
+	}
+}
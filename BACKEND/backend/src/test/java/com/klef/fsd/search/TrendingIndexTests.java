@@ -0,0 +1,96 @@
+package com.klef.fsd.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.search.TrendingIndex.Entry;
+import com.klef.fsd.search.TrendingIndex.SpaceSaving;
+import com.klef.fsd.search.TrendingIndex.Window;
+
+@ExtendWith(MockitoExtension.class)
+class TrendingIndexTests {
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	private TrendingIndex index;
+
+	@BeforeEach
+	void setUp() {
+		index = trending(2);
+	}
+
+	@Test
+	void unseenItemTakesOverTheSmallestCounter() {
+		SpaceSaving summary = new SpaceSaving(2);
+		summary.offer("a", 5);
+		summary.offer("b", 3);
+		summary.offer("c", 1);
+
+		assertThat(summary.counters).containsOnlyKeys("a", "c");
+	}
+
+	@Test
+	void evictedSellerIsReplacedWithAnOverestimate() {
+		index.recordSale("a", "Books", 5);
+		index.recordSale("b", "Books", 3);
+		index.recordSale("c", "Books", 1);
+
+		// c inherits b's 3 units as error, so it is reported with 4
+		assertThat(index.top("Books", Window.DAY, 10)).containsExactly(new Entry("a", 5), new Entry("c", 4));
+	}
+
+	@Test
+	void categoriesAreSummarisedSeparately() {
+		index.recordSale("a", "Books", 2);
+		index.recordSale("t", "Toys", 3);
+
+		assertThat(index.top("Books", Window.HOUR, 10)).containsExactly(new Entry("a", 2));
+		assertThat(index.top("Toys", Window.HOUR, 10)).containsExactly(new Entry("t", 3));
+		assertThat(index.top(null, Window.HOUR, 10)).containsExactly(new Entry("t", 3), new Entry("a", 2));
+		assertThat(index.top("Garden", Window.HOUR, 10)).isEmpty();
+	}
+
+	@Test
+	void snapshotIsRestoredIntoANewInstance() {
+		index.recordSale("a", "Books", 5);
+		index.recordSale("b", "Books", 3);
+		index.recordSale("c", "Books", 1);
+		index.snapshot();
+		// Nothing sold since: no second write
+		index.snapshot();
+
+		ArgumentCaptor<Document> saved = ArgumentCaptor.forClass(Document.class);
+		verify(mongoTemplate, times(Window.values().length)).save(saved.capture(), eq("trending"));
+
+		TrendingIndex restored = trending(2);
+		when(mongoTemplate.findAll(Document.class, "trending")).thenReturn(List.copyOf(saved.getAllValues()));
+		restored.restore();
+
+		for (Window window : Window.values()) {
+			assertThat(restored.top("Books", window, 10)).containsExactly(new Entry("a", 5), new Entry("c", 4));
+		}
+		assertThat(restored.top(null, Window.DAY, 10)).isEqualTo(index.top(null, Window.DAY, 10));
+	}
+
+	private TrendingIndex trending(int capacity) {
+		TrendingIndex trending = new TrendingIndex(capacity);
+		ReflectionTestUtils.setField(trending, "mongoTemplate", mongoTemplate);
+		return trending;
+	}
+}
@@ -0,0 +1,98 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.klef.fsd.model.BuyerCart;
+import com.mongodb.DBRef;
+import com.mongodb.bulk.BulkWriteError;
+
+@ExtendWith(MockitoExtension.class)
+class CartMigrationTests {
+
+	private static final ObjectId BUYER = new ObjectId();
+	private static final ObjectId LAMP = new ObjectId();
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private BulkOperations bulk;
+
+	@InjectMocks
+	private CartMigration cartMigration;
+
+	@Test
+	void danglingRowsAreDroppedAndDuplicatesTheUpsertRejectsAreTolerated() {
+		Document first = row(BUYER, LAMP);
+		Document duplicate = row(BUYER, LAMP);
+		Document dangling = row(BUYER, new ObjectId());
+		legacyRows(first, duplicate, dangling);
+		BulkOperationException duplicateKey = failure(11000);
+		when(bulk.execute()).thenThrow(duplicateKey);
+		when(mongoTemplate.estimatedCount("carts")).thenReturn(0L);
+
+		cartMigration.migrateBuyer(BUYER.toHexString());
+
+		// One upsert per row whose product exists; the second one hits the buyer's _id
+		verify(bulk, times(2)).upsert(any(Query.class), any(Update.class));
+		ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).remove(removed.capture(), eq("carts"));
+		assertThat(removed.getValue().getQueryObject().get("_id", Document.class).getList("$in", Object.class))
+				.containsExactly(first.get("_id"), duplicate.get("_id"), dangling.get("_id"));
+		assertThat(cartMigration.isComplete()).isTrue();
+	}
+
+	@Test
+	void otherWriteErrorsKeepTheRows() {
+		legacyRows(row(BUYER, LAMP));
+		BulkOperationException failure = failure(121);
+		when(bulk.execute()).thenThrow(failure);
+
+		assertThatThrownBy(() -> cartMigration.migrateBuyer(BUYER.toHexString())).isSameAs(failure);
+		verify(mongoTemplate, never()).remove(any(Query.class), eq("carts"));
+		assertThat(cartMigration.isComplete()).isFalse();
+	}
+
+	private void legacyRows(Document... rows) {
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("carts"))).thenReturn(List.of(rows));
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("products")))
+				.thenReturn(List.of(new Document("_id", LAMP).append("name", "Lamp").append("cost", 10.0)));
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BuyerCart.class)).thenReturn(bulk);
+	}
+
+	private static BulkOperationException failure(int code) {
+		BulkOperationException failure = mock(BulkOperationException.class);
+		when(failure.getErrors()).thenReturn(List.of(new BulkWriteError(code, "write failed", new BsonDocument(), 1)));
+		return failure;
+	}
+
+	private static Document row(ObjectId buyer, ObjectId product) {
+		return new Document("_id", new ObjectId()).append("buyer", new DBRef("buyers", buyer))
+				.append("product", new DBRef("products", product)).append("quantity", 2);
+	}
+}
@@ -0,0 +1,264 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.CartOperationDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.repository.CartRepository;
+import com.klef.fsd.repository.ProductRepository;
+import com.mongodb.DBRef;
+
+@ExtendWith(MockitoExtension.class)
+class CartServiceImplTests {
+
+	private static final String BUYER = new ObjectId().toHexString();
+
+	@Mock
+	private CartStateCache cartStateCache;
+
+	@Mock
+	private CartRepository cartRepository;
+
+	@Mock
+	private ProductRepository productRepository;
+
+	@Mock
+	private ProductService productService;
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private BulkOperations bulk;
+
+	@InjectMocks
+	private CartServiceImpl cartService;
+
+	@Test
+	void addToCartInsertsIntoTheLowestFreeSlot() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		CartDTO first = line(new ObjectId().toHexString(), 1);
+		first.setSlot(0);
+		CartDTO third = line(new ObjectId().toHexString(), 1);
+		third.setSlot(2);
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>(List.of(first, third)));
+		when(cartRepository.findTakenSlots(BUYER)).thenReturn(List.of(0, 2));
+		when(mongoTemplate.insert(any(Cart.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+		Cart saved = cartService.addToCart(request(product.getId()));
+
+		assertThat(saved.getSlot()).isEqualTo(1);
+		verify(mongoTemplate, times(1)).insert(any(Cart.class));
+		verify(cartStateCache).invalidate(BUYER);
+	}
+
+	@Test
+	void addToCartSkipsTheSlotOfALineWhoseProductIsGone() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		CartDTO first = line(new ObjectId().toHexString(), 1);
+		first.setSlot(0);
+		// Slot 1 belongs to a line the cached cart leaves out because its product was deleted
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>(List.of(first)));
+		when(cartRepository.findTakenSlots(BUYER)).thenReturn(List.of(0, 1));
+		when(mongoTemplate.insert(any(Cart.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+		Cart saved = cartService.addToCart(request(product.getId()));
+
+		assertThat(saved.getSlot()).isEqualTo(2);
+		verify(mongoTemplate, times(1)).insert(any(Cart.class));
+	}
+
+	@Test
+	void addToCartReportsDuplicatesRejectedByTheIndex() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		// A concurrent request added the same product between the read and the insert
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>())
+				.thenReturn(new ArrayList<>(List.of(line(product.getId(), 1))));
+		when(mongoTemplate.insert(any(Cart.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+		assertThatThrownBy(() -> cartService.addToCart(request(product.getId())))
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Product already in cart");
+		verify(mongoTemplate, times(1)).insert(any(Cart.class));
+	}
+
+	@Test
+	void addToCartRetriesWhenAConcurrentAddTookTheSlot() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		CartDTO other = line(new ObjectId().toHexString(), 1);
+		other.setSlot(0);
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>()).thenReturn(new ArrayList<>(List.of(other)));
+		when(cartRepository.findTakenSlots(BUYER)).thenReturn(List.of()).thenReturn(List.of(0));
+		when(mongoTemplate.insert(any(Cart.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key"))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+
+		Cart saved = cartService.addToCart(request(product.getId()));
+
+		assertThat(saved.getSlot()).isEqualTo(1);
+		verify(mongoTemplate, times(2)).insert(any(Cart.class));
+	}
+
+	@Test
+	void addToCartRejectsAFullCartWithoutWriting() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		List<CartDTO> lines = new ArrayList<>();
+		for (int i = 0; i < CartService.MAX_ITEMS; i++) {
+			CartDTO line = line(new ObjectId().toHexString(), 1);
+			line.setSlot(i);
+			lines.add(line);
+		}
+		when(cartStateCache.items(BUYER)).thenReturn(lines);
+
+		assertThatThrownBy(() -> cartService.addToCart(request(product.getId())))
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Cart limit exceeded");
+		verify(mongoTemplate, never()).insert(any(Cart.class));
+	}
+
+	@Test
+	void batchValidatesWithOneQueryAndWritesWithOneBulk() {
+		String kept = new ObjectId().toHexString();
+		String removed = new ObjectId().toHexString();
+		String added = new ObjectId().toHexString();
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>(List.of(line(kept, 1), line(removed, 1))));
+		Product product = product(added);
+		when(productRepository.findAllById(anyIterable())).thenReturn(List.of(product));
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Cart.class)).thenReturn(bulk);
+
+		List<CartDTO> cart = cartService.applyCartBatch(BUYER,
+				List.of(op("update", kept, 3), op("remove", removed, 0), op("add", added, 2)));
+
+		assertThat(cart).extracting(line -> line.getProduct().getId()).containsExactly(kept, added);
+		assertThat(cart).extracting(CartDTO::getQuantity).containsExactly(3, 2);
+		verify(productRepository, times(1)).findAllById(anyIterable());
+		verify(bulk).updateOne(any(Query.class), any(Update.class));
+		verify(bulk).remove(any(Query.class));
+		verify(bulk).insert(any(Object.class));
+		verify(bulk, times(1)).execute();
+		verify(cartStateCache).invalidate(BUYER);
+	}
+
+	@Test
+	void batchFailedByAConcurrentAddReportsTheCartAsItNowIs() {
+		String removed = new ObjectId().toHexString();
+		String added = new ObjectId().toHexString();
+		String raced = new ObjectId().toHexString();
+		// The remove went through before a concurrent add took the only free slot
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>(List.of(line(removed, 1))))
+				.thenReturn(new ArrayList<>(List.of(line(raced, 1))));
+		when(productRepository.findAllById(anyIterable())).thenReturn(List.of(product(added)));
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Cart.class)).thenReturn(bulk);
+		when(bulk.execute()).thenThrow(mock(BulkOperationException.class));
+
+		assertThatThrownBy(() -> cartService.applyCartBatch(BUYER,
+				List.of(op("remove", removed, 0), op("add", added, 2))))
+				.isInstanceOfSatisfying(CartConflictException.class, e -> assertThat(e.getCart())
+						.extracting(line -> line.getProduct().getId()).containsExactly(raced));
+		verify(cartStateCache).invalidate(BUYER);
+	}
+
+	@Test
+	void invalidStepRejectsTheWholeBatch() {
+		String kept = new ObjectId().toHexString();
+		when(cartStateCache.items(BUYER)).thenReturn(new ArrayList<>(List.of(line(kept, 1))));
+
+		assertThatThrownBy(() -> cartService.applyCartBatch(BUYER,
+				List.of(op("update", kept, 2), op("remove", new ObjectId().toHexString(), 0))))
+				.isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Operation 1");
+		verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Cart.class));
+		verifyNoInteractions(productRepository);
+	}
+
+	@Test
+	void removingProductsFromAllCartsInvalidatesTheBuyersHoldingThem() {
+		String deleted = new ObjectId().toHexString();
+		String other = new ObjectId().toHexString();
+		doAnswer(invocation -> {
+			DocumentCallbackHandler handler = invocation.getArgument(2);
+			handler.processDocument(new Document("buyer", new DBRef("buyer", new ObjectId(BUYER))));
+			handler.processDocument(new Document("buyer", new DBRef("buyer", new ObjectId(other))));
+			return null;
+		}).when(mongoTemplate).executeQuery(any(Query.class), eq("carts"), any(DocumentCallbackHandler.class));
+
+		cartService.removeProductsFromAllCarts(List.of(deleted));
+
+		verify(mongoTemplate).remove(any(Query.class), eq(Cart.class));
+		verify(cartStateCache).invalidate(BUYER);
+		verify(cartStateCache).invalidate(other);
+		verify(cartStateCache, times(2)).invalidate(anyString());
+	}
+
+	private static Product product(String id) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName("Lamp");
+		return product;
+	}
+
+	private static Cart request(String productId) {
+		Buyer buyer = new Buyer();
+		buyer.setId(BUYER);
+		Product product = new Product();
+		product.setId(productId);
+		Cart cart = new Cart();
+		cart.setBuyer(buyer);
+		cart.setProduct(product);
+		cart.setQuantity(1);
+		return cart;
+	}
+
+	private static CartDTO line(String productId, int quantity) {
+		ProductDTO product = new ProductDTO();
+		product.setId(productId);
+		CartDTO line = new CartDTO();
+		line.setId(new ObjectId().toHexString());
+		line.setQuantity(quantity);
+		line.setProduct(product);
+		return line;
+	}
+
+	private static CartOperationDTO op(String op, String productId, int quantity) {
+		CartOperationDTO operation = new CartOperationDTO();
+		operation.setOp(op);
+		operation.setProductId(productId);
+		operation.setQuantity(quantity);
+		return operation;
+	}
+}
@@ -0,0 +1,75 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.DBRef;
+
+class CartSlotBackfillTests {
+
+	@Test
+	void oldestLineForAProductWinsAndDanglingLinesGo() {
+		String lamp = new ObjectId().toHexString();
+		String deleted = new ObjectId().toHexString();
+		Document first = line(lamp, null);
+		Document duplicate = line(lamp, 0);
+		Document dangling = line(deleted, 1);
+
+		CartSlotBackfill.Plan plan = CartSlotBackfill.plan(List.of(first, duplicate, dangling), Set.of(lamp));
+
+		assertThat(plan.remove()).containsExactly(duplicate.get("_id"), dangling.get("_id"));
+		assertThat(plan.slots()).containsExactlyEntriesOf(Map.of(first.get("_id"), 0));
+		assertThat(plan.unslot()).isEmpty();
+	}
+
+	@Test
+	void linesWithoutASlotOrASharedOneGetTheLowestFreeSlots() {
+		String a = new ObjectId().toHexString();
+		String b = new ObjectId().toHexString();
+		String c = new ObjectId().toHexString();
+		Document holdsOne = line(a, 1);
+		Document sharesOne = line(b, 1);
+		Document none = line(c, null);
+
+		CartSlotBackfill.Plan plan = CartSlotBackfill.plan(List.of(holdsOne, sharesOne, none), Set.of(a, b, c));
+
+		assertThat(plan.remove()).isEmpty();
+		assertThat(plan.slots()).containsEntry(sharesOne.get("_id"), 0).containsEntry(none.get("_id"), 2)
+				.hasSize(2);
+	}
+
+	@Test
+	void linesPastTheLimitAreLeftWithoutASlot() {
+		List<Document> lines = new ArrayList<>();
+		List<String> products = new ArrayList<>();
+		for (int i = 0; i < CartService.MAX_ITEMS + 2; i++) {
+			String product = new ObjectId().toHexString();
+			products.add(product);
+			lines.add(line(product, i >= CartService.MAX_ITEMS ? Integer.valueOf(0) : null));
+		}
+
+		CartSlotBackfill.Plan plan = CartSlotBackfill.plan(lines, Set.copyOf(products));
+
+		// The first holder of slot 0 keeps it; the other slots go to the oldest lines
+		assertThat(plan.slots()).hasSize(CartService.MAX_ITEMS - 1)
+				.doesNotContainKey(lines.get(CartService.MAX_ITEMS - 1).get("_id"));
+		assertThat(plan.unslot()).containsExactly(lines.get(CartService.MAX_ITEMS + 1).get("_id"));
+	}
+
+	private static Document line(String productId, Integer slot) {
+		Document line = new Document("_id", new ObjectId())
+				.append("product", new DBRef("product", new ObjectId(productId)));
+		if (slot != null) {
+			line.append("slot", slot);
+		}
+		return line;
+	}
+}
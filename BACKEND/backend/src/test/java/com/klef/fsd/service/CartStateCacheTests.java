@@ -0,0 +1,269 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.CartRepository;
+
+@ExtendWith(MockitoExtension.class)
+class CartStateCacheTests {
+
+	private static final String BUYER = new ObjectId().toHexString();
+	private static final String OTHER_BUYER = new ObjectId().toHexString();
+	private static final String PRODUCT = new ObjectId().toHexString();
+
+	@Mock
+	private CartRepository cartRepository;
+
+	@Mock
+	private BuyerRepository buyerRepository;
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	private CartStateCache cache;
+
+	@BeforeEach
+	void setUp() {
+		cache = new CartStateCache("write-behind", 1, 30, 60);
+		ReflectionTestUtils.setField(cache, "cartRepository", cartRepository);
+		ReflectionTestUtils.setField(cache, "buyerRepository", buyerRepository);
+		ReflectionTestUtils.setField(cache, "mongoTemplate", mongoTemplate);
+	}
+
+	@Test
+	void quantityChangesAreBufferedUntilTheFlush() {
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		BulkOperations bulk = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(bulk);
+
+		cache.updateQuantity(BUYER, PRODUCT, 2);
+		cache.updateQuantity(BUYER, PRODUCT, 3);
+
+		assertThat(cache.items(BUYER)).singleElement().extracting(CartDTO::getQuantity).isEqualTo(3);
+		verifyNoInteractions(bulk);
+
+		cache.flushAll();
+
+		verify(bulk, times(1)).updateOne(any(Query.class), argThat(quantity(3)));
+		verify(bulk, times(1)).execute();
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(0L);
+	}
+
+	@Test
+	void failedBatchIsRequeuedAndLaterBatchesStillGoOut() {
+		when(cartRepository.findCartItems(any())).thenAnswer(invocation -> cart());
+		BulkOperations failing = mock(BulkOperations.class);
+		when(failing.execute()).thenThrow(new IllegalStateException("Mongo down"));
+		BulkOperations ok = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(failing, ok, ok);
+
+		cache.updateQuantity(BUYER, PRODUCT, 2);
+		cache.updateQuantity(OTHER_BUYER, PRODUCT, 4);
+		// Batch size 1: one buyer's write fails, the other's is still sent
+		cache.flushAll();
+
+		verify(ok, times(1)).execute();
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(1L);
+		assertThat(cache.stats().get("failedFlushes")).isEqualTo(1L);
+
+		cache.flushAll();
+
+		verify(ok, times(2)).execute();
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(0L);
+	}
+
+	@Test
+	void failedWritesSurviveInvalidation() {
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		BulkOperations failing = mock(BulkOperations.class);
+		when(failing.execute()).thenThrow(new IllegalStateException("Mongo down"));
+		BulkOperations ok = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(failing, ok);
+
+		cache.updateQuantity(BUYER, PRODUCT, 5);
+		assertThatThrownBy(() -> cache.invalidate(BUYER)).isInstanceOf(IllegalStateException.class);
+
+		// The state is gone, the buffered write is not, and a reload still shows it
+		assertThat(cache.stats().get("cachedBuyers")).isEqualTo(0);
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(1L);
+		assertThat(cache.items(BUYER)).singleElement().extracting(CartDTO::getQuantity).isEqualTo(5);
+
+		cache.flushAll();
+
+		verify(ok).updateOne(any(Query.class), argThat(quantity(5)));
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(0L);
+	}
+
+	@Test
+	void invalidateWritesBufferedChangesBeforeDroppingTheState() {
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		BulkOperations bulk = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(bulk);
+
+		cache.updateQuantity(BUYER, PRODUCT, 2);
+		cache.invalidate(BUYER);
+
+		verify(bulk).updateOne(any(Query.class), argThat(quantity(2)));
+		verify(bulk).execute();
+		cache.items(BUYER);
+		verify(cartRepository, times(2)).findCartItems(BUYER);
+	}
+
+	@Test
+	void flushWaitsForTheBuyersRunningFlushSoOlderValuesLandFirst() throws Exception {
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		BulkOperations slow = mock(BulkOperations.class);
+		doAnswer(invocation -> {
+			sending.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		}).when(slow).execute();
+		BulkOperations fast = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(slow, fast);
+
+		cache.updateQuantity(BUYER, PRODUCT, 2);
+		Thread periodic = Thread.ofVirtual().start(cache::flushAll);
+		assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+		cache.updateQuantity(BUYER, PRODUCT, 3);
+		// Another buyer's cart calls are not held up by the flush in progress
+		when(cartRepository.findCartItems(OTHER_BUYER)).thenReturn(new ArrayList<>(cart()));
+		assertThat(cache.count(OTHER_BUYER)).isEqualTo(1);
+		Thread checkout = Thread.ofVirtual().start(() -> cache.flush(BUYER));
+		checkout.join(200);
+		verify(fast, never()).execute();
+
+		release.countDown();
+		periodic.join(5000);
+		checkout.join(5000);
+
+		InOrder order = inOrder(slow, fast);
+		order.verify(slow).updateOne(any(Query.class), argThat(quantity(2)));
+		order.verify(slow).execute();
+		order.verify(fast).updateOne(any(Query.class), argThat(quantity(3)));
+		order.verify(fast).execute();
+	}
+
+	@Test
+	void writeThroughUpdateDoesNotHoldUpReadsOfTheCart() throws Exception {
+		CartStateCache writeThrough = new CartStateCache("write-through", 1, 30, 60);
+		ReflectionTestUtils.setField(writeThrough, "cartRepository", cartRepository);
+		ReflectionTestUtils.setField(writeThrough, "buyerRepository", buyerRepository);
+		ReflectionTestUtils.setField(writeThrough, "mongoTemplate", mongoTemplate);
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			sending.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		}).when(mongoTemplate).updateFirst(any(Query.class), argThat(quantity(4)), eq(Cart.class));
+
+		Thread update = Thread.ofVirtual().start(() -> writeThrough.updateQuantity(BUYER, PRODUCT, 4));
+		assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+		Thread read = Thread.ofVirtual().start(() -> writeThrough.items(BUYER));
+		read.join(1000);
+		assertThat(read.isAlive()).isFalse();
+
+		release.countDown();
+		update.join(5000);
+		assertThat(writeThrough.items(BUYER)).singleElement().extracting(CartDTO::getQuantity).isEqualTo(4);
+	}
+
+	@Test
+	void readThatRacedAnInvalidationIsNotCached() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> {
+			if (reading.getCount() > 0) {
+				reading.countDown();
+				release.await(5, TimeUnit.SECONDS);
+			}
+			return cart();
+		});
+
+		Thread read = Thread.ofVirtual().start(() -> cache.items(BUYER));
+		assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+		// Not blocked by the read in progress
+		Thread invalidate = Thread.ofVirtual().start(() -> cache.invalidate(BUYER));
+		invalidate.join(1000);
+		assertThat(invalidate.isAlive()).isFalse();
+
+		release.countDown();
+		read.join(5000);
+		// The first read was taken before the invalidation, so it was read again before being cached
+		verify(cartRepository, times(2)).findCartItems(BUYER);
+		cache.items(BUYER);
+		verify(cartRepository, times(2)).findCartItems(BUYER);
+	}
+
+	@Test
+	void shutdownRetriesAFailedFlushInsteadOfLeavingItBuffered() {
+		when(cartRepository.findCartItems(BUYER)).thenAnswer(invocation -> cart());
+		BulkOperations failing = mock(BulkOperations.class);
+		when(failing.execute()).thenThrow(new IllegalStateException("Mongo down"));
+		BulkOperations ok = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class)).thenReturn(failing, ok);
+
+		cache.updateQuantity(BUYER, PRODUCT, 6);
+		cache.shutdown();
+
+		verify(ok, times(1)).updateOne(any(Query.class), argThat(quantity(6)));
+		verify(ok, times(1)).execute();
+		assertThat(cache.stats().get("pendingWrites")).isEqualTo(0L);
+	}
+
+	private static org.mockito.ArgumentMatcher<Update> quantity(int quantity) {
+		return update -> Integer.valueOf(quantity)
+				.equals(((Document) update.getUpdateObject().get("$set")).get("quantity"));
+	}
+
+	private static List<CartDTO> cart() {
+		ProductDTO product = new ProductDTO();
+		product.setId(PRODUCT);
+		product.setImageUrl("https://img/lamp.png");
+		CartDTO line = new CartDTO();
+		line.setId(new ObjectId().toHexString());
+		line.setQuantity(1);
+		line.setProduct(product);
+		return new ArrayList<>(List.of(line));
+	}
+}
@@ -0,0 +1,53 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.repository.ProductRepository;
+
+class CatalogSnapshotTests {
+
+	@Test
+	void failedRebuildIsRetriedWithoutAnotherWrite() throws Exception {
+		ProductDTO product = new ProductDTO();
+		product.setId("p1");
+		product.setName("Lamp");
+		ProductRepository productRepository = mock(ProductRepository.class);
+		when(productRepository.findSummaries(any(), any(), anyInt()))
+				.thenThrow(new DataAccessResourceFailureException("Mongo down"))
+				.thenThrow(new DataAccessResourceFailureException("Mongo down"))
+				.thenReturn(List.of(product));
+		CatalogVersion catalogVersion = new CatalogVersion();
+		CatalogSnapshot snapshot = new CatalogSnapshot(0, 10, 50);
+		ReflectionTestUtils.setField(snapshot, "productRepository", productRepository);
+		ReflectionTestUtils.setField(snapshot, "catalogVersion", catalogVersion);
+		ReflectionTestUtils.setField(snapshot, "objectMapper", new ObjectMapper());
+		try {
+			snapshot.scheduleRebuild();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (snapshot.current() == null && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			assertThat(snapshot.current()).isNotNull();
+			assertThat(snapshot.current().version()).isEqualTo(catalogVersion.current());
+			verify(productRepository, times(3)).findSummaries(any(), any(), anyInt());
+		} finally {
+			snapshot.shutdown();
+		}
+	}
+}
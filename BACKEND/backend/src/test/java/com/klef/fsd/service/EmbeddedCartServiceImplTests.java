@@ -0,0 +1,196 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.BuyerCart;
+import com.klef.fsd.model.Cart;
+import com.klef.fsd.model.CartItem;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.ProductRepository;
+import com.mongodb.client.result.UpdateResult;
+
+@ExtendWith(MockitoExtension.class)
+class EmbeddedCartServiceImplTests {
+
+	private static final String BUYER = new ObjectId().toHexString();
+	private static final UpdateResult MATCHED = UpdateResult.acknowledged(1, 1L, null);
+	private static final UpdateResult UNMATCHED = UpdateResult.acknowledged(0, 0L, null);
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private BuyerRepository buyerRepository;
+
+	@Mock
+	private ProductService productService;
+
+	@Mock
+	private ProductRepository productRepository;
+
+	@Mock
+	private CartMigration cartMigration;
+
+	@InjectMocks
+	private EmbeddedCartServiceImpl cartService;
+
+	@Test
+	void addToCartIsOneConditionalPush() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(BuyerCart.class))).thenReturn(MATCHED);
+
+		cartService.addToCart(request(product.getId()));
+
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).updateFirst(query.capture(), any(Update.class), eq(BuyerCart.class));
+		assertThat(query.getValue().getQueryObject())
+				.containsEntry("items.productId", new Document("$ne", product.getId()))
+				.containsEntry("items." + (CartService.MAX_ITEMS - 1), new Document("$exists", false));
+		verify(mongoTemplate, never()).findOne(any(Query.class), eq(BuyerCart.class));
+	}
+
+	@Test
+	void cartFullOfLiveProductsIsRejected() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(BuyerCart.class))).thenReturn(UNMATCHED);
+		List<String> lines = productIds(CartService.MAX_ITEMS);
+		when(mongoTemplate.findOne(any(Query.class), eq(BuyerCart.class))).thenReturn(cart(lines));
+		productsFound(lines);
+
+		assertThatThrownBy(() -> cartService.addToCart(request(product.getId())))
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Cart limit exceeded");
+		// The push only; nothing to pull
+		verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(BuyerCart.class));
+	}
+
+	@Test
+	void linesOfDeletedProductsNoLongerFillTheCart() {
+		Product product = product(new ObjectId().toHexString());
+		when(productService.getProductById(product.getId())).thenReturn(product);
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(BuyerCart.class)))
+				.thenReturn(UNMATCHED, MATCHED, MATCHED);
+		List<String> lines = productIds(CartService.MAX_ITEMS);
+		when(mongoTemplate.findOne(any(Query.class), eq(BuyerCart.class))).thenReturn(cart(lines));
+		String deleted = lines.get(3);
+		productsFound(lines.stream().filter(id -> !id.equals(deleted)).toList());
+
+		cartService.addToCart(request(product.getId()));
+
+		ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate, times(3)).updateFirst(any(Query.class), updates.capture(), eq(BuyerCart.class));
+		assertThat(updates.getAllValues().get(1).getUpdateObject()).isEqualTo(pullOf(deleted));
+		assertThat(updates.getAllValues().get(2).getUpdateObject()).containsKey("$push");
+	}
+
+	@Test
+	void readingTheCartPullsLinesOfDeletedProducts() {
+		String live = new ObjectId().toHexString();
+		String deleted = new ObjectId().toHexString();
+		when(mongoTemplate.findOne(any(Query.class), eq(BuyerCart.class))).thenReturn(cart(List.of(live, deleted)));
+		when(productRepository.findAllById(anyIterable())).thenReturn(List.of(product(live)));
+
+		List<CartDTO> items = cartService.getCartItemsByBuyerId(BUYER);
+
+		assertThat(items).extracting(item -> item.getProduct().getId()).containsExactly(live);
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(BuyerCart.class));
+		assertThat(update.getValue().getUpdateObject()).isEqualTo(pullOf(deleted));
+	}
+
+	@Test
+	void countLeavesOutLinesOfDeletedProducts() {
+		List<String> lines = productIds(3);
+		when(mongoTemplate.findOne(any(Query.class), eq(BuyerCart.class))).thenReturn(cart(lines));
+		productsFound(lines.subList(0, 2));
+
+		assertThat(cartService.getCartCountByBuyerId(BUYER)).isEqualTo(2);
+		verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(BuyerCart.class));
+	}
+
+	private void productsFound(List<String> ids) {
+		doAnswer(invocation -> {
+			DocumentCallbackHandler handler = invocation.getArgument(2);
+			for (String id : ids) {
+				handler.processDocument(new Document("_id", new ObjectId(id)));
+			}
+			return null;
+		}).when(mongoTemplate).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+	}
+
+	private static Document pullOf(String productId) {
+		return new Document("$pull", new Document("items",
+				new Document("productId", new Document("$in", List.of(productId)))));
+	}
+
+	private static List<String> productIds(int count) {
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ids.add(new ObjectId().toHexString());
+		}
+		return ids;
+	}
+
+	private static BuyerCart cart(List<String> productIds) {
+		BuyerCart cart = new BuyerCart();
+		cart.setBuyerId(BUYER);
+		List<CartItem> items = new ArrayList<>();
+		for (String productId : productIds) {
+			CartItem item = new CartItem();
+			item.setId(new ObjectId().toHexString());
+			item.setProductId(productId);
+			item.setQuantity(1);
+			items.add(item);
+		}
+		cart.setItems(items);
+		return cart;
+	}
+
+	private static Product product(String id) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName("Lamp");
+		return product;
+	}
+
+	private static Cart request(String productId) {
+		Buyer buyer = new Buyer();
+		buyer.setId(BUYER);
+		Product product = new Product();
+		product.setId(productId);
+		Cart cart = new Cart();
+		cart.setBuyer(buyer);
+		cart.setProduct(product);
+		cart.setQuantity(1);
+		return cart;
+	}
+}
@@ -0,0 +1,110 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.model.IdempotencyRecord;
+import com.klef.fsd.service.IdempotencyStore.Kind;
+import com.klef.fsd.service.IdempotencyStore.Outcome;
+import com.klef.fsd.service.IdempotencyStore.StoredResponse;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyStoreTests {
+
+	private static final String KEY = "/payment/create-order:k1";
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	private IdempotencyStore store;
+
+	@BeforeEach
+	void setUp() {
+		store = new IdempotencyStore(100);
+		ReflectionTestUtils.setField(store, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(store, "waitMillis", 5000L);
+		ReflectionTestUtils.setField(store, "leaseMillis", 60000L);
+	}
+
+	@Test
+	void repeatWhileRunningWaitsForTheFirstResponse() throws Exception {
+		assertThat(store.begin(KEY, "f1").kind()).isEqualTo(Kind.EXECUTE);
+
+		CompletableFuture<Outcome> repeat = CompletableFuture.supplyAsync(() -> {
+			try {
+				return store.begin(KEY, "f1");
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(50);
+		assertThat(repeat).isNotDone();
+
+		StoredResponse response = new StoredResponse("f1", 200, "application/json", "{\"orderId\":\"o1\"}".getBytes());
+		store.complete(KEY, response);
+
+		Outcome outcome = repeat.get(1, TimeUnit.SECONDS);
+		assertThat(outcome.kind()).isEqualTo(Kind.REPLAY);
+		assertThat(outcome.response()).isSameAs(response);
+		assertThat(store.begin(KEY, "f1").response()).isSameAs(response);
+		// One claim in Mongo; the repeats never left the instance
+		verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(Update.class),
+				any(FindAndModifyOptions.class), eq(IdempotencyRecord.class));
+	}
+
+	@Test
+	void keyReusedForADifferentBodyIsRejected() throws Exception {
+		store.begin(KEY, "f1");
+		store.complete(KEY, new StoredResponse("f1", 200, null, new byte[0]));
+
+		assertThat(store.begin(KEY, "f2").kind()).isEqualTo(Kind.MISMATCH);
+	}
+
+	@Test
+	void responseStoredByAnotherInstanceIsReplayed() throws Exception {
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+		IdempotencyRecord record = new IdempotencyRecord();
+		record.setKey(KEY);
+		record.setFingerprint("f1");
+		record.setStatus(IdempotencyStore.DONE);
+		record.setHttpStatus(200);
+		record.setBody("{}".getBytes());
+		when(mongoTemplate.findById(KEY, IdempotencyRecord.class)).thenReturn(record);
+
+		Outcome outcome = store.begin(KEY, "f1");
+
+		assertThat(outcome.kind()).isEqualTo(Kind.REPLAY);
+		assertThat(outcome.response().status()).isEqualTo(200);
+		// Now served from the LRU
+		store.begin(KEY, "f1");
+		verify(mongoTemplate, times(1)).findById(KEY, IdempotencyRecord.class);
+	}
+
+	@Test
+	void releasedKeyRunsAgain() throws Exception {
+		store.begin(KEY, "f1");
+		store.release(KEY);
+
+		assertThat(store.begin(KEY, "f1").kind()).isEqualTo(Kind.EXECUTE);
+	}
+}
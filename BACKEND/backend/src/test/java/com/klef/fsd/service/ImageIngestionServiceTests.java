@@ -0,0 +1,160 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.model.Product;
+import com.klef.fsd.service.ImageIngestionService.SpooledImage;
+
+@ExtendWith(MockitoExtension.class)
+class ImageIngestionServiceTests {
+
+	private static final String PRODUCT = new ObjectId().toHexString();
+
+	@Mock
+	private ImageStore imageStore;
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private ImageRegistry imageRegistry;
+
+	private ImageIngestionService service;
+	private SpooledImage image;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		service = new ImageIngestionService(1, 10, 1, 0);
+		ReflectionTestUtils.setField(service, "imageStore", imageStore);
+		ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(service, "imageRegistry", imageRegistry);
+		ReflectionTestUtils.setField(service, "staleMinutes", 15L);
+		ReflectionTestUtils.setField(service, "shutdownWaitSeconds", 5L);
+		image = new SpooledImage(Files.createTempFile("image-test-", null), "hash1");
+		lenient().when(imageStore.store(any(Path.class)))
+				.thenReturn(new ImageStore.StoredImage("https://cdn/ours", "ours"));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		service.shutdown();
+		Files.deleteIfExists(image.path());
+	}
+
+	@Test
+	void uploadWhoseEntryStaysInDeletionFailsWithoutDeletingTheFile() throws Exception {
+		when(imageRegistry.registerUpload(eq("hash1"), any(), any())).thenReturn(null);
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Product.class)))
+				.thenReturn(new Product());
+
+		service.submit(PRODUCT, "token", image, () -> {
+		});
+
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate, timeout(2000)).findAndModify(any(Query.class), update.capture(), eq(Product.class));
+		assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+				.containsEntry("imageStatus", ImageIngestionService.FAILED);
+		verify(imageStore, never()).delete(any());
+		verify(imageRegistry, never()).release("hash1");
+	}
+
+	@Test
+	void supersededUploadGivesItsReferenceBack() throws Exception {
+		when(imageRegistry.registerUpload(eq("hash1"), any(), any())).thenReturn("https://cdn/ours");
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Product.class))).thenReturn(null);
+
+		service.submit(PRODUCT, "token", image, () -> {
+		});
+
+		verify(imageRegistry, timeout(2000)).release("hash1");
+		verify(imageStore, never()).delete(any());
+	}
+
+	@Test
+	void staleUploadWhoseFileIsGoneIsMarkedFailed() throws Exception {
+		pending(new ObjectId(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))).toHexString());
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Product.class)))
+				.thenReturn(new Product());
+		List<String> updated = new CopyOnWriteArrayList<>();
+
+		service.sweepStale(updated::add);
+
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), eq(Product.class));
+		assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+				.containsEntry("imageStatus", ImageIngestionService.FAILED);
+		assertThat(updated).containsExactly(PRODUCT);
+		verify(imageStore, never()).store(any(Path.class));
+	}
+
+	@Test
+	void staleUploadWhoseFileIsStillThereIsQueuedAgain() throws Exception {
+		String token = new ObjectId(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))).toHexString();
+		Path left = Path.of(System.getProperty("java.io.tmpdir"), "product-image-" + token + ".pending");
+		Files.writeString(left, "image bytes");
+		pending(token);
+		when(imageRegistry.registerUpload(any(), any(), any())).thenReturn("https://cdn/ours");
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Product.class)))
+				.thenReturn(new Product());
+		List<String> updated = new CopyOnWriteArrayList<>();
+
+		try {
+			service.sweepStale(updated::add);
+
+			verify(imageStore, timeout(2000)).store(left);
+			verify(mongoTemplate, timeout(2000)).findAndModify(any(Query.class), any(Update.class), eq(Product.class));
+		} finally {
+			service.shutdown();
+			Files.deleteIfExists(left);
+		}
+		assertThat(updated).containsExactly(PRODUCT);
+	}
+
+	@Test
+	void recentUploadIsLeftToItsWorker() {
+		pending(new ObjectId().toHexString());
+
+		service.sweepStale(id -> {
+		});
+
+		verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class), eq(Product.class));
+	}
+
+	private void pending(String token) {
+		doAnswer(invocation -> {
+			DocumentCallbackHandler handler = invocation.getArgument(2);
+			handler.processDocument(new Document("_id", new ObjectId(PRODUCT)).append("imageUploadToken", token));
+			return null;
+		}).when(mongoTemplate).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+	}
+}
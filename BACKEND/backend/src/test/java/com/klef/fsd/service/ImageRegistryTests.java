@@ -0,0 +1,123 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.model.Image;
+
+@ExtendWith(MockitoExtension.class)
+class ImageRegistryTests {
+
+	private static final String HASH = "a".repeat(64);
+	private static final String KEY = HASH + ".png";
+	private static final ImageStore.StoredImage STORED = new ImageStore.StoredImage("https://img/" + KEY, KEY, HASH);
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private ImageStore imageStore;
+
+	@Mock
+	private ImageRegistry.Reupload reupload;
+
+	private ImageRegistry registry;
+
+	@BeforeEach
+	void setUp() {
+		registry = new ImageRegistry();
+		ReflectionTestUtils.setField(registry, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(registry, "imageStore", imageStore);
+		ReflectionTestUtils.setField(registry, "registerAttempts", 3);
+		ReflectionTestUtils.setField(registry, "registerRetryDelayMillis", 1L);
+	}
+
+	@Test
+	void uploadUnderTheWinnersKeyIsNotDeleted() throws Exception {
+		// Another instance with a different base URL registered the same file first
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Image.class))).thenReturn(image("https://other/" + KEY, KEY));
+		when(imageStore.exists(KEY)).thenReturn(true);
+
+		assertThat(registry.registerUpload(HASH, STORED, reupload)).isEqualTo("https://other/" + KEY);
+
+		verify(imageStore, never()).delete(any());
+		verify(reupload, never()).store();
+	}
+
+	@Test
+	void uploadThatLostTheRaceUnderAnotherKeyIsDeleted() throws Exception {
+		ImageStore.StoredImage ours = new ImageStore.StoredImage("https://cdn/ours", "ours");
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Image.class))).thenReturn(image("https://cdn/theirs", "theirs"));
+
+		assertThat(registry.registerUpload(HASH, ours, reupload)).isEqualTo("https://cdn/theirs");
+
+		verify(imageStore).delete("ours");
+	}
+
+	@Test
+	void uploadWaitsForTheEntryBeingDeletedAndIsStoredAgain() throws Exception {
+		DuplicateKeyException deleting = new DuplicateKeyException("entry being deleted");
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Image.class))).thenThrow(deleting).thenReturn(image(STORED.url(), KEY));
+		when(reupload.store()).thenReturn(STORED);
+		when(imageStore.exists(KEY)).thenReturn(true);
+
+		assertThat(registry.registerUpload(HASH, STORED, reupload)).isEqualTo(STORED.url());
+
+		verify(reupload, times(1)).store();
+		verify(imageStore, never()).delete(any());
+	}
+
+	@Test
+	void fileDeletedByAnEarlierCleanupIsStoredAgainOnceReferenced() throws Exception {
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Image.class))).thenReturn(image(STORED.url(), KEY));
+		when(imageStore.exists(KEY)).thenReturn(false);
+
+		assertThat(registry.registerUpload(HASH, STORED, reupload)).isEqualTo(STORED.url());
+
+		verify(reupload).store();
+	}
+
+	@Test
+	void uploadIsLeftAloneWhenTheEntryStaysInDeletion() throws Exception {
+		DuplicateKeyException deleting = new DuplicateKeyException("entry being deleted");
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Image.class))).thenThrow(deleting);
+		when(reupload.store()).thenReturn(STORED);
+
+		assertThat(registry.registerUpload(HASH, STORED, reupload)).isNull();
+
+		verify(mongoTemplate, times(3)).findAndModify(any(Query.class), any(Update.class),
+				any(FindAndModifyOptions.class), eq(Image.class));
+		verify(imageStore, never()).delete(any());
+	}
+
+	private static Image image(String url, String publicId) {
+		Image image = new Image();
+		image.setHash(HASH);
+		image.setUrl(url);
+		image.setPublicId(publicId);
+		image.setRefCount(1);
+		return image;
+	}
+}
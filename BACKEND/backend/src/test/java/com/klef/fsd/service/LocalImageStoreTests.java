@@ -0,0 +1,34 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LocalImageStoreTests {
+
+	@ParameterizedTest
+	@ValueSource(strings = { "file:///etc/passwd", "ftp://93.184.216.34/a.png", "http://127.0.0.1/a.png",
+			"http://localhost:2000/product/images/x", "http://10.0.0.5/a.png", "http://192.168.1.1/a.png",
+			"http://169.254.169.254/latest/meta-data", "http://[::1]/a.png", "http://[fd00::1]/a.png",
+			"http://100.64.0.1/a.png", "http://0.0.0.0/a.png" })
+	void internalAndNonHttpUrlsAreRefused(String url) {
+		assertThatThrownBy(() -> LocalImageStore.publicHttpUri(url)).isInstanceOf(IOException.class);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "https://93.184.216.34/lamp.png", "http://[2606:2800:220:1::]/lamp.png" })
+	void publicHttpUrlsAreAllowed(String url) throws IOException {
+		assertThat(LocalImageStore.publicHttpUri(url).toString()).isEqualTo(url);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "127.0.0.1", "10.0.0.5", "169.254.169.254", "::1" })
+	void connectionResolverRefusesInternalAddresses(String host) {
+		assertThatThrownBy(() -> LocalImageStore.publicAddresses(host)).isInstanceOf(UnknownHostException.class);
+	}
+}
@@ -0,0 +1,134 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Address;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.Order;
+import com.klef.fsd.model.Product;
+import com.klef.fsd.model.Seller;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.OrderRepository;
+import com.klef.fsd.search.CatalogIndexer;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Counts the Mongo commands behind placing the orders of a paid checkout. Every product
+ * has its own seller, so resolving the seller DBRefs would cost one find per line. Needs
+ * a real MongoDB and runs with {@code mvn test -Pbenchmark} (see CartReadBenchmarkTests);
+ * the database is dropped afterwards.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark.mongodb.uri", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class OrderPlacementQueryCountTests {
+
+	private static final int LINES = 10;
+
+	private final List<String> commands = new ArrayList<>();
+	private final List<CartDTO> lines = new ArrayList<>();
+	private MongoClient client;
+	private MongoTemplate mongoTemplate;
+	private OrderServiceImpl orderService;
+	private String buyerId;
+	private String addressId;
+
+	@BeforeAll
+	void seed() {
+		ConnectionString uri = new ConnectionString(System.getProperty("benchmark.mongodb.uri"));
+		client = MongoClients.create(MongoClientSettings.builder().applyConnectionString(uri)
+				.addCommandListener(new CommandListener() {
+					@Override
+					public void commandStarted(CommandStartedEvent event) {
+						synchronized (commands) {
+							commands.add(event.getCommandName());
+						}
+					}
+				}).build());
+		mongoTemplate = new MongoTemplate(client,
+				(uri.getDatabase() != null ? uri.getDatabase() : "cart_benchmark") + "_orders");
+
+		Buyer buyer = new Buyer();
+		buyer.setName("Buyer");
+		buyer = mongoTemplate.insert(buyer);
+		buyerId = buyer.getId();
+		Address address = new Address();
+		address.setCity("Vijayawada");
+		address.setBuyer(buyer);
+		addressId = mongoTemplate.insert(address).getId();
+		for (int i = 0; i < LINES; i++) {
+			Seller seller = new Seller();
+			seller.setName("Seller " + i);
+			seller = mongoTemplate.insert(seller);
+			Product product = new Product();
+			product.setName("Product " + i);
+			product.setCategory("Electronics");
+			product.setCost(100 + i);
+			product.setSeller(seller);
+			product = mongoTemplate.insert(product);
+			ProductDTO snapshot = new ProductDTO();
+			snapshot.setId(product.getId());
+			snapshot.setCost(product.getCost());
+			CartDTO line = new CartDTO();
+			line.setProduct(snapshot);
+			line.setQuantity(1);
+			lines.add(line);
+		}
+
+		MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+		orderService = new OrderServiceImpl();
+		ReflectionTestUtils.setField(orderService, "buyerRepository", factory.getRepository(BuyerRepository.class));
+		ReflectionTestUtils.setField(orderService, "orderRepository", factory.getRepository(OrderRepository.class));
+		ReflectionTestUtils.setField(orderService, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(orderService, "catalogIndexer", mock(CatalogIndexer.class));
+	}
+
+	@AfterAll
+	void drop() {
+		if (mongoTemplate != null) {
+			mongoTemplate.getDb().drop();
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	@Test
+	void checkoutIsFourCommandsWhateverItsSize() {
+		synchronized (commands) {
+			commands.clear();
+		}
+
+		List<Order> orders = orderService.placeOrders(buyerId, addressId, lines, "order_1", "pay_1");
+
+		assertThat(orders).hasSize(LINES);
+		synchronized (commands) {
+			// Buyer, address (a limited count), products, insert
+			assertThat(commands).containsExactly("find", "aggregate", "find", "insert");
+		}
+		Order stored = mongoTemplate.findById(orders.get(0).getId(), Order.class);
+		assertThat(stored.getSeller().getName()).isEqualTo("Seller 0");
+		assertThat(stored.getAddress().getCity()).isEqualTo("Vijayawada");
+	}
+}
@@ -0,0 +1,173 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.dto.ProductDTO;
+import com.klef.fsd.model.Address;
+import com.klef.fsd.model.Buyer;
+import com.klef.fsd.model.Order;
+import com.klef.fsd.repository.AddressRepository;
+import com.klef.fsd.repository.BuyerRepository;
+import com.klef.fsd.repository.OrderRepository;
+import com.mongodb.DBRef;
+import com.klef.fsd.repository.SellerRepository;
+import com.klef.fsd.search.CatalogIndexer;
+
+@ExtendWith(MockitoExtension.class)
+class OrderServiceImplTests {
+
+	private static final String BUYER = new ObjectId().toHexString();
+	private static final String ADDRESS = new ObjectId().toHexString();
+
+	@Mock
+	private OrderRepository orderRepository;
+
+	@Mock
+	private BuyerRepository buyerRepository;
+
+	@Mock
+	private SellerRepository sellerRepository;
+
+	@Mock
+	private AddressRepository addressRepository;
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private CatalogIndexer catalogIndexer;
+
+	@InjectMocks
+	private OrderServiceImpl orderService;
+
+	@Test
+	void tenLineCheckoutCostsFourRoundTrips() {
+		when(buyerRepository.findById(BUYER)).thenReturn(Optional.of(new Buyer()));
+		when(mongoTemplate.exists(any(Query.class), eq(Address.class))).thenReturn(true);
+		List<CartDTO> lines = new ArrayList<>();
+		List<Document> products = new ArrayList<>();
+		String seller = new ObjectId().toHexString();
+		for (int i = 0; i < 10; i++) {
+			ObjectId id = new ObjectId();
+			// Lines carry the price charged at checkout, which wins over the current price
+			lines.add(line(id.toHexString(), 2, 100));
+			products.add(new Document("_id", id).append("category", "Lamps")
+					.append("seller", new DBRef("seller", new ObjectId(seller))));
+		}
+		productsFound(products);
+		when(orderRepository.insert(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+		List<Order> orders = orderService.placeOrders(BUYER, ADDRESS, lines, "order_1", "pay_1");
+
+		assertThat(orders).hasSize(10).allSatisfy(order -> {
+			assertThat(order.getAmount()).isEqualTo(200);
+			assertThat(order.getRazorpayPaymentId()).isEqualTo("pay_1");
+			assertThat(order.getStatus()).isEqualTo("PAID");
+			assertThat(order.getSeller().getId()).isEqualTo(seller);
+			assertThat(order.getProduct().getCategory()).isEqualTo("Lamps");
+			assertThat(order.getAddress().getId()).isEqualTo(ADDRESS);
+		});
+		verify(buyerRepository, times(1)).findById(BUYER);
+		verify(mongoTemplate, times(1)).exists(any(Query.class), eq(Address.class));
+		verify(mongoTemplate, times(1)).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+		verify(orderRepository, times(1)).insert(anyList());
+		// No repository read, which would resolve the address's buyer and each product's seller
+		verifyNoInteractions(addressRepository, sellerRepository);
+		verify(catalogIndexer, times(10)).orderPlaced(any(Order.class));
+	}
+
+	@Test
+	void productsAreReadWithoutTheirDocuments() {
+		when(buyerRepository.findById(BUYER)).thenReturn(Optional.of(new Buyer()));
+		when(mongoTemplate.exists(any(Query.class), eq(Address.class))).thenReturn(true);
+		ObjectId id = new ObjectId();
+		productsFound(List.of(new Document("_id", id)));
+		when(orderRepository.insert(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+		orderService.placeOrders(BUYER, ADDRESS, List.of(line(id.toHexString(), 1, 100)), "order_1", "pay_1");
+
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).executeQuery(query.capture(), eq("products"), any(DocumentCallbackHandler.class));
+		assertThat(query.getValue().getFieldsObject()).isEqualTo(new Document("seller", 1).append("category", 1));
+	}
+
+	@Test
+	void missingProductInsertsNothing() {
+		when(buyerRepository.findById(BUYER)).thenReturn(Optional.of(new Buyer()));
+		when(mongoTemplate.exists(any(Query.class), eq(Address.class))).thenReturn(true);
+		productsFound(List.of());
+
+		assertThatThrownBy(() -> orderService.placeOrders(BUYER, ADDRESS,
+				List.of(line(new ObjectId().toHexString(), 1, 100)), "order_1", "pay_1"))
+				.isInstanceOf(IllegalArgumentException.class).hasMessageStartingWith("Product not found");
+		verify(orderRepository, never()).insert(anyList());
+	}
+
+	@Test
+	void unknownAddressIsRejectedBeforeTheProductsAreRead() {
+		when(buyerRepository.findById(BUYER)).thenReturn(Optional.of(new Buyer()));
+		when(mongoTemplate.exists(any(Query.class), eq(Address.class))).thenReturn(false);
+
+		assertThatThrownBy(() -> orderService.placeOrders(BUYER, ADDRESS,
+				List.of(line(new ObjectId().toHexString(), 1, 100)), "order_1", "pay_1"))
+				.isInstanceOf(IllegalArgumentException.class).hasMessageStartingWith("Address not found");
+		verify(mongoTemplate, never()).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+	}
+
+	@Test
+	void sellerOrdersPageRejectsAnUnknownSeller() {
+		String seller = new ObjectId().toHexString();
+		when(sellerRepository.existsById(seller)).thenReturn(false);
+
+		assertThatThrownBy(() -> orderService.getOrdersBySellerIdPage(seller, null, 10))
+				.isInstanceOf(IllegalArgumentException.class).hasMessage("Seller does not exist");
+		verifyNoInteractions(orderRepository);
+	}
+
+	private void productsFound(List<Document> products) {
+		doAnswer(invocation -> {
+			DocumentCallbackHandler handler = invocation.getArgument(2);
+			for (Document product : products) {
+				handler.processDocument(product);
+			}
+			return null;
+		}).when(mongoTemplate).executeQuery(any(Query.class), eq("products"), any(DocumentCallbackHandler.class));
+	}
+
+	private static CartDTO line(String productId, int quantity, double cost) {
+		ProductDTO product = new ProductDTO();
+		product.setId(productId);
+		product.setCost(cost);
+		CartDTO line = new CartDTO();
+		line.setQuantity(quantity);
+		line.setProduct(product);
+		return line;
+	}
+}
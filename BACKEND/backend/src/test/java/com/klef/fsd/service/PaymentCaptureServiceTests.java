@@ -0,0 +1,169 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+
+import com.klef.fsd.dto.CartDTO;
+import com.klef.fsd.model.Checkout;
+import com.klef.fsd.model.Order;
+import com.klef.fsd.model.PaymentEvent;
+import com.klef.fsd.repository.CheckoutRepository;
+import com.klef.fsd.repository.OrderRepository;
+import com.mongodb.DBRef;
+
+@ExtendWith(MockitoExtension.class)
+class PaymentCaptureServiceTests {
+
+	@Mock
+	private OrderRepository orderRepository;
+
+	@Mock
+	private CheckoutRepository checkoutRepository;
+
+	@Mock
+	private CartService cartService;
+
+	@Mock
+	private OrderService orderService;
+
+	@InjectMocks
+	private PaymentCaptureService paymentCaptureService;
+
+	@Test
+	void captureBuildsOrdersFromTheCheckoutSnapshot() {
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.of(checkout()));
+		when(orderService.placeOrders(anyString(), anyString(), anyList(), anyString(), anyString()))
+				.thenReturn(List.of(new Order()));
+
+		assertThat(paymentCaptureService.capture(event("b1", "a1")).created()).isEqualTo(1);
+
+		// The cart is not read: it may have changed since the buyer paid
+		verify(cartService, never()).getCartItemsByBuyerId(anyString());
+		ArgumentCaptor<List<CartDTO>> lines = ArgumentCaptor.captor();
+		InOrder order = inOrder(cartService, orderService);
+		order.verify(orderService).placeOrders(eq("b1"), eq("a1"), lines.capture(), eq("order_1"), eq("pay_1"));
+		order.verify(cartService).removeProductsFromCart("b1", Set.of("p1"));
+		assertThat(lines.getValue()).singleElement().satisfies(line -> {
+			assertThat(line.getProduct().getId()).isEqualTo("p1");
+			assertThat(line.getProduct().getCost()).isEqualTo(250.0);
+			assertThat(line.getQuantity()).isEqualTo(2);
+		});
+	}
+
+	@Test
+	void repeatedCaptureOnlyRemovesThePaidForProducts() {
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.of(checkout()));
+		when(orderRepository.productsByPayment("pay_1")).thenReturn(List.of(orderedProduct("p1")));
+
+		assertThat(paymentCaptureService.capture(event("b1", "a1")).created()).isZero();
+		// The earlier attempt may have died between the insert and the cart update
+		verify(cartService).removeProductsFromCart("b1", Set.of("p1"));
+		verifyNoInteractions(orderService);
+	}
+
+	@Test
+	void partlyAppliedCaptureInsertsTheMissingLines() {
+		Checkout checkout = checkout();
+		checkout.setLines(List.of(new Checkout.Line("p1", 2, 250), new Checkout.Line("p2", 1, 90)));
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.of(checkout));
+		when(orderRepository.productsByPayment("pay_1")).thenReturn(List.of(orderedProduct("p1")));
+		when(orderService.placeOrders(anyString(), anyString(), anyList(), anyString(), anyString()))
+				.thenReturn(List.of(new Order()));
+
+		assertThat(paymentCaptureService.capture(event("b1", "a1")).created()).isEqualTo(1);
+
+		ArgumentCaptor<List<CartDTO>> lines = ArgumentCaptor.captor();
+		verify(orderService).placeOrders(eq("b1"), eq("a1"), lines.capture(), eq("order_1"), eq("pay_1"));
+		assertThat(lines.getValue()).singleElement()
+				.satisfies(line -> assertThat(line.getProduct().getId()).isEqualTo("p2"));
+		verify(cartService).removeProductsFromCart("b1", Set.of("p1", "p2"));
+	}
+
+	@Test
+	void deletedProductIsReportedAndTheRestIsOrdered() {
+		Checkout checkout = checkout();
+		checkout.setLines(List.of(new Checkout.Line("p1", 2, 250), new Checkout.Line("p2", 1, 90)));
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.of(checkout));
+		when(orderService.placeOrders(anyString(), anyString(), anyList(), anyString(), anyString()))
+				.thenThrow(new ProductUnavailableException(List.of("p1")))
+				.thenReturn(List.of(new Order()));
+
+		PaymentCaptureService.Capture capture = paymentCaptureService.capture(event("b1", "a1"));
+
+		assertThat(capture.created()).isEqualTo(1);
+		assertThat(capture.unavailable()).containsExactly("p1");
+		ArgumentCaptor<List<CartDTO>> lines = ArgumentCaptor.captor();
+		verify(orderService, times(2)).placeOrders(eq("b1"), eq("a1"), lines.capture(), eq("order_1"),
+				eq("pay_1"));
+		assertThat(lines.getAllValues().get(1)).singleElement()
+				.satisfies(line -> assertThat(line.getProduct().getId()).isEqualTo("p2"));
+		verify(cartService).removeProductsFromCart("b1", Set.of("p1", "p2"));
+	}
+
+	@Test
+	void concurrentCaptureRejectedByTheIndexIsRetried() {
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.of(checkout()));
+		when(orderService.placeOrders(anyString(), anyString(), anyList(), anyString(), anyString()))
+				.thenThrow(new DuplicateKeyException("E11000 duplicate key error index: payment_product"));
+
+		assertThatThrownBy(() -> paymentCaptureService.capture(event("b1", "a1")))
+				.isInstanceOf(DuplicateKeyException.class);
+		verifyNoInteractions(cartService);
+	}
+
+	@Test
+	void captureWithoutACheckoutFails() {
+		when(checkoutRepository.findById("order_1")).thenReturn(Optional.empty());
+
+		assertThatThrownBy(() -> paymentCaptureService.capture(event(null, null)))
+				.isInstanceOf(IllegalArgumentException.class);
+		verify(orderService, never()).placeOrders(any(), any(), any(), any(), any());
+	}
+
+	private static Document orderedProduct(String productId) {
+		return new Document("product", new DBRef("products", productId));
+	}
+
+	private static Checkout checkout() {
+		Checkout checkout = new Checkout();
+		checkout.setRazorpayOrderId("order_1");
+		checkout.setBuyerId("b1");
+		checkout.setAddressId("a1");
+		checkout.setAmount(50000);
+		checkout.setLines(List.of(new Checkout.Line("p1", 2, 250)));
+		return checkout;
+	}
+
+	private static PaymentEvent event(String buyerId, String addressId) {
+		PaymentEvent event = new PaymentEvent();
+		event.setRazorpayPaymentId("pay_1");
+		event.setRazorpayOrderId("order_1");
+		event.setBuyerId(buyerId);
+		event.setAddressId(addressId);
+		return event;
+	}
+}
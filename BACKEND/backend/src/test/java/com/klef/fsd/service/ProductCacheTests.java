@@ -0,0 +1,28 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.klef.fsd.model.Product;
+
+class ProductCacheTests {
+
+	@Test
+	void editingAReturnedProductLeavesTheCachedOneAlone() {
+		ProductCache cache = new ProductCache(1 << 20, 300);
+		Product stored = new Product();
+		stored.setId("p1");
+		stored.setName("Lamp");
+		stored.setCost(100);
+
+		Product editing = cache.get("p1", id -> stored);
+		editing.setName("Half edited");
+		editing.setCost(1);
+
+		Product read = cache.get("p1", id -> null);
+		assertThat(read).isNotSameAs(editing);
+		assertThat(read.getName()).isEqualTo("Lamp");
+		assertThat(read.getCost()).isEqualTo(100);
+	}
+}
@@ -0,0 +1,56 @@
+package com.klef.fsd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.razorpay.Utils;
+
+class StubPaymentGatewayTests {
+
+	@Test
+	void sameSeedGivesTheSameRun() {
+		assertThat(run(new StubPaymentGateway(0, 0.3, 7, "s"))).isEqualTo(run(new StubPaymentGateway(0, 0.3, 7, "s")))
+				.contains("failed").contains("order_stub00000000000001");
+	}
+
+	@Test
+	void noFailuresByDefault() {
+		StubPaymentGateway gateway = new StubPaymentGateway(0, 0, 42, "s");
+		PaymentGateway.GatewayOrder order = gateway.createOrder(4200, "INR", "receipt", Map.of());
+		assertThat(order.amount()).isEqualTo(4200);
+		assertThat(order.currency()).isEqualTo("INR");
+	}
+
+	@Test
+	void alwaysFailingGatewayThrows() {
+		StubPaymentGateway gateway = new StubPaymentGateway(0, 1, 42, "s");
+		assertThatThrownBy(() -> gateway.createOrder(100, "INR", "receipt", Map.of()))
+				.isInstanceOf(PaymentGatewayException.class);
+	}
+
+	@Test
+	void verifiesSignaturesMadeWithTheStubSecret() throws Exception {
+		StubPaymentGateway gateway = new StubPaymentGateway(0, 0, 42, "stub_secret");
+		String signature = Utils.getHash("order_1|pay_1", "stub_secret");
+		assertThat(gateway.verifyPaymentSignature("order_1", "pay_1", signature)).isTrue();
+		assertThat(gateway.verifyPaymentSignature("order_1", "pay_2", signature)).isFalse();
+	}
+
+	private static List<String> run(StubPaymentGateway gateway) {
+		List<String> outcomes = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			try {
+				outcomes.add(gateway.createOrder(100, "INR", "receipt", Map.of()).id());
+			} catch (PaymentGatewayException e) {
+				outcomes.add("failed");
+			}
+		}
+		return outcomes;
+	}
+}
@@ -1,10 +1,23 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { Link, useNavigate } from 'react-router-dom';
 import { FaTrash, FaArrowLeft, FaShoppingCart, FaMapMarkerAlt, FaPlus, FaCheckCircle } from 'react-icons/fa';
 import { toast } from 'react-toastify';
 import axios from 'axios';
 import config from '../config';
 
+// crypto.randomUUID only exists in secure contexts; getRandomValues works over plain http too
+const newIdempotencyKey = () => {
+  if (window.crypto && typeof window.crypto.randomUUID === 'function') {
+    return window.crypto.randomUUID();
+  }
+  const bytes = new Uint8Array(16);
+  window.crypto.getRandomValues(bytes);
+  return Array.from(bytes, b => b.toString(16).padStart(2, '0')).join('');
+};
+
+const CAPTURE_POLL_INTERVAL_MS = 1500;
+const CAPTURE_POLL_ATTEMPTS = 40;
+
 export default function Cart() {
   const [cartItems, setCartItems] = useState([]);
   const [loading, setLoading] = useState(true);
@@ -22,12 +35,19 @@ export default function Cart() {
   });
   const [checkoutStep, setCheckoutStep] = useState('cart');
   const [imagesLoaded, setImagesLoaded] = useState({});
+  // One key per checkout attempt: retries reuse it and get the same Razorpay order back
+  const checkoutKeyRef = useRef(null);
   const navigate = useNavigate();
 
   useEffect(() => {
     fetchCartItems();
   }, []);
 
+  // A different cart or address is a new checkout attempt
+  useEffect(() => {
+    checkoutKeyRef.current = null;
+  }, [cartItems, selectedAddressId]);
+
   useEffect(() => {
     if (checkoutStep === 'address') {
       fetchAddresses();
@@ -238,6 +258,26 @@ export default function Cart() {
     }
     setCheckoutStep('payment');
   };
+// Polls the capture status until the orders are placed or placing them failed
+const waitForCapture = async (initial) => {
+  let result = initial;
+  for (let attempt = 0; attempt < CAPTURE_POLL_ATTEMPTS; attempt++) {
+    if (result.status === 'DONE' || result.status === 'FAILED') {
+      return result;
+    }
+    await new Promise(resolve => setTimeout(resolve, CAPTURE_POLL_INTERVAL_MS));
+    try {
+      const statusResponse = await axios.get(`${config.url}/payment/status`, {
+        params: { paymentId: initial.paymentId }
+      });
+      result = statusResponse.data;
+    } catch (err) {
+      console.error("Error checking payment status:", err);
+    }
+  }
+  return result;
+};
+
 // Fixed handlePlaceOrder method for Cart.jsx
 const handlePlaceOrder = async () => {
   try {
@@ -250,10 +290,13 @@ const handlePlaceOrder = async () => {
     const buyerId = buyerData.id;
     console.log('Placing order with:', { buyerId, addressId: selectedAddressId });
 
+    if (!checkoutKeyRef.current) {
+      checkoutKeyRef.current = newIdempotencyKey();
+    }
     const response = await axios.post(`${config.url}/payment/create-order`, {
       buyerId,
       addressId: selectedAddressId
-    });
+    }, { headers: { 'Idempotency-Key': checkoutKeyRef.current } });
 
     console.log('Response from create-order:', response.data);
 
@@ -283,14 +326,23 @@ const handlePlaceOrder = async () => {
             razorpay_signature: response.razorpay_signature,
             buyerId,
             addressId: selectedAddressId
-          });
+          }, { headers: { 'Idempotency-Key': response.razorpay_payment_id } });
 
-          if (verifyResponse.data && verifyResponse.data.success) {
-            toast.success(verifyResponse.data.message || 'Payment successful!');
+          if (!verifyResponse.data || !verifyResponse.data.success) {
+            throw new Error(verifyResponse.data?.message || 'Payment verification failed');
+          }
+
+          // Orders are placed in the background; wait for them before leaving the cart
+          const result = await waitForCapture(verifyResponse.data);
+          if (result.status === 'DONE') {
+            toast.success(result.message || 'Payment successful!');
             setCartItems([]);
             navigate('/myorders');
+          } else if (result.status === 'FAILED') {
+            toast.error(result.message || 'Your order could not be created');
           } else {
-            throw new Error(verifyResponse.data?.message || 'Payment verification failed');
+            toast.info('Payment received. Your order is still being placed and will appear in My Orders shortly.');
+            navigate('/myorders');
           }
         } catch (err) {
           console.error("Error verifying payment:", err);
@@ -32,12 +32,9 @@ export default function ProductDetail() {
         const response = await axios.get(`${config.url}/product/getproduct/${productId}`);
         setProduct(response.data);
         
-        if (response.data && response.data.category) {
-          const allProductsResponse = await axios.get(`${config.url}/product/viewallproducts`);
-          const related = allProductsResponse.data
-            .filter(p => p.category === response.data.category && p.id !== response.data.id)
-            .slice(0, 4);
-          setRelatedProducts(related);
+        if (response.data) {
+          const relatedResponse = await axios.get(`${config.url}/product/${productId}/recommendations?limit=4`);
+          setRelatedProducts(relatedResponse.data);
         }
         
       } catch (err) {